@@ -9,13 +9,16 @@ import java.util.Objects;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import net.robinfriedli.jxp.collections.ElementIdIndex;
 import net.robinfriedli.jxp.collections.NodeList;
+import net.robinfriedli.jxp.collections.SubElementSpliterator;
 import net.robinfriedli.jxp.collections.UninitializedNodeList;
 import net.robinfriedli.jxp.events.AttributeChangingEvent;
 import net.robinfriedli.jxp.events.AttributeCreatedEvent;
@@ -498,20 +501,17 @@ public abstract class AbstractXmlElement implements XmlElement {
 
     @Override
     public List<XmlElement> getSubElementsRecursive() {
-        List<XmlElement> elements = Lists.newArrayList();
-        for (XmlElement element : getSubElements()) {
-            recursiveAdd(elements, element);
-        }
-        return elements;
+        return streamSubElementsRecursive().collect(Collectors.toList());
     }
 
-    private void recursiveAdd(List<XmlElement> elements, XmlElement element) {
-        elements.add(element);
-        if (element.hasSubElements()) {
-            for (XmlElement subElement : element.getSubElements()) {
-                recursiveAdd(elements, subElement);
-            }
-        }
+    @Override
+    public Stream<XmlElement> streamSubElements() {
+        return SubElementSpliterator.stream(this);
+    }
+
+    @Override
+    public Stream<XmlElement> streamSubElementsRecursive() {
+        return SubElementSpliterator.streamRecursive(this);
     }
 
     @Override
@@ -526,7 +526,7 @@ public abstract class AbstractXmlElement implements XmlElement {
 
     @Override
     public <E extends XmlElement> E getSubElement(String id, Class<E> type) {
-        List<E> foundSubElements = getSubElements().stream()
+        List<E> foundSubElements = getSubElementCandidates(id).stream()
             .filter(subElem -> type.isInstance(subElem) && subElem.getId() != null && subElem.getId().equals(id))
             .map(type::cast)
             .collect(Collectors.toList());
@@ -569,7 +569,25 @@ public abstract class AbstractXmlElement implements XmlElement {
 
     @Override
     public boolean hasSubElement(String id) {
-        return getSubElements().stream().anyMatch(subElem -> subElem.getId() != null && subElem.getId().equals(id));
+        return getSubElementCandidates(id).stream().anyMatch(subElem -> subElem.getId() != null && subElem.getId().equals(id));
+    }
+
+    /**
+     * Use the id index of the Context, if available, to find the sub elements that might have the provided id. If this
+     * element is not part of the indexed element tree, for example because it has not been persisted yet, this simply
+     * returns all sub elements.
+     */
+    private List<XmlElement> getSubElementCandidates(String id) {
+        if (context != null) {
+            ElementIdIndex idIndex = context.internal().getIdIndex();
+            if (idIndex != null && (this == context.getDocumentElement() || idIndex.contains(this))) {
+                return idIndex.get(id).stream()
+                    .filter(element -> element.getParent() == this)
+                    .collect(Collectors.toList());
+            }
+        }
+
+        return getSubElements();
     }
 
     @Override
@@ -684,7 +702,7 @@ public abstract class AbstractXmlElement implements XmlElement {
 
     @Override
     public <E extends XmlElement> List<E> getInstancesOf(Class<E> c) {
-        return getSubElements().stream()
+        return streamSubElements()
             .filter(c::isInstance)
             .map(c::cast)
             .collect(Collectors.toList());
@@ -692,7 +710,7 @@ public abstract class AbstractXmlElement implements XmlElement {
 
     @Override
     public <E extends XmlElement> List<E> getInstancesOf(Class<E> c, Class<?>... ignoredSubClasses) {
-        return getSubElements().stream()
+        return streamSubElements()
             .filter(elem -> c.isInstance(elem) && Arrays.stream(ignoredSubClasses).noneMatch(clazz -> clazz.isInstance(elem)))
             .map(c::cast)
             .collect(Collectors.toList());
@@ -700,12 +718,12 @@ public abstract class AbstractXmlElement implements XmlElement {
 
     @Override
     public ResultStream<XmlElement> query(Predicate<XmlElement> condition) {
-        return Query.evaluate(condition).execute(getSubElementsRecursive());
+        return Query.evaluate(condition).execute(streamSubElementsRecursive());
     }
 
     @Override
     public <E extends XmlElement> ResultStream<E> query(Predicate<XmlElement> condition, Class<E> type) {
-        return Query.evaluate(condition).execute(getSubElementsRecursive(), type);
+        return Query.evaluate(condition).execute(streamSubElementsRecursive(), type);
     }
 
     @Override
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -24,9 +25,13 @@ import net.robinfriedli.jxp.persist.BindableCachedContext;
 import net.robinfriedli.jxp.persist.BindableLazyContext;
 import net.robinfriedli.jxp.persist.CachedContext;
 import net.robinfriedli.jxp.persist.Context;
+import net.robinfriedli.jxp.persist.FsyncPolicy;
+import net.robinfriedli.jxp.persist.Journal;
+import net.robinfriedli.jxp.persist.JournalSettings;
 import net.robinfriedli.jxp.persist.LazyContext;
 import net.robinfriedli.jxp.persist.StaticXmlParser;
 import net.robinfriedli.jxp.persist.Transaction;
+import net.robinfriedli.jxp.queries.xpath.XPathExpressionCache;
 import org.w3c.dom.Document;
 
 public class JxpBackend {
@@ -38,6 +43,13 @@ public class JxpBackend {
     private final Vector<JxpEventListener> listeners;
     private final Logger logger;
     private final DefaultContextType defaultContextType;
+    private final XPathExpressionCache xPathExpressionCache;
+    private final boolean streamingLoad;
+    private final FsyncPolicy fsyncPolicy;
+    @Nullable
+    private final JournalSettings journalSettings;
+    private final long groupCommitWindow;
+    private final long writeBehindInterval;
     private final ThreadLocal<Boolean> listenersMuted = ThreadLocal.withInitial(() -> false);
 
     public JxpBackend(Vector<JxpEventListener> listeners,
@@ -49,10 +61,33 @@ public class JxpBackend {
                       List<Context.BindableContext<?>> boundContexts,
                       Vector<JxpEventListener> listeners,
                       DefaultContextType defaultContextType) {
+        this(contexts, boundContexts, listeners, defaultContextType, new XPathExpressionCache(), false, FsyncPolicy.FILE, null, -1, -1);
+    }
+
+    /**
+     * Constructor used by the {@link JxpBuilder}, which documents the settings, the durations are in nanoseconds where
+     * a negative duration disables the respective feature.
+     */
+    JxpBackend(List<Context> contexts,
+               List<Context.BindableContext<?>> boundContexts,
+               Vector<JxpEventListener> listeners,
+               DefaultContextType defaultContextType,
+               XPathExpressionCache xPathExpressionCache,
+               boolean streamingLoad,
+               FsyncPolicy fsyncPolicy,
+               @Nullable JournalSettings journalSettings,
+               long groupCommitWindow,
+               long writeBehindInterval) {
         this.contexts = contexts;
         this.boundContexts = boundContexts;
         this.listeners = listeners;
         this.defaultContextType = defaultContextType;
+        this.xPathExpressionCache = xPathExpressionCache;
+        this.streamingLoad = streamingLoad;
+        this.fsyncPolicy = fsyncPolicy;
+        this.journalSettings = journalSettings;
+        this.groupCommitWindow = groupCommitWindow;
+        this.writeBehindInterval = writeBehindInterval;
         logger = LoggerSupplier.getLogger();
     }
 
@@ -64,6 +99,57 @@ public class JxpBackend {
         return boundContexts;
     }
 
+    /**
+     * @return the cache of compiled XPath expressions used by {@link Context#xPathQuery(String)} for all Contexts of
+     * this JxpBackend
+     */
+    public XPathExpressionCache getXPathExpressionCache() {
+        return xPathExpressionCache;
+    }
+
+    /**
+     * @return true if CachedContexts created for files read the file using
+     * {@link StaticXmlParser#streamDocument(File, Context)}, see {@link JxpBuilder#setStreamingLoad(boolean)}
+     */
+    public boolean isStreamingLoad() {
+        return streamingLoad;
+    }
+
+    /**
+     * @return the policy defining whether {@link StaticXmlParser#writeToFile(Context)} forces the written file to the
+     * storage device, see {@link JxpBuilder#setFsyncPolicy(FsyncPolicy)}
+     */
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    /**
+     * @return the settings of the {@link Journal} used by persistent Contexts or null if commits rewrite the file, see
+     * {@link JxpBuilder#setJournalSettings(JournalSettings)}
+     */
+    @Nullable
+    public JournalSettings getJournalSettings() {
+        return journalSettings;
+    }
+
+    /**
+     * @return the window in nanoseconds within which the file writes of transactions committed to the same Context are
+     * coalesced into a single write or -1 if each commit writes the file itself, see
+     * {@link JxpBuilder#setGroupCommitWindow(long, TimeUnit)}
+     */
+    public long getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+
+    /**
+     * @return the interval in nanoseconds after which a background thread writes the changes committed to a Context or
+     * -1 if changes are written before the invocation returns, see
+     * {@link JxpBuilder#setWriteBehindInterval(long, TimeUnit)}
+     */
+    public long getWriteBehindInterval() {
+        return writeBehindInterval;
+    }
+
     public Context getContext(String path) {
         return getContext(new File(path));
     }
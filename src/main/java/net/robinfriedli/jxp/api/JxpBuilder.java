@@ -6,10 +6,14 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import net.robinfriedli.jxp.events.JxpEventListener;
+import net.robinfriedli.jxp.persist.FsyncPolicy;
+import net.robinfriedli.jxp.persist.JournalSettings;
+import net.robinfriedli.jxp.queries.xpath.XPathExpressionCache;
 import org.w3c.dom.Document;
 
 public class JxpBuilder {
@@ -18,6 +22,12 @@ public class JxpBuilder {
     private final Set<File> contextFiles = Sets.newHashSet();
     private final Set<Document> contextDocuments = Sets.newHashSet();
     private JxpBackend.DefaultContextType defaultContextType = JxpBackend.DefaultContextType.CACHED;
+    private int xPathCacheCapacity = XPathExpressionCache.DEFAULT_CAPACITY;
+    private boolean streamingLoad;
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.FILE;
+    private JournalSettings journalSettings;
+    private long groupCommitWindow = -1;
+    private long writeBehindInterval = -1;
 
     public JxpBuilder addListeners(JxpEventListener... listeners) {
         this.listeners.addAll(Arrays.asList(listeners));
@@ -54,8 +64,82 @@ public class JxpBuilder {
         return this;
     }
 
+    /**
+     * Set the maximum amount of compiled XPath expressions cached by the JxpBackend, 0 disables caching.
+     */
+    public JxpBuilder setXPathCacheCapacity(int capacity) {
+        xPathCacheCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Read the files of CachedContexts using a StAX parser that builds the DOM tree and the element tree in a single
+     * pass, rather than parsing the complete DOM document first and instantiating the element tree from it afterwards,
+     * which speeds up loading large files. See {@link net.robinfriedli.jxp.persist.StaticXmlParser#streamDocument(File,
+     * net.robinfriedli.jxp.persist.Context)} for the differences of the resulting DOM tree.
+     */
+    public JxpBuilder setStreamingLoad(boolean streamingLoad) {
+        this.streamingLoad = streamingLoad;
+        return this;
+    }
+
+    /**
+     * Set whether writing the file of a Context forces the written data to the storage device, defaults to
+     * {@link FsyncPolicy#FILE}.
+     */
+    public JxpBuilder setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+        this.fsyncPolicy = fsyncPolicy;
+        return this;
+    }
+
+    /**
+     * Append the changes of each commit to a {@link net.robinfriedli.jxp.persist.Journal} next to the file of a
+     * persistent Context instead of rewriting the complete file, which is only rewritten at the checkpoints defined by
+     * the provided settings. Null, the default, disables the journal.
+     */
+    public JxpBuilder setJournalSettings(JournalSettings journalSettings) {
+        this.journalSettings = journalSettings;
+        return this;
+    }
+
+    /**
+     * Coalesce the file writes of transactions committed to the same Context by concurrent invocations, see
+     * {@link net.robinfriedli.jxp.persist.GroupCommit}. After committing, an invocation waits up to the provided window
+     * for further commits before the file is written once for all of them, which still happens before the invocations
+     * return. A window of 0 does not delay the write but still includes all commits made while a previous write was in
+     * progress. A negative window, the default, disables group commit.
+     */
+    public JxpBuilder setGroupCommitWindow(long window, TimeUnit timeUnit) {
+        groupCommitWindow = window < 0 ? -1 : timeUnit.toNanos(window);
+        return this;
+    }
+
+    /**
+     * Write the changes committed to a persistent Context in a background thread instead of before the invocation
+     * returns, see {@link net.robinfriedli.jxp.persist.WriteBehind}. The write is made once the provided interval has
+     * elapsed since the oldest unwritten commit and covers all transactions committed in the meantime, use
+     * {@link net.robinfriedli.jxp.persist.Context#getPendingWrite()} to wait until the changes are durable. Changes
+     * committed within the interval before the JVM terminates abruptly are lost. Takes precedence over
+     * {@link #setGroupCommitWindow(long, TimeUnit)}. A negative interval, the default, disables write-behind.
+     */
+    public JxpBuilder setWriteBehindInterval(long interval, TimeUnit timeUnit) {
+        writeBehindInterval = interval < 0 ? -1 : timeUnit.toNanos(interval);
+        return this;
+    }
+
     public JxpBackend build() {
-        JxpBackend jxpBackend = new JxpBackend(new Vector<>(listeners), defaultContextType);
+        JxpBackend jxpBackend = new JxpBackend(
+            Lists.newArrayList(),
+            Lists.newArrayList(),
+            new Vector<>(listeners),
+            defaultContextType,
+            new XPathExpressionCache(xPathCacheCapacity),
+            streamingLoad,
+            fsyncPolicy,
+            journalSettings,
+            groupCommitWindow,
+            writeBehindInterval
+        );
         contextFiles.forEach(jxpBackend::getContext);
         contextDocuments.forEach(jxpBackend::getContext);
 
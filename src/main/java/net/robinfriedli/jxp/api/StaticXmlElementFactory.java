@@ -17,6 +17,7 @@ import net.robinfriedli.jxp.collections.UninitializedNodeList;
 import net.robinfriedli.jxp.exceptions.PersistException;
 import net.robinfriedli.jxp.persist.Context;
 import net.robinfriedli.jxp.persist.ElementUtils;
+import net.robinfriedli.jxp.queries.QueryStatistics;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.Text;
@@ -141,6 +142,21 @@ public class StaticXmlElementFactory {
             childNodeList = new UninitializedNodeList(context, element);
         }
 
+        return instantiatePersistentXmlElement(element, childNodeList, context);
+    }
+
+    /**
+     * Instantiate the XmlElement for the provided DOM element with child nodes that have already been instantiated,
+     * e.g. by {@link net.robinfriedli.jxp.persist.StaticXmlParser#streamDocument(java.io.File, Context)}, which
+     * instantiates the child nodes while reading the file.
+     *
+     * @param element       the DOM element
+     * @param childNodeList the instantiated child nodes of the DOM element
+     * @param context       the Context the element belongs to
+     * @return the instantiated element, which is an instance of the class mapped to the tag name or a BaseXmlElement
+     */
+    public static XmlElement instantiatePersistentXmlElement(Element element, NodeList childNodeList, Context context) {
+        QueryStatistics.recordInstantiation();
         Class<? extends XmlElement> xmlClass = INSTANTIATION_CONTRIBUTIONS.get(element.getTagName());
         if (xmlClass != null) {
             try {
@@ -1,25 +1,31 @@
 package net.robinfriedli.jxp.api;
 
 import java.math.BigDecimal;
-import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
-import com.google.common.collect.Lists;
 import net.robinfriedli.jxp.exceptions.ConversionException;
 
+/**
+ * Registry of the {@link StringConversionContribution}s used to convert attribute values and text contents from and to
+ * strings. The contributions are kept in a concurrent map keyed by the class they convert, so looking up a conversion
+ * takes constant time and conversions can be added via {@link #map(Object, Class, Function, Function)} while other
+ * threads convert values. {@link #toInt(String)}, {@link #toLong(String)}, {@link #toDouble(String)},
+ * {@link #toFloat(String)} and {@link #toBoolean(String)} convert to primitives without boxing.
+ */
 public class StringConverter {
 
-    private static final List<StringConversionContribution<?>> stringConversions = Lists.newArrayList();
+    private static final Map<Class<?>, StringConversionContribution<?>> stringConversions = new ConcurrentHashMap<>();
 
     static {
-        stringConversions.add(new StringConversionContribution<>(0, Integer.class, Integer::parseInt, Object::toString));
-        stringConversions.add(new StringConversionContribution<>(0D, Double.class, Double::parseDouble, Object::toString));
-        stringConversions.add(new StringConversionContribution<>(0F, Float.class, Float::parseFloat, Object::toString));
-        stringConversions.add(new StringConversionContribution<>(0L, Long.class, Long::parseLong, Object::toString));
-        stringConversions.add(new StringConversionContribution<>(false, Boolean.class, Boolean::parseBoolean, Object::toString));
-        stringConversions.add(new StringConversionContribution<>(BigDecimal.ZERO, BigDecimal.class, BigDecimal::new, BigDecimal::toString));
-        stringConversions.add(new StringConversionContribution<>("", String.class, String::toString, String::toString));
+        register(new StringConversionContribution<>(0, Integer.class, Integer::parseInt, Object::toString));
+        register(new StringConversionContribution<>(0D, Double.class, Double::parseDouble, Object::toString));
+        register(new StringConversionContribution<>(0F, Float.class, Float::parseFloat, Object::toString));
+        register(new StringConversionContribution<>(0L, Long.class, Long::parseLong, Object::toString));
+        register(new StringConversionContribution<>(false, Boolean.class, Boolean::parseBoolean, Object::toString));
+        register(new StringConversionContribution<>(BigDecimal.ZERO, BigDecimal.class, BigDecimal::new, BigDecimal::toString));
+        register(new StringConversionContribution<>("", String.class, String::toString, String::toString));
     }
 
 
@@ -33,6 +39,42 @@ public class StringConverter {
         }
     }
 
+    public static int toInt(String s) throws ConversionException {
+        try {
+            return Integer.parseInt(s);
+        } catch (RuntimeException e) {
+            throw new ConversionException(e);
+        }
+    }
+
+    public static long toLong(String s) throws ConversionException {
+        try {
+            return Long.parseLong(s);
+        } catch (RuntimeException e) {
+            throw new ConversionException(e);
+        }
+    }
+
+    public static double toDouble(String s) throws ConversionException {
+        try {
+            return Double.parseDouble(s);
+        } catch (RuntimeException e) {
+            throw new ConversionException(e);
+        }
+    }
+
+    public static float toFloat(String s) throws ConversionException {
+        try {
+            return Float.parseFloat(s);
+        } catch (RuntimeException e) {
+            throw new ConversionException(e);
+        }
+    }
+
+    public static boolean toBoolean(String s) {
+        return Boolean.parseBoolean(s);
+    }
+
     @SuppressWarnings("unchecked")
     public static <V> String reverse(V objectToReverse) throws ConversionException {
         StringConversionContribution<V> converter = (StringConversionContribution<V>) getConverter(objectToReverse.getClass());
@@ -44,13 +86,11 @@ public class StringConverter {
     }
 
     public static <V> void map(V emptyValue, Class<V> targetClass, Function<String, V> conversionFunc, Function<V, String> reverseFunc) {
-        if (!canConvert(targetClass)) {
-            stringConversions.add(new StringConversionContribution<>(emptyValue, targetClass, conversionFunc, reverseFunc));
-        }
+        stringConversions.putIfAbsent(targetClass, new StringConversionContribution<>(emptyValue, targetClass, conversionFunc, reverseFunc));
     }
 
     public static boolean canConvert(Class<?> target) {
-        return stringConversions.stream().anyMatch(c -> c.getClassToConvert().equals(target));
+        return stringConversions.containsKey(target);
     }
 
     public static <V> V getEmptyValue(Class<V> classToConvert) {
@@ -59,17 +99,18 @@ public class StringConverter {
 
     @SuppressWarnings("unchecked")
     private static <V> StringConversionContribution<V> getConverter(Class<V> classToConvert) {
-        Optional<StringConversionContribution<?>> stringConverter = stringConversions
-            .stream()
-            .filter(c -> c.getClassToConvert().equals(classToConvert))
-            .findFirst();
+        StringConversionContribution<?> stringConverter = stringConversions.get(classToConvert);
 
-        if (stringConverter.isPresent()) {
-            return (StringConversionContribution<V>) stringConverter.get();
+        if (stringConverter != null) {
+            return (StringConversionContribution<V>) stringConverter;
         } else {
             throw new IllegalStateException("No conversion available for class " + classToConvert.getSimpleName()
                 + ". Add with StringConverter#map");
         }
     }
 
+    private static void register(StringConversionContribution<?> contribution) {
+        stringConversions.put(contribution.getClassToConvert(), contribution);
+    }
+
 }
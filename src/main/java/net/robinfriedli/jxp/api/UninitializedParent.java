@@ -4,6 +4,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 
@@ -240,6 +241,16 @@ public class UninitializedParent implements XmlElement {
         return getInitialized().getSubElementsRecursive();
     }
 
+    @Override
+    public Stream<XmlElement> streamSubElements() {
+        return getInitialized().streamSubElements();
+    }
+
+    @Override
+    public Stream<XmlElement> streamSubElementsRecursive() {
+        return getInitialized().streamSubElementsRecursive();
+    }
+
     @Override
     public <E extends XmlElement> List<E> getSubElementsWithType(Class<E> type) {
         return getInitialized().getSubElementsWithType(type);
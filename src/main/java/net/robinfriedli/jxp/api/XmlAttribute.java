@@ -1,14 +1,23 @@
 package net.robinfriedli.jxp.api;
 
+import javax.annotation.Nullable;
+
 import net.robinfriedli.jxp.events.AttributeChangingEvent;
 import net.robinfriedli.jxp.events.AttributeCreatedEvent;
 import net.robinfriedli.jxp.events.AttributeDeletedEvent;
 
+/**
+ * Represents an attribute of an {@link XmlElement}. The value is stored as string, the result of the last conversion
+ * to a different type via {@link #getValue(Class)} or the primitive accessors such as {@link #getInt()} is cached until
+ * the value changes, primitive values are cached without boxing.
+ */
 public class XmlAttribute {
 
     private final XmlElement parentElement;
     private final String attributeName;
-    private String value;
+    private volatile String value;
+    @Nullable
+    private volatile ConvertedValue convertedValue;
 
     public XmlAttribute(XmlElement parentElement, String attributeName) {
         this.parentElement = parentElement;
@@ -44,23 +53,51 @@ public class XmlAttribute {
     }
 
     public <V> V getValue(Class<V> target) {
-        return StringConverter.convert(value, target);
+        String value = this.value;
+        ConvertedValue cached = convertedValue;
+        if (cached != null && cached.isConversionOf(value, target)) {
+            if (cached.object != null) {
+                return target.cast(cached.object);
+            }
+
+            // the value has only been requested as primitive so far
+            V boxed = target.cast(cached.box());
+            convertedValue = new ConvertedValue(value, target, boxed, cached.longValue, cached.doubleValue);
+            return boxed;
+        }
+
+        V converted = StringConverter.convert(value, target);
+        convertedValue = ConvertedValue.of(value, target, converted);
+        return converted;
+    }
+
+    /**
+     * @return true if the value converted to the provided type is cached, meaning {@link #getValue(Class)} or the
+     * corresponding primitive accessor returns it without converting the value again
+     */
+    public boolean isConversionCached(Class<?> type) {
+        ConvertedValue cached = convertedValue;
+        return cached != null && cached.isConversionOf(value, type);
     }
 
     public int getInt() {
-        return getValue(Integer.class);
+        return (int) getLongValue(Integer.class);
     }
 
     public boolean getBool() {
-        return getValue(Boolean.class);
+        return getLongValue(Boolean.class) != 0;
     }
 
     public float getFloat() {
-        return getValue(Float.class);
+        return (float) getDoubleValue(Float.class);
+    }
+
+    public double getDouble() {
+        return getDoubleValue(Double.class);
     }
 
     public long getLong() {
-        return getValue(Long.class);
+        return getLongValue(Long.class);
     }
 
     public void applyChange(AttributeChangingEvent change) throws UnsupportedOperationException {
@@ -81,6 +118,7 @@ public class XmlAttribute {
             throw new UnsupportedOperationException("Change can't be applied to this XmlAttribute since the change does not refer to this attribute");
         }
 
+        convertedValue = null;
         if (isRollback) {
             value = change.getOldValue();
             if (change.isCommitted() && parentElement.isPersisted()) {
@@ -91,6 +129,94 @@ public class XmlAttribute {
         }
     }
 
+    private long getLongValue(Class<?> type) {
+        String value = this.value;
+        ConvertedValue cached = convertedValue;
+        if (cached != null && cached.isConversionOf(value, type)) {
+            return cached.longValue;
+        }
+
+        long converted;
+        if (type == Integer.class) {
+            converted = StringConverter.toInt(value);
+        } else if (type == Long.class) {
+            converted = StringConverter.toLong(value);
+        } else {
+            converted = StringConverter.toBoolean(value) ? 1 : 0;
+        }
+
+        convertedValue = new ConvertedValue(value, type, null, converted, 0);
+        return converted;
+    }
+
+    private double getDoubleValue(Class<?> type) {
+        String value = this.value;
+        ConvertedValue cached = convertedValue;
+        if (cached != null && cached.isConversionOf(value, type)) {
+            return cached.doubleValue;
+        }
+
+        double converted = type == Float.class ? StringConverter.toFloat(value) : StringConverter.toDouble(value);
+        convertedValue = new ConvertedValue(value, type, null, 0, converted);
+        return converted;
+    }
+
+    /**
+     * The immutable result of converting a value, replaced as a whole so that concurrent readers never see a partially
+     * updated cache. Integer, Long and Boolean values are also held as long, Double and Float values as double.
+     */
+    private static final class ConvertedValue {
+
+        // the string that was converted, compared by identity to detect that the value has changed
+        private final String source;
+        private final Class<?> type;
+        @Nullable
+        private final Object object;
+        private final long longValue;
+        private final double doubleValue;
+
+        private ConvertedValue(String source, Class<?> type, @Nullable Object object, long longValue, double doubleValue) {
+            this.source = source;
+            this.type = type;
+            this.object = object;
+            this.longValue = longValue;
+            this.doubleValue = doubleValue;
+        }
+
+        private static ConvertedValue of(String source, Class<?> type, Object converted) {
+            long longValue = 0;
+            double doubleValue = 0;
+            if (converted instanceof Integer || converted instanceof Long) {
+                longValue = ((Number) converted).longValue();
+            } else if (converted instanceof Boolean) {
+                longValue = (Boolean) converted ? 1 : 0;
+            } else if (converted instanceof Double || converted instanceof Float) {
+                doubleValue = ((Number) converted).doubleValue();
+            }
+
+            return new ConvertedValue(source, type, converted, longValue, doubleValue);
+        }
+
+        private boolean isConversionOf(String source, Class<?> type) {
+            return this.source == source && this.type == type;
+        }
+
+        private Object box() {
+            if (type == Integer.class) {
+                return (int) longValue;
+            } else if (type == Long.class) {
+                return longValue;
+            } else if (type == Boolean.class) {
+                return longValue != 0;
+            } else if (type == Float.class) {
+                return (float) doubleValue;
+            } else {
+                return doubleValue;
+            }
+        }
+
+    }
+
     /**
      * Used when {@link XmlElement#getAttribute(String)} is called for an attribute that does not exist on this element.
      * This is a temporary XmlAttribute that is only added to the XmlElement instance once it is written to.
@@ -151,6 +277,43 @@ public class XmlAttribute {
             return definitiveAttribute.getValue(target);
         }
 
+        @Override
+        public boolean isConversionCached(Class<?> type) {
+            recheck();
+            // the empty value of a missing attribute is not converted
+            return definitiveAttribute == null || definitiveAttribute.isConversionCached(type);
+        }
+
+        @Override
+        public int getInt() {
+            recheck();
+            return definitiveAttribute != null ? definitiveAttribute.getInt() : StringConverter.getEmptyValue(Integer.class);
+        }
+
+        @Override
+        public boolean getBool() {
+            recheck();
+            return definitiveAttribute != null ? definitiveAttribute.getBool() : StringConverter.getEmptyValue(Boolean.class);
+        }
+
+        @Override
+        public float getFloat() {
+            recheck();
+            return definitiveAttribute != null ? definitiveAttribute.getFloat() : StringConverter.getEmptyValue(Float.class);
+        }
+
+        @Override
+        public double getDouble() {
+            recheck();
+            return definitiveAttribute != null ? definitiveAttribute.getDouble() : StringConverter.getEmptyValue(Double.class);
+        }
+
+        @Override
+        public long getLong() {
+            recheck();
+            return definitiveAttribute != null ? definitiveAttribute.getLong() : StringConverter.getEmptyValue(Long.class);
+        }
+
         @Override
         public void applyChange(AttributeChangingEvent change) throws UnsupportedOperationException {
             throw new UnsupportedOperationException();
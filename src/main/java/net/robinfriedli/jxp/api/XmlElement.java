@@ -3,10 +3,12 @@ package net.robinfriedli.jxp.api;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 
 import net.robinfriedli.jxp.collections.NodeList;
+import net.robinfriedli.jxp.collections.SubElementSpliterator;
 import net.robinfriedli.jxp.events.ElementChangingEvent;
 import net.robinfriedli.jxp.exceptions.PersistException;
 import net.robinfriedli.jxp.persist.Context;
@@ -242,6 +244,18 @@ public interface XmlElement extends Node<Element> {
      */
     List<XmlElement> getSubElementsRecursive();
 
+    /**
+     * @return a lazy stream of all subElements that does not copy the list of subElements, see
+     * {@link SubElementSpliterator}
+     */
+    Stream<XmlElement> streamSubElements();
+
+    /**
+     * @return a lazy stream of all subElements and their subElements in document order that only traverses the tree
+     * as far as the stream is consumed, see {@link SubElementSpliterator}
+     */
+    Stream<XmlElement> streamSubElementsRecursive();
+
     /**
      * Get all subElements of this XmlElement of type {@link E}. Use this to method to treat subElements as instances of
      * their original class rather than XmlElements. As of v1.1 an alias for method {@link #getInstancesOf(Class)}
@@ -366,6 +380,10 @@ public interface XmlElement extends Node<Element> {
     /**
      * Define some way to identify this XmlElement instance, ideally through either one of its attributes or text content.
      * If there is no way to uniquely identify this XmlElement, just return null.
+     * <p>
+     * Contexts that index elements by id, see {@link net.robinfriedli.jxp.collections.ElementIdIndex}, update the index
+     * when the element or one of its descendants changes, so the id must only depend on the attributes, text content
+     * and sub elements of this element and not change otherwise, e.g. depending on fields or the parent element.
      *
      * @return unique id for this XmlElement instance
      */
@@ -0,0 +1,368 @@
+package net.robinfriedli.jxp.collections;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import net.robinfriedli.jxp.api.StringConverter;
+import net.robinfriedli.jxp.api.XmlAttribute;
+import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.exceptions.ConversionException;
+import net.robinfriedli.jxp.persist.Context;
+
+/**
+ * {@link ElementIndex} that maps the values of an attribute, converted to the provided type using the
+ * {@link StringConverter}, to the elements with that value. Elements where the attribute is missing or cannot be
+ * converted are not mapped to any value. The values are kept in a hash map for equality lookups and, if the type is
+ * {@link Comparable}, in a sorted map for range lookups. Create an index using
+ * {@link Context#createIndex(String, String, Class)}, after which queries executed via {@link Context#query} that
+ * compare the attribute use the index instead of checking all elements.
+ *
+ * @param <T> the type the attribute values are converted to
+ */
+public class AttributeIndex<T> implements ElementIndex {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    @Nullable
+    private final String tagName;
+    private final String attributeName;
+    private final Class<T> type;
+    private final Map<T, List<XmlElement>> elementsByValue = new HashMap<>();
+    @Nullable
+    private final NavigableMap<T, List<XmlElement>> sortedElements;
+    // all indexed elements, including elements without a value, mapped to the value they were indexed with
+    private final Map<XmlElement, T> indexedElements = new IdentityHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public AttributeIndex(@Nullable String tagName, String attributeName, Class<T> type) {
+        if (!StringConverter.canConvert(type)) {
+            throw new IllegalArgumentException("No conversion available for class " + type.getSimpleName()
+                + ". Add with StringConverter#map");
+        }
+
+        this.tagName = tagName;
+        this.attributeName = attributeName;
+        this.type = type;
+
+        if (Comparable.class.isAssignableFrom(type)) {
+            sortedElements = new TreeMap<>((Comparator<T>) Comparator.naturalOrder());
+        } else {
+            sortedElements = null;
+        }
+    }
+
+    @Override
+    public void add(XmlElement element) {
+        if (tagName != null && !tagName.equals(element.getTagName())) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (indexedElements.containsKey(element)) {
+                return;
+            }
+
+            T value = getValue(element);
+            indexedElements.put(element, value);
+            if (value != null) {
+                mapValue(value, element);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(XmlElement element) {
+        lock.writeLock().lock();
+        try {
+            if (!indexedElements.containsKey(element)) {
+                return;
+            }
+
+            T value = indexedElements.remove(element);
+            if (value != null) {
+                unmapValue(value, element);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void update(XmlElement element) {
+        lock.writeLock().lock();
+        try {
+            if (!indexedElements.containsKey(element)) {
+                return;
+            }
+
+            T oldValue = indexedElements.get(element);
+            T newValue = getValue(element);
+            if (!Objects.equals(oldValue, newValue)) {
+                if (oldValue != null) {
+                    unmapValue(oldValue, element);
+                }
+                if (newValue != null) {
+                    mapValue(newValue, element);
+                }
+                indexedElements.put(element, newValue);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            elementsByValue.clear();
+            if (sortedElements != null) {
+                sortedElements.clear();
+            }
+            indexedElements.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the tag name of the indexed elements or null if elements with any tag name are indexed
+     */
+    @Nullable
+    public String getTagName() {
+        return tagName;
+    }
+
+    public String getAttributeName() {
+        return attributeName;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * @return true if this index supports range lookups via {@link #getRange(Object, boolean, Object, boolean)}, which
+     * is the case if the type is {@link Comparable}
+     */
+    public boolean isSorted() {
+        return sortedElements != null;
+    }
+
+    /**
+     * @return the amount of indexed elements, including elements without a value for the attribute
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return indexedElements.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param value the value to look up
+     * @return an immutable list of all indexed elements where the attribute equals the provided value
+     */
+    public List<XmlElement> get(T value) {
+        return get(Collections.singleton(value));
+    }
+
+    /**
+     * @param values the values to look up
+     * @return an immutable list of all indexed elements where the attribute equals any of the provided values
+     */
+    public List<XmlElement> get(Collection<T> values) {
+        lock.readLock().lock();
+        try {
+            ImmutableList.Builder<XmlElement> builder = ImmutableList.builder();
+            for (T value : values) {
+                List<XmlElement> elements = elementsByValue.get(value);
+                if (elements != null) {
+                    builder.addAll(elements);
+                }
+            }
+            return builder.build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get all indexed elements where the value of the attribute lies within the provided range, comparing values
+     * using their natural order.
+     *
+     * @param lower          the lower bound or null if the range is not bound below
+     * @param lowerInclusive whether to include elements where the value equals the lower bound
+     * @param upper          the upper bound or null if the range is not bound above
+     * @param upperInclusive whether to include elements where the value equals the upper bound
+     * @return an immutable list of the found elements, ordered by the value of the attribute
+     * @throws UnsupportedOperationException if this index is not sorted, see {@link #isSorted()}
+     */
+    public List<XmlElement> getRange(@Nullable T lower, boolean lowerInclusive, @Nullable T upper, boolean upperInclusive) {
+        if (sortedElements == null) {
+            throw new UnsupportedOperationException("Index on " + attributeName + " is not sorted as " + type.getSimpleName() + " is not Comparable");
+        }
+
+        lock.readLock().lock();
+        try {
+            NavigableMap<T, List<XmlElement>> range = sortedElements;
+            if (lower != null) {
+                range = range.tailMap(lower, lowerInclusive);
+            }
+            if (upper != null) {
+                range = range.headMap(upper, upperInclusive);
+            }
+
+            ImmutableList.Builder<XmlElement> builder = ImmutableList.builder();
+            for (List<XmlElement> elements : range.values()) {
+                builder.addAll(elements);
+            }
+            return builder.build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the lowest value of the attribute among the indexed elements matching the provided condition. The elements
+     * are checked in the order of their value, so only elements with a value lower than the result are checked in
+     * addition to the element holding the result.
+     *
+     * @param condition the condition the elements have to match
+     * @return the lowest value or null if no indexed element with a value matches the condition
+     * @throws UnsupportedOperationException if this index is not sorted, see {@link #isSorted()}
+     */
+    @Nullable
+    public T getMin(Predicate<XmlElement> condition) {
+        return getFirstMatchingValue(false, condition);
+    }
+
+    /**
+     * Find the highest value of the attribute among the indexed elements matching the provided condition, see
+     * {@link #getMin(Predicate)}.
+     *
+     * @param condition the condition the elements have to match
+     * @return the highest value or null if no indexed element with a value matches the condition
+     * @throws UnsupportedOperationException if this index is not sorted, see {@link #isSorted()}
+     */
+    @Nullable
+    public T getMax(Predicate<XmlElement> condition) {
+        return getFirstMatchingValue(true, condition);
+    }
+
+    /**
+     * Count the indexed elements matching the provided condition for each value of the attribute, using the values
+     * held by this index instead of converting the attribute of each element.
+     *
+     * @param condition the condition the elements have to match
+     * @return the amount of matching elements for each value with at least one matching element, ordered by value if
+     * this index is sorted
+     */
+    public Map<T, Long> countByValue(Predicate<XmlElement> condition) {
+        lock.readLock().lock();
+        try {
+            Map<T, List<XmlElement>> entries = sortedElements != null ? sortedElements : elementsByValue;
+            Map<T, Long> counts = new LinkedHashMap<>();
+            for (Map.Entry<T, List<XmlElement>> entry : entries.entrySet()) {
+                long count = 0;
+                for (XmlElement element : entry.getValue()) {
+                    if (condition.test(element)) {
+                        count++;
+                    }
+                }
+
+                if (count > 0) {
+                    counts.put(entry.getKey(), count);
+                }
+            }
+            return counts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nullable
+    private T getFirstMatchingValue(boolean descending, Predicate<XmlElement> condition) {
+        if (sortedElements == null) {
+            throw new UnsupportedOperationException("Index on " + attributeName + " is not sorted as " + type.getSimpleName() + " is not Comparable");
+        }
+
+        lock.readLock().lock();
+        try {
+            NavigableMap<T, List<XmlElement>> entries = descending ? sortedElements.descendingMap() : sortedElements;
+            for (Map.Entry<T, List<XmlElement>> entry : entries.entrySet()) {
+                for (XmlElement element : entry.getValue()) {
+                    if (condition.test(element)) {
+                        return entry.getKey();
+                    }
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Nullable
+    private T getValue(XmlElement element) {
+        if (!element.hasAttribute(attributeName)) {
+            return null;
+        }
+
+        XmlAttribute attribute = element.getAttribute(attributeName);
+        try {
+            return StringConverter.convert(attribute.getValue(), type);
+        } catch (ConversionException e) {
+            return null;
+        }
+    }
+
+    private void mapValue(T value, XmlElement element) {
+        elementsByValue.computeIfAbsent(value, k -> Lists.newArrayListWithCapacity(1)).add(element);
+        if (sortedElements != null) {
+            sortedElements.computeIfAbsent(value, k -> Lists.newArrayListWithCapacity(1)).add(element);
+        }
+    }
+
+    private void unmapValue(T value, XmlElement element) {
+        unmapValue(elementsByValue, value, element);
+        if (sortedElements != null) {
+            unmapValue(sortedElements, value, element);
+        }
+    }
+
+    private void unmapValue(Map<T, List<XmlElement>> map, T value, XmlElement element) {
+        List<XmlElement> elements = map.get(value);
+        if (elements != null) {
+            elements.removeIf(e -> e == element);
+            if (elements.isEmpty()) {
+                map.remove(value);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AttributeIndex(" + (tagName != null ? tagName : "*") + "@" + attributeName + " as " + type.getSimpleName() + ")";
+    }
+
+}
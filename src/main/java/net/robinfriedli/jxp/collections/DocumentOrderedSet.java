@@ -0,0 +1,265 @@
+package net.robinfriedli.jxp.collections;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Equivalence;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import net.robinfriedli.jxp.api.Node;
+import net.robinfriedli.jxp.api.XmlElement;
+
+/**
+ * Set of elements, compared by identity, that keeps its elements in the order they were added and tracks whether that
+ * order still is the document order. Adding an element that follows the most recently added element in the element
+ * tree, which is the case when adding the elements of a tree in traversal order or when appending elements, keeps the
+ * set ordered. Adding an element anywhere else marks the set as unordered, in which case the owner is expected to
+ * restore the order using {@link #reorder(List)}, e.g. by traversing the element tree once when the elements are
+ * read next, see {@link #toOrderedList(ReadWriteLock, Supplier, Supplier)}.
+ * <p>
+ * This class is not synchronised, access is synchronised by the owning {@link ElementIndex}.
+ */
+public class DocumentOrderedSet {
+
+    private Set<Equivalence.Wrapper<XmlElement>> elements = new LinkedHashSet<>();
+    // the most recently added element, null if it has been removed since
+    @Nullable
+    private XmlElement last;
+    private boolean ordered = true;
+    // incremented on each change to detect whether the set changed while restoring the order
+    private long version;
+
+    /**
+     * @param element the element to add
+     * @return true if the element was added, false if it already is part of this set
+     */
+    public boolean add(XmlElement element) {
+        if (!elements.add(Equivalence.identity().wrap(element))) {
+            return false;
+        }
+
+        if (elements.size() > 1 && (last == null || !precedes(last, element))) {
+            ordered = false;
+        }
+        last = element;
+        version++;
+        return true;
+    }
+
+    /**
+     * @param element the element to remove
+     * @return true if the element was removed, false if it was not part of this set
+     */
+    public boolean remove(XmlElement element) {
+        if (!elements.remove(Equivalence.identity().wrap(element))) {
+            return false;
+        }
+
+        if (last == element) {
+            last = null;
+        }
+        if (elements.size() <= 1) {
+            ordered = true;
+        }
+        version++;
+        return true;
+    }
+
+    public void clear() {
+        elements.clear();
+        last = null;
+        ordered = true;
+        version++;
+    }
+
+    public boolean contains(XmlElement element) {
+        return elements.contains(Equivalence.identity().wrap(element));
+    }
+
+    public int size() {
+        return elements.size();
+    }
+
+    public boolean isEmpty() {
+        return elements.isEmpty();
+    }
+
+    /**
+     * @return true if the elements are known to be in document order
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Replace the order of the elements with the provided order, which has to contain exactly the elements of this set,
+     * and mark this set as ordered.
+     *
+     * @param orderedElements the elements of this set in document order
+     */
+    public void reorder(List<XmlElement> orderedElements) {
+        Set<Equivalence.Wrapper<XmlElement>> reordered = new LinkedHashSet<>();
+        for (XmlElement element : orderedElements) {
+            reordered.add(Equivalence.identity().wrap(element));
+        }
+        elements = reordered;
+        last = orderedElements.isEmpty() ? null : orderedElements.get(orderedElements.size() - 1);
+        ordered = true;
+    }
+
+    /**
+     * @return an immutable list of the elements in the order they are currently held in
+     */
+    public List<XmlElement> toList() {
+        ImmutableList.Builder<XmlElement> builder = ImmutableList.builderWithExpectedSize(elements.size());
+        for (Equivalence.Wrapper<XmlElement> element : elements) {
+            builder.add(element.get());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Read the elements of the set provided by the supplier in document order, restoring the order of the set if it is
+     * not ordered. The elements are read while holding the read lock, the tree is traversed without holding the lock
+     * and the restored order is only stored if the set did not change meanwhile.
+     *
+     * @param lock          the lock synchronising access to the set
+     * @param set           supplies the current set, or null if there is none, while holding the lock
+     * @param treeTraversal supplies a stream of all elements of the element tree in document order
+     * @return an immutable list of the elements of the set in document order
+     */
+    public static List<XmlElement> toOrderedList(ReadWriteLock lock, Supplier<DocumentOrderedSet> set, Supplier<Stream<XmlElement>> treeTraversal) {
+        Set<XmlElement> snapshot;
+        long version;
+        lock.readLock().lock();
+        try {
+            DocumentOrderedSet current = set.get();
+            if (current == null) {
+                return Collections.emptyList();
+            }
+
+            if (current.ordered) {
+                return current.toList();
+            }
+
+            snapshot = Sets.newIdentityHashSet();
+            snapshot.addAll(current.toList());
+            version = current.version;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<XmlElement> ordered = treeTraversal.get().filter(snapshot::contains).collect(Collectors.toList());
+        if (ordered.size() != snapshot.size()) {
+            // the tree is being modified by a transaction that has not updated the set yet
+            return ImmutableList.copyOf(snapshot);
+        }
+
+        lock.writeLock().lock();
+        try {
+            DocumentOrderedSet current = set.get();
+            if (current != null && current.version == version) {
+                current.reorder(ordered);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return ImmutableList.copyOf(ordered);
+    }
+
+    /**
+     * Sort the provided elements, e.g. the elements found by an index ordered by attribute value, into document order
+     * without traversing the element tree. Elements that are no longer part of the tree, e.g. because a transaction is
+     * removing them, cannot be compared and keep their relative order.
+     *
+     * @param elements the elements to sort
+     * @return the provided list if it already is in document order, else a sorted copy
+     */
+    public static List<XmlElement> sort(List<XmlElement> elements) {
+        boolean sorted = true;
+        for (int i = 1; i < elements.size() && sorted; i++) {
+            sorted = precedes(elements.get(i - 1), elements.get(i));
+        }
+
+        if (sorted) {
+            return elements;
+        }
+
+        List<XmlElement> copy = Lists.newArrayList(elements);
+        try {
+            copy.sort((first, second) -> {
+                if (first == second) {
+                    return 0;
+                } else if (precedes(first, second)) {
+                    return -1;
+                } else if (precedes(second, first)) {
+                    return 1;
+                }
+                return 0;
+            });
+        } catch (IllegalArgumentException e) {
+            // the tree was modified while sorting, leaving the comparison inconsistent
+            return elements;
+        }
+        return copy;
+    }
+
+    /**
+     * @return true if the first element is certainly located before the second element in the element tree, false if
+     * it is not or if that cannot be determined, e.g. because one of the elements is no longer part of the tree
+     */
+    private static boolean precedes(XmlElement first, XmlElement second) {
+        List<XmlElement> firstPath = getPath(first);
+        List<XmlElement> secondPath = getPath(second);
+        if (firstPath.get(0) != secondPath.get(0)) {
+            return false;
+        }
+
+        int depth = 0;
+        while (depth < firstPath.size() && depth < secondPath.size() && firstPath.get(depth) == secondPath.get(depth)) {
+            depth++;
+        }
+
+        if (depth == firstPath.size() || depth == secondPath.size()) {
+            // one element is an ancestor of the other, which precedes its descendants
+            return depth == firstPath.size() && depth < secondPath.size();
+        }
+
+        // walk the siblings in both directions so that the cost depends on the distance between the two nodes
+        Node<?> target = secondPath.get(depth);
+        Node<?> forward = firstPath.get(depth).getNextSibling();
+        Node<?> backward = firstPath.get(depth).getPreviousSibling();
+        while (forward != null || backward != null) {
+            if (forward == target) {
+                return true;
+            } else if (backward == target) {
+                return false;
+            }
+
+            forward = forward != null ? forward.getNextSibling() : null;
+            backward = backward != null ? backward.getPreviousSibling() : null;
+        }
+
+        return false;
+    }
+
+    // the ancestors of the element, starting with the root, followed by the element itself
+    private static List<XmlElement> getPath(XmlElement element) {
+        List<XmlElement> path = Lists.newArrayList();
+        for (XmlElement current = element; current != null; current = current.getParent()) {
+            path.add(current);
+        }
+        return Lists.reverse(path);
+    }
+
+}
@@ -0,0 +1,139 @@
+package net.robinfriedli.jxp.collections;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Lists;
+import net.robinfriedli.jxp.api.XmlElement;
+import org.w3c.dom.Element;
+
+/**
+ * {@link ElementIndex} that maps the DOM {@link Element} returned by {@link XmlElement#getElement()} to its XmlElement,
+ * used to resolve the results of XPath queries without having to check all elements. Since an element only receives
+ * its DOM element once the event that creates it is applied physically, adding an element that is already indexed
+ * re-maps it if its DOM element has changed.
+ * <p>
+ * Access is synchronised using a {@link ReentrantReadWriteLock}, so that the index can be read while a transaction
+ * modifies it in a different thread.
+ */
+public class DomElementIndex implements ElementIndex {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Element, XmlElement> elementsByDomElement = new IdentityHashMap<>();
+    // all indexed elements, including elements that are not persisted yet, mapped to the DOM element they were
+    // indexed with since the DOM element has already been removed from the XmlElement when it is removed from the index
+    private final Map<XmlElement, Element> indexedElements = new IdentityHashMap<>();
+
+    @Override
+    public void add(XmlElement element) {
+        lock.writeLock().lock();
+        try {
+            map(element);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(XmlElement element) {
+        lock.writeLock().lock();
+        try {
+            if (!indexedElements.containsKey(element)) {
+                return;
+            }
+
+            unmapDomElement(indexedElements.remove(element), element);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void update(XmlElement element) {
+        lock.writeLock().lock();
+        try {
+            if (indexedElements.containsKey(element)) {
+                map(element);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            elementsByDomElement.clear();
+            indexedElements.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param domElement the DOM element to look up
+     * @return the indexed XmlElement that is persisted as the provided DOM element or null
+     */
+    @Nullable
+    public XmlElement get(Element domElement) {
+        lock.readLock().lock();
+        try {
+            return elementsByDomElement.get(domElement);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Resolve the XmlElements of the provided DOM elements, e.g. the result of an XPath query, maintaining their order.
+     * DOM elements without indexed XmlElement are skipped.
+     *
+     * @param domElements the DOM elements to look up
+     * @return a list of the found XmlElements
+     */
+    public List<XmlElement> getAll(List<Element> domElements) {
+        List<XmlElement> elements = Lists.newArrayListWithCapacity(domElements.size());
+        lock.readLock().lock();
+        try {
+            for (Element domElement : domElements) {
+                XmlElement element = elementsByDomElement.get(domElement);
+                if (element != null) {
+                    elements.add(element);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return elements;
+    }
+
+    private void map(XmlElement element) {
+        Element domElement = element.getElement();
+        if (indexedElements.containsKey(element)) {
+            Element oldDomElement = indexedElements.get(element);
+            if (oldDomElement == domElement) {
+                return;
+            }
+
+            unmapDomElement(oldDomElement, element);
+        }
+
+        indexedElements.put(element, domElement);
+        if (domElement != null) {
+            elementsByDomElement.put(domElement, element);
+        }
+    }
+
+    private void unmapDomElement(@Nullable Element domElement, XmlElement element) {
+        if (domElement != null && elementsByDomElement.get(domElement) == element) {
+            elementsByDomElement.remove(domElement);
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+package net.robinfriedli.jxp.collections;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import net.robinfriedli.jxp.api.XmlElement;
+
+/**
+ * {@link ElementIndex} that maps the ids returned by {@link XmlElement#getId()} to the elements with that id. Several
+ * elements may share the same id, it is up to the caller to decide whether that is a problem, so duplicate ids are
+ * still detected when looking up an element. The index is updated when an element or any of its descendants is added,
+ * removed or changed, since ids may depend on sub elements or text content. The index is authoritative, so the id of an
+ * element must only depend on state that changes through the events of a transaction, see {@link XmlElement#getId()}.
+ * <p>
+ * Access is synchronised using a {@link ReentrantReadWriteLock}, so that the index can be read while a transaction
+ * modifies it in a different thread.
+ */
+public class ElementIdIndex implements ElementIndex {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, List<XmlElement>> elementsById = new HashMap<>();
+    // all indexed elements, including elements without id, mapped to the id they were indexed with
+    private final Map<XmlElement, String> indexedElements = new IdentityHashMap<>();
+
+    @Override
+    public void add(XmlElement element) {
+        lock.writeLock().lock();
+        try {
+            if (indexedElements.containsKey(element)) {
+                return;
+            }
+
+            String id = element.getId();
+            indexedElements.put(element, id);
+            if (id != null) {
+                elementsById.computeIfAbsent(id, k -> Lists.newArrayListWithCapacity(1)).add(element);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(XmlElement element) {
+        lock.writeLock().lock();
+        try {
+            if (!indexedElements.containsKey(element)) {
+                return;
+            }
+
+            String id = indexedElements.remove(element);
+            if (id != null) {
+                unmapId(id, element);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void update(XmlElement element) {
+        lock.writeLock().lock();
+        try {
+            if (!indexedElements.containsKey(element)) {
+                return;
+            }
+
+            String oldId = indexedElements.get(element);
+            String newId = element.getId();
+            if (!Objects.equals(oldId, newId)) {
+                if (oldId != null) {
+                    unmapId(oldId, element);
+                }
+                if (newId != null) {
+                    elementsById.computeIfAbsent(newId, k -> Lists.newArrayListWithCapacity(1)).add(element);
+                }
+                indexedElements.put(element, newId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            elementsById.clear();
+            indexedElements.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param id the id to look up
+     * @return an immutable list of all indexed elements with the provided id
+     */
+    public List<XmlElement> get(@Nullable String id) {
+        if (id == null) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            List<XmlElement> elements = elementsById.get(id);
+            return elements != null ? ImmutableList.copyOf(elements) : Collections.emptyList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return an immutable copy of all ids used by indexed elements
+     */
+    public Set<String> getIds() {
+        lock.readLock().lock();
+        try {
+            return ImmutableSet.copyOf(elementsById.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param element the element to check
+     * @return true if the provided element is indexed, meaning it is part of the element tree of the Context
+     */
+    public boolean contains(XmlElement element) {
+        lock.readLock().lock();
+        try {
+            return indexedElements.containsKey(element);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void unmapId(String id, XmlElement element) {
+        List<XmlElement> elements = elementsById.get(id);
+        if (elements != null) {
+            elements.removeIf(e -> e == element);
+            if (elements.isEmpty()) {
+                elementsById.remove(id);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package net.robinfriedli.jxp.collections;
+
+import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.persist.CachedContext;
+
+/**
+ * Interface for data structures that index the {@link XmlElement} instances of a {@link CachedContext} by some property
+ * and are kept current by the Context whenever an event that adds, removes or changes an element is applied or
+ * reverted.
+ */
+public interface ElementIndex {
+
+    /**
+     * Add an element that has become part of the element tree of the Context. Adding an element that is already
+     * indexed has no effect.
+     *
+     * @param element the element to add
+     */
+    void add(XmlElement element);
+
+    /**
+     * Remove an element that is no longer part of the element tree of the Context. Removing an element that is not
+     * indexed has no effect.
+     *
+     * @param element the element to remove
+     */
+    void remove(XmlElement element);
+
+    /**
+     * Re-index an element after one of its attributes or its text content has changed. Elements that are not indexed
+     * are ignored.
+     *
+     * @param element the changed element
+     */
+    void update(XmlElement element);
+
+    /**
+     * Remove all elements from this index, e.g. when the Context is reloaded.
+     */
+    void clear();
+
+}
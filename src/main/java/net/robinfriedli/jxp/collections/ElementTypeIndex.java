@@ -0,0 +1,162 @@
+package net.robinfriedli.jxp.collections;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import net.robinfriedli.jxp.api.XmlElement;
+
+/**
+ * {@link ElementIndex} that maps tag names and classes to the elements with that tag name or of that type, used to
+ * answer {@link net.robinfriedli.jxp.persist.Context#getInstancesOf(Class)} and queries using
+ * {@link net.robinfriedli.jxp.queries.Conditions#tagName(String)} or
+ * {@link net.robinfriedli.jxp.queries.Conditions#instanceOf(Class)} without checking all elements. Each element is
+ * indexed for its class and all of its superclasses and interfaces that extend {@link XmlElement}, so a lookup by type
+ * only reads a single entry. Since the tag name and class of an element never change {@link #update(XmlElement)} has
+ * no effect.
+ * <p>
+ * The elements of each entry are returned in document order. Each entry is a {@link DocumentOrderedSet}, so when
+ * elements are inserted before existing elements of the entry the next lookup restores the order by traversing the
+ * element tree once.
+ * <p>
+ * Access is synchronised using a {@link ReentrantReadWriteLock}, so that the index can be read while a transaction
+ * modifies it in a different thread.
+ */
+public class ElementTypeIndex implements ElementIndex {
+
+    private static final ClassValue<List<Class<?>>> INDEXED_TYPES = new ClassValue<List<Class<?>>>() {
+        @Override
+        protected List<Class<?>> computeValue(Class<?> type) {
+            Set<Class<?>> types = new LinkedHashSet<>();
+            collectIndexedTypes(type, types);
+            return ImmutableList.copyOf(types);
+        }
+    };
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, DocumentOrderedSet> elementsByTagName = new HashMap<>();
+    private final Map<Class<?>, DocumentOrderedSet> elementsByType = new HashMap<>();
+    private final Supplier<Stream<XmlElement>> treeTraversal;
+
+    /**
+     * @param treeTraversal supplies a stream of all elements of the element tree in document order, used to restore the
+     *                      order of entries after elements were inserted between existing elements
+     */
+    public ElementTypeIndex(Supplier<Stream<XmlElement>> treeTraversal) {
+        this.treeTraversal = treeTraversal;
+    }
+
+    /**
+     * @param type the type to check
+     * @return true if elements of the provided type can be looked up using {@link #getInstancesOf(Class)}, which is
+     * the case for all types extending {@link XmlElement} except XmlElement itself, which would contain all elements
+     */
+    public static boolean isIndexed(Class<?> type) {
+        return type != XmlElement.class && XmlElement.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public void add(XmlElement element) {
+        lock.writeLock().lock();
+        try {
+            elementsByTagName.computeIfAbsent(element.getTagName(), k -> new DocumentOrderedSet()).add(element);
+            for (Class<?> type : INDEXED_TYPES.get(element.getClass())) {
+                elementsByType.computeIfAbsent(type, k -> new DocumentOrderedSet()).add(element);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(XmlElement element) {
+        lock.writeLock().lock();
+        try {
+            removeFrom(elementsByTagName, element.getTagName(), element);
+            for (Class<?> type : INDEXED_TYPES.get(element.getClass())) {
+                removeFrom(elementsByType, type, element);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void update(XmlElement element) {
+        // the tag name and class of an element never change
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            elementsByTagName.clear();
+            elementsByType.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param tagName the tag name to look up
+     * @return an immutable list of all indexed elements with the provided tag name in document order
+     */
+    public List<XmlElement> getElementsWithTagName(String tagName) {
+        return get(elementsByTagName, tagName);
+    }
+
+    /**
+     * @param type the type to look up
+     * @return an immutable list of all indexed elements of the provided type in document order or null if the type is
+     * not indexed, see {@link #isIndexed(Class)}
+     */
+    @Nullable
+    public <E extends XmlElement> List<E> getInstancesOf(Class<E> type) {
+        if (!isIndexed(type)) {
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<E> instances = (List<E>) get(elementsByType, type);
+        return instances;
+    }
+
+    private <K> List<XmlElement> get(Map<K, DocumentOrderedSet> entries, K key) {
+        return DocumentOrderedSet.toOrderedList(lock, () -> entries.get(key), treeTraversal);
+    }
+
+    private static <K> void removeFrom(Map<K, DocumentOrderedSet> entries, K key, XmlElement element) {
+        DocumentOrderedSet entry = entries.get(key);
+        if (entry != null) {
+            entry.remove(element);
+            if (entry.isEmpty()) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    private static void collectIndexedTypes(@Nullable Class<?> type, Set<Class<?>> types) {
+        if (type == null || !isIndexed(type) || !types.add(type)) {
+            return;
+        }
+
+        collectIndexedTypes(type.getSuperclass(), types);
+        for (Class<?> implementedInterface : type.getInterfaces()) {
+            collectIndexedTypes(implementedInterface, types);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ElementTypeIndex";
+    }
+
+}
@@ -0,0 +1,327 @@
+package net.robinfriedli.jxp.collections;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.persist.Context;
+
+/**
+ * {@link ElementIndex} that maps the terms contained in the value of an attribute or the text content of elements to
+ * the elements containing that term. The value is split into terms using {@link #tokenize(String)}, meaning terms are
+ * case insensitive sequences of letters and digits. The terms are kept in a sorted map, enabling lookups of all
+ * elements containing a term that starts with a given prefix. Create an index using
+ * {@link Context#createFullTextIndex(String, String)}, after which queries executed via {@link Context#query} using
+ * {@link net.robinfriedli.jxp.queries.ValueComparator#containsTerm(String)},
+ * {@link net.robinfriedli.jxp.queries.ValueComparator#containsTermWithPrefix(String)} or
+ * {@link net.robinfriedli.jxp.queries.ValueComparator#containsAllTerms(String)} on the indexed value use the index
+ * instead of checking all elements.
+ * <p>
+ * Access is synchronised using a {@link ReentrantReadWriteLock}, so that the index can be read while a transaction
+ * modifies it in a different thread.
+ */
+public class FullTextIndex implements ElementIndex {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    @Nullable
+    private final String tagName;
+    @Nullable
+    private final String attributeName;
+    private final NavigableMap<String, List<XmlElement>> elementsByTerm = new TreeMap<>();
+    // all indexed elements mapped to the terms they were indexed with
+    private final Map<XmlElement, Set<String>> indexedElements = new IdentityHashMap<>();
+
+    /**
+     * @param tagName       the tag name of the elements to index or null to index elements with any tag name
+     * @param attributeName the name of the attribute to index or null to index the text content of the elements
+     */
+    public FullTextIndex(@Nullable String tagName, @Nullable String attributeName) {
+        this.tagName = tagName;
+        this.attributeName = attributeName;
+    }
+
+    /**
+     * Split the provided value into lower case terms, using all characters that are neither letters nor digits as
+     * separators.
+     *
+     * @param value the value to split
+     * @return the distinct terms of the value in the order they first occur in
+     */
+    public static Set<String> tokenize(@Nullable String value) {
+        if (value == null || value.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        Set<String> terms = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.isLetterOrDigit(value.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                terms.add(normalize(value.substring(start, i)));
+                start = -1;
+            }
+        }
+
+        if (start >= 0) {
+            terms.add(normalize(value.substring(start)));
+        }
+
+        return terms;
+    }
+
+    /**
+     * @param term the term or prefix provided by a query
+     * @return the term converted to the form terms are indexed in
+     */
+    public static String normalize(String term) {
+        return term.toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public void add(XmlElement element) {
+        if (tagName != null && !tagName.equals(element.getTagName())) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (indexedElements.containsKey(element)) {
+                return;
+            }
+
+            Set<String> terms = getTerms(element);
+            indexedElements.put(element, terms);
+            for (String term : terms) {
+                mapTerm(term, element);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(XmlElement element) {
+        lock.writeLock().lock();
+        try {
+            Set<String> terms = indexedElements.remove(element);
+            if (terms != null) {
+                for (String term : terms) {
+                    unmapTerm(term, element);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void update(XmlElement element) {
+        lock.writeLock().lock();
+        try {
+            if (!indexedElements.containsKey(element)) {
+                return;
+            }
+
+            Set<String> oldTerms = indexedElements.get(element);
+            Set<String> newTerms = getTerms(element);
+            if (!oldTerms.equals(newTerms)) {
+                for (String term : Sets.difference(oldTerms, newTerms)) {
+                    unmapTerm(term, element);
+                }
+                for (String term : Sets.difference(newTerms, oldTerms)) {
+                    mapTerm(term, element);
+                }
+                indexedElements.put(element, newTerms);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            elementsByTerm.clear();
+            indexedElements.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the tag name of the indexed elements or null if elements with any tag name are indexed
+     */
+    @Nullable
+    public String getTagName() {
+        return tagName;
+    }
+
+    /**
+     * @return the name of the indexed attribute or null if the text content is indexed
+     */
+    @Nullable
+    public String getAttributeName() {
+        return attributeName;
+    }
+
+    /**
+     * @param term the term to look up, which is normalized using {@link #normalize(String)}
+     * @return an immutable list of all indexed elements containing the provided term
+     */
+    public List<XmlElement> get(String term) {
+        lock.readLock().lock();
+        try {
+            List<XmlElement> elements = elementsByTerm.get(normalize(term));
+            return elements != null ? ImmutableList.copyOf(elements) : Collections.emptyList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param prefix the prefix to look up, which is normalized using {@link #normalize(String)}
+     * @return an immutable list of all indexed elements containing a term that starts with the provided prefix
+     */
+    public List<XmlElement> getWithPrefix(String prefix) {
+        String normalizedPrefix = normalize(prefix);
+        lock.readLock().lock();
+        try {
+            Collection<List<XmlElement>> matches = elementsByTerm
+                .subMap(normalizedPrefix, true, normalizedPrefix + Character.MAX_VALUE, false)
+                .values();
+            if (matches.size() == 1) {
+                return ImmutableList.copyOf(matches.iterator().next());
+            }
+
+            // an element containing several terms with the prefix is only included once
+            Set<XmlElement> found = Sets.newIdentityHashSet();
+            ImmutableList.Builder<XmlElement> builder = ImmutableList.builder();
+            for (List<XmlElement> elements : matches) {
+                for (XmlElement element : elements) {
+                    if (found.add(element)) {
+                        builder.add(element);
+                    }
+                }
+            }
+            return builder.build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param terms the terms to look up, which are normalized using {@link #normalize(String)}
+     * @return an immutable list of all indexed elements containing all of the provided terms
+     */
+    public List<XmlElement> getWithAll(Collection<String> terms) {
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            List<List<XmlElement>> postings = Lists.newArrayListWithCapacity(terms.size());
+            for (String term : ImmutableSet.copyOf(terms)) {
+                List<XmlElement> elements = elementsByTerm.get(normalize(term));
+                if (elements == null) {
+                    return Collections.emptyList();
+                }
+                postings.add(elements);
+            }
+
+            // intersect starting with the rarest term so that the candidate set is as small as possible
+            postings.sort(Comparator.comparingInt(List::size));
+            Set<XmlElement> candidates = Sets.newIdentityHashSet();
+            candidates.addAll(postings.get(0));
+            for (int i = 1; i < postings.size() && !candidates.isEmpty(); i++) {
+                Set<XmlElement> retained = Sets.newIdentityHashSet();
+                for (XmlElement element : postings.get(i)) {
+                    if (candidates.contains(element)) {
+                        retained.add(element);
+                    }
+                }
+                candidates = retained;
+            }
+
+            ImmutableList.Builder<XmlElement> builder = ImmutableList.builder();
+            for (XmlElement element : postings.get(0)) {
+                if (candidates.contains(element)) {
+                    builder.add(element);
+                }
+            }
+            return builder.build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the amount of distinct indexed terms
+     */
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return elementsByTerm.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param tagName       the tag name to compare
+     * @param attributeName the attribute name to compare
+     * @return true if this index was created for the provided tag name and attribute
+     */
+    public boolean covers(@Nullable String tagName, @Nullable String attributeName) {
+        return Objects.equals(this.tagName, tagName) && Objects.equals(this.attributeName, attributeName);
+    }
+
+    private Set<String> getTerms(XmlElement element) {
+        if (attributeName == null) {
+            return tokenize(element.getTextContent());
+        }
+
+        return element.hasAttribute(attributeName) ? tokenize(element.getAttribute(attributeName).getValue()) : Collections.emptySet();
+    }
+
+    private void mapTerm(String term, XmlElement element) {
+        elementsByTerm.computeIfAbsent(term, k -> Lists.newArrayListWithCapacity(1)).add(element);
+    }
+
+    private void unmapTerm(String term, XmlElement element) {
+        List<XmlElement> elements = elementsByTerm.get(term);
+        if (elements != null) {
+            elements.removeIf(e -> e == element);
+            if (elements.isEmpty()) {
+                elementsByTerm.remove(term);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FullTextIndex(" + (tagName != null ? tagName : "*") + (attributeName != null ? "@" + attributeName : " text content") + ")";
+    }
+
+}
@@ -0,0 +1,237 @@
+package net.robinfriedli.jxp.collections;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Spliterator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.Nullable;
+
+import net.robinfriedli.jxp.api.Node;
+import net.robinfriedli.jxp.api.XmlElement;
+
+/**
+ * {@link Spliterator} that lazily traverses the sub elements of an {@link XmlElement} in document order (depth-first)
+ * by following the sibling linkages of the {@link NodeList} of each element rather than copying the child lists,
+ * enabling short-circuiting operations such as {@link Stream#findFirst()} to stop without visiting the remaining
+ * elements. The traversal is iterative and only keeps one cursor per level of depth.
+ * <p>
+ * Each linkage is read while holding the read lock of the respective {@link NodeList}, so the spliterator can safely be
+ * used by several threads, e.g. when executing a parallel stream, while a transaction modifies the tree. The next
+ * sibling of an element is read before the element is handed to the action, so removing the current element while
+ * streaming does not end the traversal, however the traversal is only weakly consistent: changes made to the tree
+ * during the traversal may or may not be reflected. In case of a {@link net.robinfriedli.jxp.persist.LazyContext} the
+ * child list of an element is only initialized once the traversal reaches the element.
+ * <p>
+ * {@link #trySplit()} splits by subtree: the pending cursors of the deeper levels are split off the cursor of the
+ * shallowest level, a sibling list is split at its middle and a single remaining element is split off its sub
+ * elements.
+ */
+public class SubElementSpliterator implements Spliterator<XmlElement> {
+
+    private static final int CHARACTERISTICS = Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT;
+
+    private final boolean recursive;
+    // the cursor of the deepest level is the first element, the cursor of the shallowest level the last element
+    private Deque<Cursor> pending;
+    private long estimatedSize;
+
+    public SubElementSpliterator(XmlElement parent, boolean recursive) {
+        this(new ArrayDeque<>(), recursive, Long.MAX_VALUE);
+        Cursor cursor = getChildCursor(parent);
+        if (cursor != null) {
+            pending.push(cursor);
+        }
+    }
+
+    private SubElementSpliterator(Deque<Cursor> pending, boolean recursive, long estimatedSize) {
+        this.pending = pending;
+        this.recursive = recursive;
+        this.estimatedSize = estimatedSize;
+    }
+
+    /**
+     * @param parent the element of which to stream the sub elements
+     * @return a sequential stream of all sub elements of the provided element and their sub elements in document order
+     */
+    public static Stream<XmlElement> streamRecursive(XmlElement parent) {
+        return StreamSupport.stream(new SubElementSpliterator(parent, true), false);
+    }
+
+    /**
+     * @param parent the element of which to stream the sub elements
+     * @return a sequential stream of the direct sub elements of the provided element
+     */
+    public static Stream<XmlElement> stream(XmlElement parent) {
+        return StreamSupport.stream(new SubElementSpliterator(parent, false), false);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super XmlElement> action) {
+        while (!pending.isEmpty()) {
+            Cursor cursor = pending.peek();
+            Node<?> node = cursor.next;
+            cursor.next = cursor.getNextSibling(node);
+            if (cursor.next == null) {
+                pending.pop();
+            }
+
+            if (node instanceof XmlElement) {
+                XmlElement element = (XmlElement) node;
+                if (recursive) {
+                    // pushed after advancing the current level so that the sub elements are visited first
+                    Cursor childCursor = getChildCursor(element);
+                    if (childCursor != null) {
+                        pending.push(childCursor);
+                    }
+                }
+
+                action.accept(element);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    @Nullable
+    public Spliterator<XmlElement> trySplit() {
+        if (pending.isEmpty()) {
+            return null;
+        }
+
+        if (pending.size() > 1) {
+            Cursor shallowest = pending.removeLast();
+            Deque<Cursor> prefix = pending;
+            pending = new ArrayDeque<>();
+            pending.push(shallowest);
+            return split(prefix, recursive);
+        }
+
+        Deque<Cursor> prefix = new ArrayDeque<>();
+        Cursor cursor = pending.peek();
+        Node<?> middle = cursor.getMiddle();
+        if (middle != null) {
+            prefix.push(new Cursor(cursor.nodeList, cursor.next, middle));
+            cursor.next = middle;
+            return split(prefix, recursive);
+        }
+
+        if (recursive && cursor.next instanceof XmlElement) {
+            XmlElement element = (XmlElement) cursor.next;
+            Cursor childCursor = getChildCursor(element);
+            if (childCursor != null) {
+                // the prefix only contains the element itself
+                prefix.push(new Cursor(cursor.nodeList, element, cursor.getFollowingNode(element)));
+                pending.pop();
+                pending.push(childCursor);
+                return split(prefix, false);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimatedSize;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+
+    private Spliterator<XmlElement> split(Deque<Cursor> prefix, boolean recursive) {
+        estimatedSize >>>= 1;
+        return new SubElementSpliterator(prefix, recursive, estimatedSize);
+    }
+
+    @Nullable
+    private static Cursor getChildCursor(XmlElement element) {
+        NodeList childNodes = element.internal().getInternalChildNodeList();
+        ReentrantReadWriteLock.ReadLock readLock = childNodes.getLock().readLock();
+        readLock.lock();
+        try {
+            Node<?> head = childNodes.getHead();
+            return head != null ? new Cursor(childNodes, head, null) : null;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Iterates the nodes of a NodeList from {@link #next} until the end of the list or the {@link #fence}, exclusive.
+     */
+    private static class Cursor {
+
+        private final NodeList nodeList;
+        private Node<?> next;
+        @Nullable
+        private final Node<?> fence;
+
+        private Cursor(NodeList nodeList, Node<?> next, @Nullable Node<?> fence) {
+            this.nodeList = nodeList;
+            this.next = next;
+            this.fence = fence;
+        }
+
+        @Nullable
+        private Node<?> getNextSibling(Node<?> node) {
+            ReentrantReadWriteLock.ReadLock readLock = nodeList.getLock().readLock();
+            readLock.lock();
+            try {
+                return advance(node);
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        /**
+         * @return the next sibling of the provided node regardless of the fence
+         */
+        @Nullable
+        private Node<?> getFollowingNode(Node<?> node) {
+            ReentrantReadWriteLock.ReadLock readLock = nodeList.getLock().readLock();
+            readLock.lock();
+            try {
+                return node.getNextSibling();
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        /**
+         * @return the node in the middle of the remaining nodes or null if there are less than two remaining nodes
+         */
+        @Nullable
+        private Node<?> getMiddle() {
+            ReentrantReadWriteLock.ReadLock readLock = nodeList.getLock().readLock();
+            readLock.lock();
+            try {
+                Node<?> slow = next;
+                Node<?> fast = advance(next);
+                while (fast != null && (fast = advance(fast)) != null) {
+                    slow = advance(slow);
+                    fast = advance(fast);
+                }
+
+                return advance(slow);
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        @Nullable
+        private Node<?> advance(Node<?> node) {
+            Node<?> nextSibling = node.getNextSibling();
+            return nextSibling != fence ? nextSibling : null;
+        }
+
+    }
+
+}
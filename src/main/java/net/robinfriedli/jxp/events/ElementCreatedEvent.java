@@ -2,6 +2,8 @@ package net.robinfriedli.jxp.events;
 
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import net.robinfriedli.jxp.api.JxpBackend;
 import net.robinfriedli.jxp.api.Node;
 import net.robinfriedli.jxp.api.XmlAttribute;
@@ -105,4 +107,12 @@ public class ElementCreatedEvent extends Event {
     public XmlElement getNewParent() {
         return newParent;
     }
+
+    /**
+     * @return the parent the element was added to, null if the event has not been applied yet
+     */
+    @Nullable
+    public XmlElement getEffectiveParent() {
+        return effectiveParent;
+    }
 }
@@ -84,6 +84,9 @@ public abstract class Event {
         }
 
         setApplied(true);
+        if (context != null) {
+            context.internal().eventApplied(this);
+        }
         // context not null for non-detached XmlElement instance
         //noinspection ConstantConditions
         dispatchEvent(getSource().getContext().getBackend());
@@ -101,10 +104,16 @@ public abstract class Event {
     public final void revert() {
         if (isApplied()) {
             doRevert();
+            if (context != null) {
+                context.internal().eventReverted(this);
+            }
         }
 
         if (isCommitted()) {
             revertCommit();
+            if (context != null) {
+                context.internal().commitReverted(this);
+            }
         }
     }
 
@@ -116,6 +125,9 @@ public abstract class Event {
         if (!isVirtual) {
             doCommit();
             setCommitted(true);
+            if (context != null) {
+                context.internal().eventCommitted(this);
+            }
         }
     }
 
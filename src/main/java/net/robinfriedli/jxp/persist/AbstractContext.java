@@ -2,21 +2,24 @@ package net.robinfriedli.jxp.persist;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.slf4j.Logger;
 
@@ -27,6 +30,11 @@ import net.robinfriedli.exec.Mode;
 import net.robinfriedli.exec.modes.MutexSyncMode;
 import net.robinfriedli.jxp.api.JxpBackend;
 import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.collections.AttributeIndex;
+import net.robinfriedli.jxp.collections.ElementIdIndex;
+import net.robinfriedli.jxp.collections.ElementTypeIndex;
+import net.robinfriedli.jxp.collections.FullTextIndex;
+import net.robinfriedli.jxp.events.Event;
 import net.robinfriedli.jxp.exceptions.CommitException;
 import net.robinfriedli.jxp.exceptions.PersistException;
 import net.robinfriedli.jxp.exceptions.QueryException;
@@ -34,8 +42,12 @@ import net.robinfriedli.jxp.exec.AbstractTransactionalMode;
 import net.robinfriedli.jxp.exec.QueuedTask;
 import net.robinfriedli.jxp.exec.modes.ListenersMutedMode;
 import net.robinfriedli.jxp.exec.modes.SequentialMode;
+import net.robinfriedli.jxp.queries.MaterializedView;
+import net.robinfriedli.jxp.queries.Order;
 import net.robinfriedli.jxp.queries.Query;
+import net.robinfriedli.jxp.queries.QueryCache;
 import net.robinfriedli.jxp.queries.ResultStream;
+import net.robinfriedli.jxp.queries.xpath.XPathExpressionCache;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -54,6 +66,18 @@ public abstract class AbstractContext implements Context {
     private Document document;
     private String path;
     private File file;
+    private boolean streamingLoad;
+    @Nullable
+    private Journal journal;
+    @Nullable
+    private volatile GroupCommit groupCommit;
+    @Nullable
+    private volatile WriteBehind writeBehind;
+    // the sequence number of the group commit the current thread waits for once the outermost invocation is done
+    private final ThreadLocal<Long> pendingGroupCommit = new ThreadLocal<>();
+    // the amount of invocations the current thread is running, the mutex may be held by any of them depending on their
+    // mode, so it is only known to be released once the outermost invocation returns
+    private final ThreadLocal<Integer> invocationDepth = ThreadLocal.withInitial(() -> 0);
 
     public AbstractContext(JxpBackend backend, Document document, Logger logger) {
         this.backend = backend;
@@ -62,20 +86,39 @@ public abstract class AbstractContext implements Context {
     }
 
     public AbstractContext(JxpBackend backend, File file, Logger logger) {
+        this(backend, file, logger, false);
+    }
+
+    /**
+     * @param streamingLoad if true the file is not parsed, instead an empty document is created that the subclass
+     *                      populates using {@link StaticXmlParser#streamDocument(File, Context)}
+     */
+    protected AbstractContext(JxpBackend backend, File file, Logger logger, boolean streamingLoad) {
         this.backend = backend;
         this.path = file.getPath();
         this.file = file;
         this.logger = logger;
+        this.streamingLoad = streamingLoad;
 
         if (!file.exists()) {
             throw new PersistException("File " + file + " does not exist");
         }
 
-        document = StaticXmlParser.parseDocument(file);
+        document = loadDocument(file);
+        if (!streamingLoad) {
+            openJournal();
+        }
+        openDeferredWrites();
     }
 
     @Override
     public void close() {
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+        if (journal != null && journal.hasCommits()) {
+            journal.checkpoint();
+        }
         backend.removeContext(this);
     }
 
@@ -110,7 +153,16 @@ public abstract class AbstractContext implements Context {
             if (!file.delete()) {
                 throw new PersistException("File could not be deleted");
             }
+            if (journal != null) {
+                journal.delete();
+                journal = null;
+            }
+            if (writeBehind != null) {
+                writeBehind.cancel();
+                writeBehind = null;
+            }
             file = null;
+            groupCommit = null;
         } else {
             throw new IllegalStateException("This Context's file does not exist");
         }
@@ -144,6 +196,12 @@ public abstract class AbstractContext implements Context {
             this.file = file;
             this.path = path;
             StaticXmlParser.writeToFile(this);
+            if (backend.getJournalSettings() != null) {
+                // a journal left behind by a previous file of the same name does not belong to the new file
+                Files.deleteIfExists(Journal.getJournalFile(file).toPath());
+                openJournal();
+            }
+            openDeferredWrites();
         } catch (IOException | CommitException e) {
             throw new PersistException("Exception persisting Context to file " + path, e);
         }
@@ -192,7 +250,126 @@ public abstract class AbstractContext implements Context {
             throw new UnsupportedOperationException("Can only reload persistent Context");
         }
 
-        document = StaticXmlParser.parseDocument(file);
+        // pending changes would otherwise be discarded with the document while the future reports them as written
+        if (writeBehind != null) {
+            writeBehind.sync();
+        }
+        document = loadDocument(file);
+        if (!streamingLoad) {
+            openJournal();
+        }
+    }
+
+    @Override
+    public void checkpoint() {
+        if (!isPersistent()) {
+            throw new IllegalStateException("This Context is not persisted");
+        }
+
+        if (writeBehind != null) {
+            writeBehind.flush();
+        }
+        if (journal != null) {
+            journal.checkpoint();
+        } else {
+            try {
+                StaticXmlParser.writeToFile(this);
+            } catch (CommitException e) {
+                throw new PersistException("Exception while writing Context to file " + path, e);
+            }
+        }
+    }
+
+    /**
+     * @return the journal of this Context or null if {@link JxpBackend#getJournalSettings()} is not set or the Context
+     * is not persistent
+     */
+    @Nullable
+    public Journal getJournal() {
+        return journal;
+    }
+
+    @Override
+    public CompletableFuture<Void> getPendingWrite() {
+        WriteBehind writeBehind = this.writeBehind;
+        return writeBehind != null ? writeBehind.getPendingWrite() : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * @return the group commit coalescing the file writes of this Context or null if
+     * {@link JxpBackend#getGroupCommitWindow()} is not set or the Context is not persistent
+     */
+    @Nullable
+    public GroupCommit getGroupCommit() {
+        return groupCommit;
+    }
+
+    /**
+     * Replay the {@link Journal} on the current document and start recording the changes made to it if the
+     * JxpBackend has {@link JournalSettings}. Called once the document has been loaded, which for a streaming load is
+     * done by the subclass after populating the document.
+     *
+     * @return the amount of commits replayed from the journal, 0 if this Context does not use a journal
+     */
+    protected int openJournal() {
+        JournalSettings journalSettings = backend.getJournalSettings();
+        if (journalSettings == null || file == null) {
+            return 0;
+        }
+
+        if (journal == null) {
+            journal = new Journal(this, journalSettings);
+        }
+        return journal.open();
+    }
+
+    /**
+     * Wait until the changes committed by the current thread have been written if they were handed to the
+     * {@link GroupCommit}, unless the current thread is still running an invocation, e.g. when called by a nested
+     * invocation, in which case this is done by the outermost invocation once the mutex has been released. Waiting
+     * while holding the mutex would deadlock with the thread writing the group commit.
+     */
+    private void awaitGroupCommit() {
+        Long sequence = pendingGroupCommit.get();
+        if (sequence == null || invocationDepth.get() > 0) {
+            return;
+        }
+
+        pendingGroupCommit.remove();
+        GroupCommit groupCommit = this.groupCommit;
+        if (groupCommit != null) {
+            try {
+                groupCommit.await(sequence);
+            } catch (CommitException e) {
+                throw new PersistException("Changes were committed but could not be written to file " + path, e);
+            }
+        }
+    }
+
+    private void openDeferredWrites() {
+        long writeBehindInterval = backend.getWriteBehindInterval();
+        long groupCommitWindow = backend.getGroupCommitWindow();
+        if (writeBehindInterval >= 0) {
+            writeBehind = new WriteBehind(getMutexKey(), writeBehindInterval, this::writeChanges, logger);
+        } else if (groupCommitWindow >= 0) {
+            groupCommit = new GroupCommit(getMutexKey(), groupCommitWindow, this::writeChanges);
+        }
+    }
+
+    private void writeChanges() throws CommitException {
+        if (journal != null) {
+            journal.write();
+        } else {
+            StaticXmlParser.writeToFile(this);
+        }
+    }
+
+    /**
+     * @return true if the document is populated using {@link StaticXmlParser#streamDocument(File, Context)} when the
+     * Context is created or reloaded
+     */
+    protected boolean isStreamingLoad() {
+        return streamingLoad;
     }
 
     @Override
@@ -207,30 +384,22 @@ public abstract class AbstractContext implements Context {
 
     @Override
     public List<XmlElement> getElementsRecursive() {
-        ImmutableList.Builder<XmlElement> listBuilder = ImmutableList.builder();
-        for (XmlElement element : getElements()) {
-            recursiveAdd(listBuilder, element);
-        }
-        return listBuilder.build();
+        return ImmutableList.copyOf(streamElementsRecursive().iterator());
     }
 
-    private void recursiveAdd(ImmutableList.Builder<XmlElement> listBuilder, XmlElement element) {
-        listBuilder.add(element);
-        if (element.hasSubElements()) {
-            for (XmlElement subElement : Lists.newArrayList(element.getSubElements())) {
-                recursiveAdd(listBuilder, subElement);
-            }
-        }
+    @Override
+    public Stream<XmlElement> streamElementsRecursive() {
+        return getDocumentElement().streamSubElementsRecursive();
     }
 
     @Override
     public List<XmlElement> getElements(Predicate<XmlElement> predicate) {
-        return getElementsRecursive().stream().filter(predicate).collect(Collectors.toList());
+        return streamElementsRecursive().filter(predicate).collect(Collectors.toList());
     }
 
     @Override
     public Set<String> getUsedIds() {
-        return getElementsRecursive().stream().filter(element -> element.getId() != null).map(XmlElement::getId).collect(Collectors.toSet());
+        return streamElementsRecursive().filter(element -> element.getId() != null).map(XmlElement::getId).collect(Collectors.toSet());
     }
 
     @Override
@@ -242,8 +411,10 @@ public abstract class AbstractContext implements Context {
     @Override
     @Nullable
     public <E extends XmlElement> E getElement(String id, Class<E> type) {
-        List<E> foundElements = getElementsRecursive().stream()
+        // two matches suffice to tell that the id is not unique
+        List<E> foundElements = getElementsWithId(id)
             .filter(element -> type.isInstance(element) && element.getId() != null && element.getId().equals(id))
+            .limit(2)
             .map(type::cast)
             .collect(Collectors.toList());
 
@@ -256,6 +427,14 @@ public abstract class AbstractContext implements Context {
         }
     }
 
+    /**
+     * @return the elements that might have the provided id, this does not need to be an exact result as the caller
+     * still checks the id of each element. The default implementation lazily streams all elements.
+     */
+    protected Stream<XmlElement> getElementsWithId(String id) {
+        return streamElementsRecursive();
+    }
+
     @Override
     public XmlElement requireElement(String id) throws IllegalStateException {
         return requireElement(id, XmlElement.class);
@@ -274,7 +453,7 @@ public abstract class AbstractContext implements Context {
 
     @Override
     public <E extends XmlElement> List<E> getInstancesOf(Class<E> c) {
-        return getElementsRecursive().stream()
+        return streamElementsRecursive()
             .filter(c::isInstance)
             .map(c::cast)
             .collect(Collectors.toList());
@@ -282,38 +461,122 @@ public abstract class AbstractContext implements Context {
 
     @Override
     public <E extends XmlElement> List<E> getInstancesOf(Class<E> c, Class... ignoredSubClasses) {
-        return getElementsRecursive().stream()
+        return streamElementsRecursive()
             .filter(elem -> c.isInstance(elem) && Arrays.stream(ignoredSubClasses).noneMatch(clazz -> clazz.isInstance(elem)))
             .map(c::cast)
             .collect(Collectors.toList());
     }
 
+    @Override
+    public <T> AttributeIndex<T> createIndex(@Nullable String tagName, String attributeName, Class<T> type) {
+        throw new UnsupportedOperationException("Indices are not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public void dropIndex(AttributeIndex<?> index) {
+        throw new UnsupportedOperationException("Indices are not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public FullTextIndex createFullTextIndex(@Nullable String tagName, @Nullable String attributeName) {
+        throw new UnsupportedOperationException("Indices are not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public void dropIndex(FullTextIndex index) {
+        throw new UnsupportedOperationException("Indices are not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public MaterializedView createView(String name, Predicate<XmlElement> condition, @Nullable Order<?> order) {
+        throw new UnsupportedOperationException("Views are not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public MaterializedView createView(String name, Predicate<XmlElement> condition) {
+        return createView(name, condition, null);
+    }
+
+    @Nullable
+    @Override
+    public MaterializedView getView(String name) {
+        return null;
+    }
+
+    @Override
+    public void dropView(String name) {
+    }
+
+    @Override
+    public void enableQueryCache(int maxSize) {
+        throw new UnsupportedOperationException("Query caching is not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public void disableQueryCache() {
+    }
+
+    @Nullable
+    @Override
+    public QueryCache getQueryCache() {
+        return null;
+    }
+
     @Override
     public ResultStream<XmlElement> query(Predicate<XmlElement> condition) {
-        return Query.evaluate(condition).execute(getElementsRecursive());
+        return Query.evaluate(condition).execute(this);
     }
 
     @Override
     public <E extends XmlElement> ResultStream<E> query(Predicate<XmlElement> condition, Class<E> type) {
-        return Query.evaluate(condition).execute(getElementsRecursive(), type);
+        return Query.evaluate(condition).execute(this, type);
     }
 
     @Override
     public List<XmlElement> xPathQuery(String xPathQuery) {
+        XPathExpressionCache xPathExpressionCache = backend.getXPathExpressionCache();
+        XPathExpression expression;
         try {
-            XPath xPath = XPathFactory.newInstance().newXPath();
-            NodeList nodeList = (NodeList) xPath.compile(xPathQuery).evaluate(getDocument(), XPathConstants.NODESET);
-            List<Element> docElements = ElementUtils.nodeListToElementList(nodeList);
-            return handleXPathResults(docElements);
+            expression = xPathExpressionCache.acquire(xPathQuery);
         } catch (XPathExpressionException e) {
             throw new QueryException("Exception while compiling XPath query", e);
         }
+
+        try {
+            return xPathQuery(expression);
+        } finally {
+            xPathExpressionCache.release(xPathQuery, expression);
+        }
+    }
+
+    @Override
+    public List<XmlElement> xPathQuery(XPathExpression expression) {
+        NodeList nodeList;
+        try {
+            nodeList = (NodeList) expression.evaluate(getDocument(), XPathConstants.NODESET);
+        } catch (XPathExpressionException e) {
+            throw new QueryException("Exception while evaluating XPath query", e);
+        }
+
+        List<Element> docElements = ElementUtils.nodeListToElementList(nodeList);
+        return handleXPathResults(docElements);
     }
 
     protected abstract List<XmlElement> handleXPathResults(List<Element> results);
 
     @Override
-    public synchronized void commitAll() {
+    public void commitAll() {
+        commitUncommittedTransactions();
+        // wait outside of the monitor since writing the group commit requires the mutex, which a thread calling this
+        // method from within a task holds
+        try {
+            awaitGroupCommit();
+        } catch (PersistException e) {
+            logger.error("Exception while writing committed transactions", e);
+        }
+    }
+
+    private synchronized void commitUncommittedTransactions() {
         try {
             uncommittedTransactions.forEach(tx -> {
                 try {
@@ -356,8 +619,36 @@ public abstract class AbstractContext implements Context {
 
     @Override
     public <E> E invoke(Mode mode, Callable<E> task) {
-        Invoker invoker = Invoker.newInstance();
-        return invoker.invoke(mode, task, e -> new PersistException("Exception in task", e));
+        E result;
+        try {
+            result = invokeNested(mode, task);
+        } catch (RuntimeException e) {
+            // transactions committed by the task before it failed still have to be written
+            try {
+                awaitGroupCommit();
+            } catch (PersistException e1) {
+                e.addSuppressed(e1);
+            }
+            throw e;
+        }
+
+        awaitGroupCommit();
+        return result;
+    }
+
+    private <E> E invokeNested(Mode mode, Callable<E> task) {
+        int depth = invocationDepth.get();
+        invocationDepth.set(depth + 1);
+        try {
+            Invoker invoker = Invoker.newInstance();
+            return invoker.invoke(mode, task, e -> new PersistException("Exception in task", e));
+        } finally {
+            if (depth > 0) {
+                invocationDepth.set(depth);
+            } else {
+                invocationDepth.remove();
+            }
+        }
     }
 
     @Override
@@ -520,6 +811,65 @@ public abstract class AbstractContext implements Context {
             .build(this);
     }
 
+    /**
+     * Called after an event was applied to the in memory elements, see {@link Internals#eventApplied(Event)}. The
+     * default implementation does nothing.
+     */
+    protected void onEventApplied(Event event) {
+    }
+
+    /**
+     * Called after an applied event was reverted, see {@link Internals#eventReverted(Event)}. The default
+     * implementation does nothing.
+     */
+    protected void onEventReverted(Event event) {
+    }
+
+    /**
+     * Called after an event was committed to the DOM document, see {@link Internals#eventCommitted(Event)}. The
+     * default implementation does nothing.
+     */
+    protected void onEventCommitted(Event event) {
+    }
+
+    /**
+     * Called after the commit of an event was reverted, see {@link Internals#commitReverted(Event)}. The default
+     * implementation does nothing.
+     */
+    protected void onCommitReverted(Event event) {
+    }
+
+    @Nullable
+    protected ElementIdIndex getIdIndex() {
+        return null;
+    }
+
+    @Nullable
+    protected ElementTypeIndex getTypeIndex() {
+        return null;
+    }
+
+    protected List<AttributeIndex<?>> getAttributeIndices() {
+        return Collections.emptyList();
+    }
+
+    protected List<FullTextIndex> getFullTextIndices() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Find the elements that might match the provided condition, see {@link Internals#findCandidates(Predicate)}. The
+     * default implementation returns null.
+     */
+    @Nullable
+    protected List<XmlElement> findCandidates(Predicate<XmlElement> condition) {
+        return null;
+    }
+
+    private Document loadDocument(File file) {
+        return streamingLoad ? StaticXmlParser.newDocument() : StaticXmlParser.parseDocument(file);
+    }
+
     protected class InternalControl implements Internals {
 
         @Override
@@ -527,6 +877,71 @@ public abstract class AbstractContext implements Context {
             threadTransaction.set(transaction);
         }
 
+        @Override
+        public void eventApplied(Event event) {
+            onEventApplied(event);
+        }
+
+        @Override
+        public void eventReverted(Event event) {
+            onEventReverted(event);
+        }
+
+        @Override
+        public void eventCommitted(Event event) {
+            onEventCommitted(event);
+        }
+
+        @Override
+        public void commitReverted(Event event) {
+            onCommitReverted(event);
+        }
+
+        @Override
+        public void writeChanges() throws CommitException {
+            WriteBehind writeBehind = AbstractContext.this.writeBehind;
+            GroupCommit groupCommit = AbstractContext.this.groupCommit;
+            if (writeBehind != null) {
+                writeBehind.request();
+            } else if (groupCommit != null) {
+                pendingGroupCommit.set(groupCommit.request());
+            } else {
+                AbstractContext.this.writeChanges();
+            }
+        }
+
+        @Nullable
+        @Override
+        public ElementIdIndex getIdIndex() {
+            return AbstractContext.this.getIdIndex();
+        }
+
+        @Override
+        public ElementTypeIndex getTypeIndex() {
+            return AbstractContext.this.getTypeIndex();
+        }
+
+        @Override
+        public List<AttributeIndex<?>> getAttributeIndices() {
+            return AbstractContext.this.getAttributeIndices();
+        }
+
+        @Override
+        public List<FullTextIndex> getFullTextIndices() {
+            return AbstractContext.this.getFullTextIndices();
+        }
+
+        @Override
+        public List<XmlElement> resolveDomElements(List<Element> domElements) {
+            return handleXPathResults(domElements);
+        }
+
+        @Nullable
+        @Override
+        public List<XmlElement> findCandidates(Predicate<XmlElement> condition) {
+            return AbstractContext.this.findCandidates(condition);
+        }
+
     }
 
-}
\ No newline at end of file
+}
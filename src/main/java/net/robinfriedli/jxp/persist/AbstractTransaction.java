@@ -199,7 +199,7 @@ public abstract class AbstractTransaction implements Transaction {
                     flush();
 
                     if (writeToFile && context.isPersistent() && !isEmpty()) {
-                        StaticXmlParser.writeToFile(context);
+                        context.internal().writeChanges();
                     }
 
                     setState(State.COMMITTED);
@@ -1,14 +1,41 @@
 package net.robinfriedli.jxp.persist;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 
+import net.robinfriedli.exec.Mode;
+import net.robinfriedli.exec.modes.MutexSyncMode;
 import net.robinfriedli.jxp.api.JxpBackend;
 import net.robinfriedli.jxp.api.StaticXmlElementFactory;
 import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.collections.AttributeIndex;
+import net.robinfriedli.jxp.collections.DomElementIndex;
+import net.robinfriedli.jxp.collections.ElementIdIndex;
+import net.robinfriedli.jxp.collections.ElementIndex;
+import net.robinfriedli.jxp.collections.ElementTypeIndex;
+import net.robinfriedli.jxp.collections.FullTextIndex;
+import net.robinfriedli.jxp.events.ElementChangingEvent;
+import net.robinfriedli.jxp.events.ElementCreatedEvent;
+import net.robinfriedli.jxp.events.ElementDeletingEvent;
+import net.robinfriedli.jxp.events.Event;
+import net.robinfriedli.jxp.queries.MaterializedView;
+import net.robinfriedli.jxp.queries.Order;
+import net.robinfriedli.jxp.queries.Query;
+import net.robinfriedli.jxp.queries.QueryCache;
+import net.robinfriedli.jxp.queries.ResultStream;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -16,25 +43,58 @@ import org.w3c.dom.Element;
  * Context implementation that stores all {@link XmlElement} instances for the entirety of its lifespan and never has
  * to re-instantiate its XmlElements or re-parse its DOM document. This is ideal when performance is the main focus
  * and memory is not too limited.
+ * <p>
+ * Since all elements are known this Context maintains an {@link ElementIdIndex}, and any {@link AttributeIndex} created
+ * via {@link #createIndex(String, String, Class)} or {@link FullTextIndex} created via
+ * {@link #createFullTextIndex(String, String)}, that is updated whenever an event is applied or reverted, meaning
+ * {@link #getElement(String, Class)}, {@link #getUsedIds()} and indexed queries do not have to scan all elements.
+ * Likewise the {@link DomElementIndex} resolves the DOM elements returned by {@link #xPathQuery(String)} to their
+ * XmlElement instances directly and the {@link ElementTypeIndex} answers {@link #getInstancesOf(Class)} and queries
+ * for elements with a certain tag name or type. The {@link MaterializedView}s created via
+ * {@link #createView(String, Predicate, Order)} are updated the same way, as is the {@link QueryCache} enabled via
+ * {@link #enableQueryCache(int)}, which only drops the cached results affected by each event.
  */
 public class CachedContext extends AbstractContext {
 
+    private final ElementIdIndex idIndex = new ElementIdIndex();
+    private final DomElementIndex domElementIndex = new DomElementIndex();
+    private final ElementTypeIndex typeIndex = new ElementTypeIndex(this::streamElementsRecursive);
+    private final List<AttributeIndex<?>> attributeIndices = new CopyOnWriteArrayList<>();
+    private final List<FullTextIndex> fullTextIndices = new CopyOnWriteArrayList<>();
+    private final Map<String, MaterializedView> views = new ConcurrentHashMap<>();
+    private final List<ElementIndex> elementIndices = new CopyOnWriteArrayList<>(Arrays.asList(idIndex, domElementIndex, typeIndex));
+    @Nullable
+    private volatile QueryCache queryCache;
+
     private XmlElement rootElement;
 
     public CachedContext(JxpBackend backend, Document document, Logger logger) {
         super(backend, document, logger);
         rootElement = StaticXmlElementFactory.instantiateDocumentElement(this);
+        buildIndices();
     }
 
+    /**
+     * Create a CachedContext for the provided file. If {@link JxpBackend#isStreamingLoad()} is enabled the file is read
+     * using {@link StaticXmlParser#streamDocument(File, Context)}, which builds the DOM tree and the element tree in a
+     * single pass, otherwise the file is parsed to a DOM document first and the element tree is instantiated from it.
+     */
     public CachedContext(JxpBackend backend, File file, Logger logger) {
-        super(backend, file, logger);
-        rootElement = StaticXmlElementFactory.instantiateDocumentElement(this);
+        super(backend, file, logger, backend.isStreamingLoad());
+        rootElement = instantiateDocumentElement();
+        buildIndices();
     }
 
     @Override
     public void reload() {
         super.reload();
-        rootElement = StaticXmlElementFactory.instantiateDocumentElement(this);
+        rootElement = instantiateDocumentElement();
+        elementIndices.forEach(ElementIndex::clear);
+        buildIndices();
+        QueryCache cache = queryCache;
+        if (cache != null) {
+            cache.clear();
+        }
     }
 
     @Override
@@ -47,9 +107,237 @@ public class CachedContext extends AbstractContext {
         return rootElement.getSubElements();
     }
 
+    @Override
+    public Set<String> getUsedIds() {
+        return idIndex.getIds();
+    }
+
+    @Override
+    protected Stream<XmlElement> getElementsWithId(String id) {
+        return idIndex.get(id).stream();
+    }
+
+    @Override
+    public <E extends XmlElement> List<E> getInstancesOf(Class<E> c) {
+        List<E> instances = typeIndex.getInstancesOf(c);
+        return instances != null ? instances : super.getInstancesOf(c);
+    }
+
+    @Override
+    public <E extends XmlElement> List<E> getInstancesOf(Class<E> c, Class... ignoredSubClasses) {
+        List<E> instances = typeIndex.getInstancesOf(c);
+        if (instances == null) {
+            return super.getInstancesOf(c, ignoredSubClasses);
+        }
+
+        return instances.stream()
+            .filter(elem -> Arrays.stream(ignoredSubClasses).noneMatch(clazz -> clazz.isInstance(elem)))
+            .collect(Collectors.toList());
+    }
+
+    @Override
+    public <T> AttributeIndex<T> createIndex(@Nullable String tagName, String attributeName, Class<T> type) {
+        AttributeIndex<T> index = new AttributeIndex<>(tagName, attributeName, type);
+        Mode mode = Mode.create().with(new MutexSyncMode<>(getMutexKey(), GLOBAL_CONTEXT_SYNC));
+        return invoke(mode, () -> {
+            for (AttributeIndex<?> existingIndex : attributeIndices) {
+                if (Objects.equals(existingIndex.getTagName(), tagName)
+                    && existingIndex.getAttributeName().equals(attributeName)
+                    && existingIndex.getType() == type) {
+                    @SuppressWarnings("unchecked")
+                    AttributeIndex<T> castIndex = (AttributeIndex<T>) existingIndex;
+                    return castIndex;
+                }
+            }
+
+            getElementsRecursive().forEach(index::add);
+            elementIndices.add(index);
+            attributeIndices.add(index);
+            return index;
+        });
+    }
+
+    @Override
+    public void dropIndex(AttributeIndex<?> index) {
+        attributeIndices.remove(index);
+        elementIndices.remove(index);
+    }
+
+    @Override
+    public FullTextIndex createFullTextIndex(@Nullable String tagName, @Nullable String attributeName) {
+        Mode mode = Mode.create().with(new MutexSyncMode<>(getMutexKey(), GLOBAL_CONTEXT_SYNC));
+        return invoke(mode, () -> {
+            for (FullTextIndex existingIndex : fullTextIndices) {
+                if (existingIndex.covers(tagName, attributeName)) {
+                    return existingIndex;
+                }
+            }
+
+            FullTextIndex index = new FullTextIndex(tagName, attributeName);
+            getElementsRecursive().forEach(index::add);
+            elementIndices.add(index);
+            fullTextIndices.add(index);
+            return index;
+        });
+    }
+
+    @Override
+    public void dropIndex(FullTextIndex index) {
+        fullTextIndices.remove(index);
+        elementIndices.remove(index);
+    }
+
+    @Override
+    public MaterializedView createView(String name, Predicate<XmlElement> condition, @Nullable Order<?> order) {
+        Mode mode = Mode.create().with(new MutexSyncMode<>(getMutexKey(), GLOBAL_CONTEXT_SYNC));
+        return invoke(mode, () -> {
+            if (views.containsKey(name)) {
+                throw new IllegalArgumentException("View " + name + " already exists");
+            }
+
+            MaterializedView view = new MaterializedView(name, condition, order, this::streamElementsRecursive);
+            getElementsRecursive().forEach(view::add);
+            elementIndices.add(view);
+            views.put(name, view);
+            return view;
+        });
+    }
+
+    @Nullable
+    @Override
+    public MaterializedView getView(String name) {
+        return views.get(name);
+    }
+
+    @Override
+    public void dropView(String name) {
+        MaterializedView view = views.remove(name);
+        if (view != null) {
+            elementIndices.remove(view);
+        }
+    }
+
+    @Override
+    public void enableQueryCache(int maxSize) {
+        queryCache = new QueryCache(maxSize);
+    }
+
+    @Override
+    public void disableQueryCache() {
+        queryCache = null;
+    }
+
+    @Nullable
+    @Override
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    @Override
+    public ResultStream<XmlElement> query(Predicate<XmlElement> condition) {
+        return query(condition, XmlElement.class);
+    }
+
+    @Override
+    public <E extends XmlElement> ResultStream<E> query(Predicate<XmlElement> condition, Class<E> type) {
+        QueryCache cache = queryCache;
+        if (cache == null) {
+            return super.query(condition, type);
+        }
+
+        List<XmlElement> results = cache.query(condition, () -> Query.evaluate(condition).execute(this).collect());
+        return new ResultStream<>(results.stream().map(type::cast));
+    }
+
+    @Override
+    public List<XmlElement> xPathQuery(String xPathQuery) {
+        QueryCache cache = queryCache;
+        if (cache == null) {
+            return super.xPathQuery(xPathQuery);
+        }
+
+        return cache.xPathQuery(xPathQuery, () -> super.xPathQuery(xPathQuery));
+    }
+
+    @Override
+    protected ElementIdIndex getIdIndex() {
+        return idIndex;
+    }
+
+    @Override
+    protected ElementTypeIndex getTypeIndex() {
+        return typeIndex;
+    }
+
+    @Override
+    protected List<AttributeIndex<?>> getAttributeIndices() {
+        return attributeIndices;
+    }
+
+    @Override
+    protected List<FullTextIndex> getFullTextIndices() {
+        return fullTextIndices;
+    }
+
+    @Override
+    protected void onEventApplied(Event event) {
+        XmlElement source = event.getSource();
+        if (event instanceof ElementCreatedEvent) {
+            if (isInTree(source)) {
+                addRecursive(source);
+            }
+        } else if (event instanceof ElementDeletingEvent) {
+            removeRecursive(source);
+        } else if (event instanceof ElementChangingEvent && idIndex.contains(source)) {
+            elementIndices.forEach(index -> index.update(source));
+        }
+        updateAncestorIds(event);
+
+        QueryCache cache = queryCache;
+        if (cache != null) {
+            cache.elementsChanged(event);
+        }
+    }
+
+    @Override
+    protected void onEventReverted(Event event) {
+        XmlElement source = event.getSource();
+        if (event instanceof ElementCreatedEvent) {
+            removeRecursive(source);
+        } else if (event instanceof ElementDeletingEvent) {
+            if (isInTree(source)) {
+                addRecursive(source);
+            }
+        } else if (event instanceof ElementChangingEvent && idIndex.contains(source)) {
+            elementIndices.forEach(index -> index.update(source));
+        }
+        updateAncestorIds(event);
+
+        QueryCache cache = queryCache;
+        if (cache != null) {
+            cache.elementsChanged(event);
+        }
+    }
+
+    @Override
+    protected void onEventCommitted(Event event) {
+        QueryCache cache = queryCache;
+        if (cache != null) {
+            cache.documentChanged(event);
+        }
+    }
+
+    @Override
+    protected void onCommitReverted(Event event) {
+        QueryCache cache = queryCache;
+        if (cache != null) {
+            cache.documentChanged(event);
+        }
+    }
+
     @Override
     protected List<XmlElement> handleXPathResults(List<Element> results) {
-        return getElementsRecursive().stream().filter(element -> element.isPersisted() && results.contains(element.getElement())).collect(Collectors.toList());
+        return domElementIndex.getAll(results);
     }
 
     @Override
@@ -62,4 +350,75 @@ public class CachedContext extends AbstractContext {
         return new CachedContext(jxpBackend, document, logger);
     }
 
-}
\ No newline at end of file
+    private XmlElement instantiateDocumentElement() {
+        if (isStreamingLoad()) {
+            //noinspection ConstantConditions
+            XmlElement documentElement = StaticXmlParser.streamDocument(getFile(), this);
+            // commits replayed from the journal change the document after the element tree has been built
+            if (openJournal() == 0) {
+                return documentElement;
+            }
+        }
+
+        return StaticXmlElementFactory.instantiateDocumentElement(this);
+    }
+
+    private void buildIndices() {
+        for (XmlElement element : getElementsRecursive()) {
+            elementIndices.forEach(index -> index.add(element));
+        }
+    }
+
+    /**
+     * @return true if the provided element is a descendant of the document element, as opposed to an element that was
+     * removed from the tree or a child of such an element
+     */
+    private boolean isInTree(XmlElement element) {
+        XmlElement parent = element.getParent();
+        while (parent != null) {
+            if (parent == rootElement) {
+                return true;
+            }
+            parent = parent.getParent();
+        }
+
+        return false;
+    }
+
+    /**
+     * Update the ids of the ancestors of the element affected by the provided event in the id index, since the user
+     * defined {@link XmlElement#getId()} may depend on sub elements or text content.
+     */
+    private void updateAncestorIds(Event event) {
+        XmlElement parent;
+        if (event instanceof ElementCreatedEvent) {
+            parent = ((ElementCreatedEvent) event).getEffectiveParent();
+        } else if (event instanceof ElementDeletingEvent) {
+            parent = ((ElementDeletingEvent) event).getOldParent();
+        } else {
+            parent = event.getSource().getParent();
+        }
+
+        while (parent != null && idIndex.contains(parent)) {
+            idIndex.update(parent);
+            parent = parent.getParent();
+        }
+    }
+
+    // when an element is added to or removed from the tree its sub elements are too, this matters when reverting the
+    // deletion of an element because the deletions of its sub elements are reverted first
+    private void addRecursive(XmlElement element) {
+        elementIndices.forEach(index -> index.add(element));
+        for (XmlElement subElement : element.getSubElements()) {
+            addRecursive(subElement);
+        }
+    }
+
+    private void removeRecursive(XmlElement element) {
+        elementIndices.forEach(index -> index.remove(element));
+        for (XmlElement subElement : element.getSubElements()) {
+            removeRecursive(subElement);
+        }
+    }
+
+}
@@ -5,9 +5,12 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
+import javax.xml.xpath.XPathExpression;
 
 import net.robinfriedli.exec.Mode;
 import net.robinfriedli.exec.MutexSync;
@@ -15,14 +18,28 @@ import net.robinfriedli.exec.modes.MutexSyncMode;
 import net.robinfriedli.jxp.api.JxpBackend;
 import net.robinfriedli.jxp.api.Node;
 import net.robinfriedli.jxp.api.StaticXmlElementFactory;
+import net.robinfriedli.jxp.api.StringConverter;
 import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.collections.AttributeIndex;
+import net.robinfriedli.jxp.collections.ElementIdIndex;
+import net.robinfriedli.jxp.collections.ElementTypeIndex;
+import net.robinfriedli.jxp.collections.FullTextIndex;
+import net.robinfriedli.jxp.collections.SubElementSpliterator;
+import net.robinfriedli.jxp.events.Event;
+import net.robinfriedli.jxp.exceptions.CommitException;
 import net.robinfriedli.jxp.exceptions.PersistException;
 import net.robinfriedli.jxp.exec.AbstractTransactionalMode;
 import net.robinfriedli.jxp.exec.QueuedTask;
 import net.robinfriedli.jxp.queries.Conditions;
+import net.robinfriedli.jxp.queries.MaterializedView;
+import net.robinfriedli.jxp.queries.Order;
 import net.robinfriedli.jxp.queries.Query;
+import net.robinfriedli.jxp.queries.QueryCache;
 import net.robinfriedli.jxp.queries.QueryResult;
 import net.robinfriedli.jxp.queries.ResultStream;
+import net.robinfriedli.jxp.queries.ValueComparator;
+import net.robinfriedli.jxp.queries.XPathPreFilter;
+import net.robinfriedli.jxp.queries.xpath.PreparedXQuery;
 import net.robinfriedli.jxp.queries.xpath.XQueryBuilder;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -37,8 +54,9 @@ public interface Context extends AutoCloseable {
     MutexSync<String> GLOBAL_CONTEXT_SYNC = new MutexSync<>();
 
     /**
-     * AutoCloseable#close override that does not throw an exception since this implementation never does so no
-     * catch block is required
+     * AutoCloseable#close override that does not throw a checked exception so no catch block is required
+     *
+     * @throws PersistException if changes pending to be written behind cannot be written, see {@link WriteBehind}
      */
     @Override
     void close();
@@ -111,9 +129,26 @@ public interface Context extends AutoCloseable {
      * the DOM elements they are backed by belong to the old document.
      *
      * @throws UnsupportedOperationException if this context is not persistent
+     * @throws PersistException              if changes pending to be written behind cannot be written
      */
     void reload();
 
+    /**
+     * Write the complete document to the file of this persistent Context. If the Context uses a {@link Journal} this
+     * also clears the journal, see {@link Journal#checkpoint()}.
+     *
+     * @throws IllegalStateException if this Context is not persistent
+     * @throws PersistException      if writing the file fails
+     */
+    void checkpoint();
+
+    /**
+     * @return a future that completes once all changes committed to this Context so far are written to the file, which
+     * is already completed unless the JxpBackend uses {@link WriteBehind} and a write is pending. The future completes
+     * exceptionally if the write fails.
+     */
+    CompletableFuture<Void> getPendingWrite();
+
     /**
      * @return the path of the XML file of this Context or null if not persistent
      */
@@ -169,6 +204,14 @@ public interface Context extends AutoCloseable {
      */
     List<XmlElement> getElementsRecursive();
 
+    /**
+     * @return a lazy stream of all elements in this Context in document order, like {@link #getElementsRecursive()}
+     * but the tree is only traversed as far as the stream is consumed, so short-circuiting operations such as
+     * {@link Stream#findFirst()} stop early and, in case of a {@link LazyContext}, only instantiate the elements they
+     * visit. See {@link SubElementSpliterator}.
+     */
+    Stream<XmlElement> streamElementsRecursive();
+
     /**
      * @return all XmlElements (including their sub elements) in this Context that match {@param predicate}
      */
@@ -233,6 +276,125 @@ public interface Context extends AutoCloseable {
      */
     <E extends XmlElement> List<E> getInstancesOf(Class<E> c, Class... ignoredSubClasses);
 
+    /**
+     * Create an index over the values of the provided attribute, converted to the provided type using the
+     * {@link StringConverter}, that is kept up to date whenever a transaction changes the elements of this Context.
+     * Queries executed via {@link #query(Predicate)} that compare the attribute with a value of the same type using
+     * {@link ValueComparator#is(Object)}, {@link ValueComparator#in(Object[])} or, if the type is {@link Comparable},
+     * {@link ValueComparator#greaterThan(Comparable)} and the like, then only check the elements found by the index.
+     * If a tag name is provided only elements with that tag name are indexed, in which case the index is only used if
+     * the query is restricted to that tag name using {@link Conditions#tagName(String)}.
+     * <p>
+     * Indices are only supported by {@link CachedContext} as it is the only implementation that holds all of its
+     * elements. If an index for the same tag name, attribute and type already exists that index is returned.
+     *
+     * @param tagName       the tag name of the elements to index or null to index elements with any tag name
+     * @param attributeName the name of the attribute to index
+     * @param type          the type to convert the attribute values to
+     * @param <T>           the type of the indexed values
+     * @return the created index
+     * @throws UnsupportedOperationException if this Context does not support indices
+     * @throws IllegalArgumentException      if there is no {@link StringConverter} conversion for the provided type
+     */
+    <T> AttributeIndex<T> createIndex(@Nullable String tagName, String attributeName, Class<T> type);
+
+    /**
+     * Remove an index created with {@link #createIndex(String, String, Class)} so that it is no longer updated or
+     * used by queries.
+     *
+     * @param index the index to drop
+     */
+    void dropIndex(AttributeIndex<?> index);
+
+    /**
+     * Create a full text index over the terms contained in the value of the provided attribute or the text content of
+     * the elements, see {@link FullTextIndex#tokenize(String)}, that is kept up to date whenever a transaction changes
+     * the elements of this Context. Queries executed via {@link #query(Predicate)} that use
+     * {@link ValueComparator#containsTerm(String)}, {@link ValueComparator#containsTermWithPrefix(String)} or
+     * {@link ValueComparator#containsAllTerms(String)} on the indexed value then only check the elements found by the
+     * index. Like {@link #createIndex(String, String, Class)}, if a tag name is provided the index is only used if the
+     * query is restricted to that tag name using {@link Conditions#tagName(String)}.
+     * <p>
+     * Indices are only supported by {@link CachedContext}. If an index for the same tag name and attribute already
+     * exists that index is returned.
+     *
+     * @param tagName       the tag name of the elements to index or null to index elements with any tag name
+     * @param attributeName the name of the attribute to index or null to index the text content
+     * @return the created index
+     * @throws UnsupportedOperationException if this Context does not support indices
+     */
+    FullTextIndex createFullTextIndex(@Nullable String tagName, @Nullable String attributeName);
+
+    /**
+     * Remove an index created with {@link #createFullTextIndex(String, String)} so that it is no longer updated or
+     * used by queries.
+     *
+     * @param index the index to drop
+     */
+    void dropIndex(FullTextIndex index);
+
+    /**
+     * Register a named query whose results are materialized and kept up to date incrementally whenever a transaction
+     * changes the elements of this Context, including when it is rolled back, see {@link MaterializedView}.
+     * <p>
+     * Views are only supported by {@link CachedContext} as it is the only implementation that holds all of its
+     * elements.
+     *
+     * @param name      the name of the view, used to look it up using {@link #getView(String)}
+     * @param condition the condition the results have to match, which should only depend on the checked element itself
+     * @param order     the order of the results or null to return the results in document order
+     * @return the created view
+     * @throws UnsupportedOperationException if this Context does not support views
+     * @throws IllegalArgumentException      if a view with the provided name already exists
+     */
+    MaterializedView createView(String name, Predicate<XmlElement> condition, @Nullable Order<?> order);
+
+    /**
+     * Register a named query whose results are returned in document order, see
+     * {@link #createView(String, Predicate, Order)}.
+     */
+    MaterializedView createView(String name, Predicate<XmlElement> condition);
+
+    /**
+     * @param name the name of the view
+     * @return the view created with the provided name or null if there is none
+     */
+    @Nullable
+    MaterializedView getView(String name);
+
+    /**
+     * Remove the view with the provided name so that it is no longer updated. Dropping a view that does not exist has
+     * no effect.
+     *
+     * @param name the name of the view to drop
+     */
+    void dropView(String name);
+
+    /**
+     * Cache the results of {@link #query(Predicate)} and {@link #xPathQuery(String)}, keyed by the condition or XPath
+     * string. Instead of clearing the cache on each change, the entries are invalidated precisely by the elements, tag
+     * names and attributes changed by the events of a transaction, including when the transaction is rolled back, see
+     * {@link QueryCache}. Enabling the cache when it is already enabled replaces it with an empty cache of the new size.
+     * <p>
+     * The cache is only supported by {@link CachedContext} as it is the only implementation that is notified of all
+     * changes to its elements.
+     *
+     * @param maxSize the maximum amount of cached results, the least recently used results are evicted first
+     * @throws UnsupportedOperationException if this Context does not support caching query results
+     */
+    void enableQueryCache(int maxSize);
+
+    /**
+     * Stop caching query results and drop all cached results. Has no effect if the cache is not enabled.
+     */
+    void disableQueryCache();
+
+    /**
+     * @return the query cache enabled via {@link #enableQueryCache(int)} or null if it is not enabled
+     */
+    @Nullable
+    QueryCache getQueryCache();
+
     /**
      * Checks all XmlElements for provided {@link Predicate}s and returns {@link QueryResult} with matching elements.
      * See {@link Conditions} for useful predicates. The performance of this method strongly depends on the performance
@@ -301,6 +463,16 @@ public interface Context extends AutoCloseable {
      */
     List<XmlElement> xPathQuery(String xPathQuery);
 
+    /**
+     * Like {@link #xPathQuery(String)} but evaluates an already compiled XPath expression, e.g. the expression of a
+     * {@link PreparedXQuery}. Since {@link XPathExpression} is not thread-safe the expression must not be evaluated by
+     * several threads concurrently.
+     *
+     * @param expression the compiled XPath expression
+     * @return XmlElements instances based on results
+     */
+    List<XmlElement> xPathQuery(XPathExpression expression);
+
     /**
      * Commit all previously uncommitted {@link Transaction}s on this Context, i.e. all transactions of tasks that were
      * executed with commit = false that haven't been committed via commitAll() or reverted via revertAll() yet.
@@ -555,6 +727,90 @@ public interface Context extends AutoCloseable {
          */
         void setTransaction(Transaction transaction);
 
+        /**
+         * Called after an {@link Event} has been applied to the in memory elements to update any data structures this
+         * Context derives from its elements, such as the id index of a {@link CachedContext}.
+         *
+         * @param event the applied event
+         */
+        void eventApplied(Event event);
+
+        /**
+         * Called after an applied {@link Event} has been reverted, see {@link #eventApplied(Event)}.
+         *
+         * @param event the reverted event
+         */
+        void eventReverted(Event event);
+
+        /**
+         * Called after an {@link Event} has been committed to the DOM document, used to update data structures that
+         * are derived from the DOM document, such as the cached XPath query results of a {@link CachedContext}.
+         *
+         * @param event the committed event
+         */
+        void eventCommitted(Event event);
+
+        /**
+         * Called after the commit of an {@link Event} has been reverted, see {@link #eventCommitted(Event)}.
+         *
+         * @param event the event whose commit was reverted
+         */
+        void commitReverted(Event event);
+
+        /**
+         * Write the changes committed to the DOM document to the file of this persistent Context, called when a
+         * transaction is committed. Either rewrites the file or appends the changes to the {@link Journal}.
+         *
+         * @throws CommitException if writing the changes fails
+         */
+        void writeChanges() throws CommitException;
+
+        /**
+         * @return the index mapping {@link XmlElement#getId()} to the elements of this Context or null if this Context
+         * does not maintain one, which is the case for a {@link LazyContext} as it does not hold all of its elements
+         */
+        @Nullable
+        ElementIdIndex getIdIndex();
+
+        /**
+         * @return the index mapping tag names and types to the elements of this Context or null if this Context does
+         * not maintain one, used by {@link Query} to find elements with a certain tag name or type
+         */
+        @Nullable
+        ElementTypeIndex getTypeIndex();
+
+        /**
+         * @return all indices created via {@link #createIndex(String, String, Class)}, used by {@link Query} to find
+         * the elements matching a condition without checking all elements
+         */
+        List<AttributeIndex<?>> getAttributeIndices();
+
+        /**
+         * @return all indices created via {@link #createFullTextIndex(String, String)}
+         */
+        List<FullTextIndex> getFullTextIndices();
+
+        /**
+         * Get the XmlElements for DOM elements found by querying the DOM document, like the results of
+         * {@link #xPathQuery(String)}.
+         *
+         * @param domElements the found DOM elements
+         * @return XmlElements instances based on the provided DOM elements
+         */
+        List<XmlElement> resolveDomElements(List<Element> domElements);
+
+        /**
+         * Find the elements that might match the provided condition without checking all elements of this Context,
+         * used by {@link Query} when no index can answer the condition. A {@link LazyContext} queries its DOM document
+         * using the XPath query translated by {@link XPathPreFilter} to avoid instantiating all of its elements.
+         *
+         * @param condition the condition to find the candidates for
+         * @return a list containing all elements that match the condition, which might also include elements that do
+         * not, or null if this Context cannot find the candidates
+         */
+        @Nullable
+        List<XmlElement> findCandidates(Predicate<XmlElement> condition);
+
     }
 
 }
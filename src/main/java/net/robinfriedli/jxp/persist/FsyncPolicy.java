@@ -0,0 +1,30 @@
+package net.robinfriedli.jxp.persist;
+
+/**
+ * Defines whether {@link StaticXmlParser#writeToFile(Context)} forces the written data to the storage device before
+ * returning, configured using {@link net.robinfriedli.jxp.api.JxpBuilder#setFsyncPolicy(FsyncPolicy)}. The document is
+ * always written to a temporary file that atomically replaces the file of the Context, so the file is never left
+ * truncated if the write fails; this policy only decides whether a committed change survives a crash of the operating
+ * system or a power loss. File systems that do not support atomic moves are the exception, there the file is replaced
+ * non-atomically, which is logged as a warning, see {@link StaticXmlParser#writeToFile(Context)}.
+ */
+public enum FsyncPolicy {
+
+    /**
+     * Leave flushing the written data to the operating system. The fastest option, a crash of the operating system
+     * shortly after a commit may revert the file to its previous state, or leave it empty on some file systems.
+     */
+    NONE,
+    /**
+     * Force the content of the temporary file to the storage device before it replaces the file of the Context,
+     * ensuring the file contains either the previous or the new document after a crash.
+     */
+    FILE,
+    /**
+     * Like {@link #FILE} but additionally force the directory after replacing the file, so that the replacement itself
+     * is durable once the commit returns. Forcing a directory is not supported on all platforms, in which case this
+     * behaves like {@link #FILE}.
+     */
+    FILE_AND_DIRECTORY
+
+}
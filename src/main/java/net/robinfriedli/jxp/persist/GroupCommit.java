@@ -0,0 +1,181 @@
+package net.robinfriedli.jxp.persist;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+
+import net.robinfriedli.jxp.exceptions.CommitException;
+
+/**
+ * Coalesces the file writes of transactions committed to the same persistent Context within a short window, enabled
+ * using {@link net.robinfriedli.jxp.api.JxpBuilder#setGroupCommitWindow(long, TimeUnit)}. Committing a transaction
+ * only registers that the file needs to be written, the invocation then waits for a write that includes its changes
+ * after releasing the mutex of the Context, so that other transactions can commit in the meantime. The first waiting
+ * thread that finds no write in progress once the window has elapsed since the oldest unwritten commit writes the file
+ * on behalf of all transactions committed so far, using a single serialization of the document, or a single journal
+ * frame, and a single fsync, while the other threads wait for it to complete. Each invocation still only returns once
+ * its changes are durable.
+ * <p>
+ * Since the changes are committed to the document before they are written, a failed write cannot roll back the
+ * transaction. In this case the waiting invocations throw an exception while the changes remain in the document and are
+ * included in the next write.
+ * <p>
+ * The invocation only waits once the outermost invocation of the thread returns, since the mutex may be held by any
+ * enclosing invocation. Invocations must therefore not be run while holding the mutex of the Context by other means,
+ * e.g. by calling {@link Context#GLOBAL_CONTEXT_SYNC} directly, as the thread writing the group commit would wait for
+ * that mutex.
+ */
+public class GroupCommit {
+
+    private final String mutexKey;
+    private final long window;
+    private final Writer writer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition writeCompleted = lock.newCondition();
+    // sequence numbers of commits, the last requested, the last included in a started write and the last written
+    private long requested;
+    private long scheduled;
+    private long durable;
+    private long failed;
+    @Nullable
+    private CommitException failure;
+    private boolean writing;
+    // System.nanoTime() of the oldest commit that is not included in a started write
+    private long oldestPending;
+    private long writeCount;
+
+    /**
+     * @param mutexKey the mutex key of the Context, acquired when writing to prevent modifications of the document
+     * @param window   the time in nanoseconds to wait for further commits after the oldest unwritten commit
+     * @param writer   writes the current document or the pending journal records
+     */
+    public GroupCommit(String mutexKey, long window, Writer writer) {
+        this.mutexKey = mutexKey;
+        this.window = window;
+        this.writer = writer;
+    }
+
+    /**
+     * Register that a transaction committed changes that need to be written, called while holding the mutex of the
+     * Context.
+     *
+     * @return the sequence number to pass to {@link #await(long)}
+     */
+    public long request() {
+        lock.lock();
+        try {
+            if (requested == scheduled) {
+                oldestPending = System.nanoTime();
+            }
+            return ++requested;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the changes of the commit with the provided sequence number have been written, writing them if no
+     * other thread is. Must not be called while holding the mutex of the Context.
+     *
+     * @throws CommitException if writing the changes failed or the thread was interrupted
+     */
+    public void await(long sequence) throws CommitException {
+        lock.lock();
+        try {
+            while (durable < sequence) {
+                if (failed >= sequence) {
+                    throw new CommitException("Exception while writing group commit", failure);
+                }
+
+                if (writing) {
+                    writeCompleted.await();
+                    continue;
+                }
+
+                long remaining = oldestPending + window - System.nanoTime();
+                if (remaining > 0) {
+                    writeCompleted.awaitNanos(remaining);
+                    continue;
+                }
+
+                writing = true;
+                lock.unlock();
+                CommitException exception = null;
+                try {
+                    Context.GLOBAL_CONTEXT_SYNC.evaluate(mutexKey, () -> {
+                        schedule();
+                        writer.write();
+                        return null;
+                    });
+                } catch (Exception e) {
+                    if (e instanceof CommitException) {
+                        exception = (CommitException) e;
+                    } else if (e.getCause() instanceof CommitException) {
+                        exception = (CommitException) e.getCause();
+                    } else {
+                        exception = new CommitException("Exception while writing group commit", e);
+                    }
+                } finally {
+                    lock.lock();
+                    writing = false;
+                    writeCount++;
+                    if (exception == null) {
+                        durable = scheduled;
+                    } else {
+                        failed = scheduled;
+                        failure = exception;
+                    }
+                    writeCompleted.signalAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommitException("Interrupted while waiting for group commit", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the amount of commits registered so far
+     */
+    public long getCommitCount() {
+        lock.lock();
+        try {
+            return requested;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the amount of writes made so far, including failed writes
+     */
+    public long getWriteCount() {
+        lock.lock();
+        try {
+            return writeCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void schedule() {
+        lock.lock();
+        try {
+            scheduled = requested;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @FunctionalInterface
+    public interface Writer {
+
+        void write() throws CommitException;
+
+    }
+
+}
@@ -0,0 +1,756 @@
+package net.robinfriedli.jxp.persist;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+import net.robinfriedli.jxp.exceptions.CommitException;
+import net.robinfriedli.jxp.exceptions.PersistException;
+import org.w3c.dom.CharacterData;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+import org.w3c.dom.Text;
+import org.w3c.dom.events.EventListener;
+import org.w3c.dom.events.EventTarget;
+import org.w3c.dom.events.MutationEvent;
+
+/**
+ * Append-only write-ahead journal of a persistent Context, enabled using
+ * {@link net.robinfriedli.jxp.api.JxpBuilder#setJournalSettings(JournalSettings)}. Instead of rewriting the complete
+ * file on each commit, the changes committed to the DOM document are appended to a journal file next to the XML file
+ * as compact records, one checksummed frame per commit, and the complete file is only rewritten at checkpoints as
+ * defined by the {@link JournalSettings}. When the Context is created or reloaded the journal is replayed on the parsed
+ * document. A frame that was not completely written, e.g. because the process crashed, is discarded when replaying.
+ * <p>
+ * The changes are recorded by listening to the DOM mutation events of the document, so that the changes made when
+ * committing and when reverting a commit are recorded alike. Nodes are addressed relative to the document element by
+ * their position among the sibling nodes that are not text nodes, and text by its offset in the text between two such
+ * nodes, so that the records can be replayed on the parsed document even though writing and parsing the file merges
+ * adjacent text nodes. Changes outside of the document element are not recorded.
+ * <p>
+ * The journal belongs to the state of the file it was started for. The file contains a processing instruction with the
+ * target {@value #PROCESSING_INSTRUCTION_TARGET} holding a random token that is replaced on each checkpoint and stored
+ * in the header of the journal, a journal whose token does not match the file is discarded. If the file does not contain
+ * the processing instruction yet a checkpoint is made when the journal is opened. Commits made by a Context without a
+ * journal for the same file do not clear the journal, so the journal should be enabled for all Contexts of a file.
+ */
+public class Journal {
+
+    public static final String PROCESSING_INSTRUCTION_TARGET = "jxp-journal";
+
+    private static final String FILE_EXTENSION = ".journal";
+    // "JXPJ"
+    private static final int MAGIC = 0x4A58504A;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 16;
+    private static final String[] MUTATION_EVENT_TYPES = {"DOMNodeInserted", "DOMNodeRemoved", "DOMAttrModified", "DOMCharacterDataModified"};
+
+    // record types
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte SPLICE_TEXT = 3;
+    private static final byte SET_ATTRIBUTE = 4;
+    private static final byte REMOVE_ATTRIBUTE = 5;
+    private static final byte SET_DATA = 6;
+
+    // node types of inserted nodes
+    private static final byte ELEMENT_NODE = 1;
+    private static final byte TEXT_NODE = 2;
+    private static final byte CDATA_NODE = 3;
+    private static final byte COMMENT_NODE = 4;
+    private static final byte PROCESSING_INSTRUCTION_NODE = 5;
+
+    private final Context context;
+    private final JournalSettings settings;
+    private final File journalFile;
+    private final EventListener mutationListener = this::recordMutation;
+    // the records of changes committed since the last write
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream pendingOutput = new DataOutputStream(pending);
+    private int pendingRecords;
+    // the document the mutation listener is registered on
+    @Nullable
+    private Document document;
+    private long token;
+    private long size;
+    private long lastCheckpoint;
+    private boolean recording;
+
+    public Journal(Context context, JournalSettings settings) {
+        File file = context.getFile();
+        if (file == null) {
+            throw new IllegalArgumentException("Context " + context + " is not persistent");
+        }
+
+        this.context = context;
+        this.settings = settings;
+        journalFile = getJournalFile(file);
+    }
+
+    /**
+     * @return the journal file of the provided XML file
+     */
+    public static File getJournalFile(File xmlFile) {
+        return new File(xmlFile.getPath() + FILE_EXTENSION);
+    }
+
+    /**
+     * Replay the journal on the current document of the Context and start recording the changes made to it, called
+     * when the Context is created or reloaded.
+     *
+     * @return the amount of replayed commits
+     * @throws PersistException if the journal cannot be read or replayed
+     */
+    public synchronized int open() {
+        stopRecording();
+        Document document = context.getDocument();
+        Long documentToken = readToken(document);
+        int replayed = 0;
+        if (documentToken == null) {
+            checkpoint();
+        } else {
+            token = documentToken;
+            pending.reset();
+            pendingRecords = 0;
+            try {
+                replayed = replay(document);
+            } catch (IOException e) {
+                throw new PersistException("Exception while replaying journal " + journalFile, e);
+            }
+            lastCheckpoint = System.currentTimeMillis();
+        }
+
+        startRecording(document);
+        return replayed;
+    }
+
+    /**
+     * Append the changes committed since the last write as one frame and make a checkpoint if the journal reached the
+     * size or age defined by the {@link JournalSettings}. Failing to make the checkpoint is logged rather than thrown
+     * since the changes are already durable in the journal.
+     *
+     * @throws CommitException if appending to the journal fails, in which case the journal is left unchanged
+     */
+    public synchronized void write() throws CommitException {
+        if (pendingRecords == 0) {
+            return;
+        }
+
+        byte[] payload = pending.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+        frame.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        frame.flip();
+
+        try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.WRITE)) {
+            try {
+                channel.position(size);
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+                if (context.getBackend().getFsyncPolicy() != FsyncPolicy.NONE) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                channel.truncate(size);
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new CommitException("Exception while writing to journal " + journalFile, e);
+        }
+
+        size += frame.limit();
+        pending.reset();
+        pendingRecords = 0;
+
+        if (isCheckpointDue()) {
+            try {
+                checkpoint();
+            } catch (PersistException e) {
+                context.getBackend().getLogger().error("Exception while making checkpoint for " + journalFile, e);
+            }
+        }
+    }
+
+    /**
+     * Write the complete document to the file of the Context and start a new, empty journal.
+     *
+     * @throws PersistException if writing the file or the journal fails
+     */
+    public synchronized void checkpoint() {
+        Document document = context.getDocument();
+        long newToken = ThreadLocalRandom.current().nextLong();
+        boolean wasRecording = recording;
+        recording = false;
+        try {
+            writeToken(document, newToken);
+            StaticXmlParser.writeToFile(context);
+        } catch (CommitException e) {
+            writeToken(document, token);
+            throw new PersistException("Exception while making checkpoint for " + journalFile, e);
+        } finally {
+            recording = wasRecording;
+        }
+
+        // the file now contains all changes, a journal with the old token is discarded when replaying
+        token = newToken;
+        pending.reset();
+        pendingRecords = 0;
+        lastCheckpoint = System.currentTimeMillis();
+        reset();
+    }
+
+    /**
+     * @return the size of the journal file in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return true if the journal contains any commits that are not contained in the file yet
+     */
+    public synchronized boolean hasCommits() {
+        return size > HEADER_LENGTH;
+    }
+
+    public File getFile() {
+        return journalFile;
+    }
+
+    /**
+     * Stop recording changes and delete the journal file, called when the file of the Context is deleted.
+     */
+    public synchronized void delete() {
+        stopRecording();
+        if (journalFile.exists() && !journalFile.delete()) {
+            throw new PersistException("Journal " + journalFile + " could not be deleted");
+        }
+    }
+
+    private boolean isCheckpointDue() {
+        long interval = settings.getCheckpointInterval();
+        return size >= settings.getCheckpointSize()
+            || (interval > 0 && System.currentTimeMillis() - lastCheckpoint >= interval);
+    }
+
+    private void startRecording(Document document) {
+        if (!(document instanceof EventTarget)) {
+            throw new PersistException("The journal requires a DOM implementation that supports mutation events");
+        }
+
+        for (String type : MUTATION_EVENT_TYPES) {
+            ((EventTarget) document).addEventListener(type, mutationListener, false);
+        }
+        this.document = document;
+        recording = true;
+    }
+
+    private void stopRecording() {
+        if (document != null) {
+            for (String type : MUTATION_EVENT_TYPES) {
+                ((EventTarget) document).removeEventListener(type, mutationListener, false);
+            }
+            document = null;
+        }
+        recording = false;
+    }
+
+    private void reset() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putInt(VERSION).putLong(token);
+        header.flip();
+        try (FileChannel channel = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            if (context.getBackend().getFsyncPolicy() != FsyncPolicy.NONE) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new PersistException("Exception while resetting journal " + journalFile, e);
+        }
+        size = HEADER_LENGTH;
+    }
+
+    private int replay(Document document) throws IOException {
+        if (!journalFile.exists()) {
+            reset();
+            return 0;
+        }
+
+        int replayed = 0;
+        long position = HEADER_LENGTH;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            try {
+                if (input.readInt() != MAGIC || input.readInt() != VERSION || input.readLong() != token) {
+                    // the journal was started for a different state of the file
+                    reset();
+                    return 0;
+                }
+            } catch (EOFException e) {
+                reset();
+                return 0;
+            }
+
+            while (true) {
+                byte[] payload;
+                int checksum;
+                try {
+                    int length = input.readInt();
+                    checksum = input.readInt();
+                    if (length < 0 || length > journalFile.length() - position - 8) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    input.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                applyFrame(document, payload);
+                position += 8 + payload.length;
+                replayed++;
+            }
+        }
+
+        if (journalFile.length() > position) {
+            // discard the incomplete frame of a commit that was interrupted
+            try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+                file.setLength(position);
+            }
+        }
+        size = position;
+        return replayed;
+    }
+
+    @Nullable
+    private static Long readToken(Document document) {
+        ProcessingInstruction instruction = findProcessingInstruction(document);
+        if (instruction != null) {
+            try {
+                return Long.parseLong(instruction.getData().trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+
+        return null;
+    }
+
+    private static void writeToken(Document document, long token) {
+        ProcessingInstruction instruction = findProcessingInstruction(document);
+        if (instruction != null) {
+            instruction.setData(String.valueOf(token));
+        } else {
+            document.insertBefore(document.createProcessingInstruction(PROCESSING_INSTRUCTION_TARGET, String.valueOf(token)), document.getDocumentElement());
+        }
+    }
+
+    @Nullable
+    private static ProcessingInstruction findProcessingInstruction(Document document) {
+        for (Node node = document.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof ProcessingInstruction && PROCESSING_INSTRUCTION_TARGET.equals(((ProcessingInstruction) node).getTarget())) {
+                return (ProcessingInstruction) node;
+            }
+        }
+
+        return null;
+    }
+
+    // recording
+
+    private synchronized void recordMutation(org.w3c.dom.events.Event event) {
+        if (!recording || !(event instanceof MutationEvent)) {
+            return;
+        }
+
+        MutationEvent mutation = (MutationEvent) event;
+        Node target = (Node) event.getTarget();
+        try {
+            switch (event.getType()) {
+                case "DOMNodeInserted":
+                case "DOMNodeRemoved":
+                    Node parent = target.getParentNode();
+                    if (!isWithinDocumentElement(parent)) {
+                        return;
+                    }
+
+                    boolean insert = "DOMNodeInserted".equals(event.getType());
+                    if (isText(target)) {
+                        String text = ((Text) target).getData();
+                        if (insert) {
+                            recordSplice(parent, target, 0, text);
+                        } else {
+                            recordSplice(parent, target, text.length(), "");
+                        }
+                    } else if (insert) {
+                        pendingOutput.writeByte(INSERT);
+                        writePath(parent);
+                        pendingOutput.writeInt(countNonTextSiblingsBefore(target));
+                        pendingOutput.writeInt(countTextBefore(target));
+                        writeNode(target);
+                    } else {
+                        pendingOutput.writeByte(REMOVE);
+                        writePath(parent);
+                        pendingOutput.writeInt(countNonTextSiblingsBefore(target));
+                    }
+                    break;
+                case "DOMAttrModified":
+                    if (!isWithinDocumentElement(target)) {
+                        return;
+                    }
+
+                    if (mutation.getAttrChange() == MutationEvent.REMOVAL) {
+                        pendingOutput.writeByte(REMOVE_ATTRIBUTE);
+                        writePath(target);
+                        writeString(mutation.getAttrName());
+                    } else {
+                        pendingOutput.writeByte(SET_ATTRIBUTE);
+                        writePath(target);
+                        writeString(mutation.getAttrName());
+                        writeString(mutation.getNewValue());
+                    }
+                    break;
+                case "DOMCharacterDataModified":
+                    Node dataParent = target.getParentNode();
+                    if (!isWithinDocumentElement(dataParent)) {
+                        return;
+                    }
+
+                    if (isText(target)) {
+                        String previousValue = mutation.getPrevValue();
+                        recordSplice(dataParent, target, previousValue != null ? previousValue.length() : 0, mutation.getNewValue());
+                    } else {
+                        pendingOutput.writeByte(SET_DATA);
+                        writePath(dataParent);
+                        pendingOutput.writeInt(countNonTextSiblingsBefore(target));
+                        writeString(mutation.getNewValue());
+                    }
+                    break;
+                default:
+                    return;
+            }
+        } catch (IOException e) {
+            // writing to a ByteArrayOutputStream does not fail
+            throw new IllegalStateException(e);
+        }
+
+        pendingRecords++;
+    }
+
+    private void recordSplice(Node parent, Node textNode, int removedLength, String insertedText) throws IOException {
+        pendingOutput.writeByte(SPLICE_TEXT);
+        writePath(parent);
+        pendingOutput.writeInt(countNonTextSiblingsBefore(textNode));
+        pendingOutput.writeInt(countTextBefore(textNode));
+        pendingOutput.writeInt(removedLength);
+        writeString(insertedText);
+    }
+
+    private boolean isWithinDocumentElement(@Nullable Node node) {
+        Element documentElement = context.getDocument().getDocumentElement();
+        for (Node current = node; current != null; current = current.getParentNode()) {
+            if (current == documentElement) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void writePath(Node node) throws IOException {
+        Element documentElement = context.getDocument().getDocumentElement();
+        int depth = 0;
+        for (Node current = node; current != documentElement; current = current.getParentNode()) {
+            depth++;
+        }
+
+        int[] path = new int[depth];
+        Node current = node;
+        for (int i = depth - 1; i >= 0; i--) {
+            path[i] = countNonTextSiblingsBefore(current);
+            current = current.getParentNode();
+        }
+
+        pendingOutput.writeInt(depth);
+        for (int index : path) {
+            pendingOutput.writeInt(index);
+        }
+    }
+
+    private void writeNode(Node node) throws IOException {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                pendingOutput.writeByte(ELEMENT_NODE);
+                writeString(node.getNodeName());
+                NamedNodeMap attributes = node.getAttributes();
+                pendingOutput.writeInt(attributes.getLength());
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    Node attribute = attributes.item(i);
+                    writeString(attribute.getNodeName());
+                    writeString(attribute.getNodeValue());
+                }
+                int childCount = 0;
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    if (isSupported(child)) {
+                        childCount++;
+                    }
+                }
+                pendingOutput.writeInt(childCount);
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    if (isSupported(child)) {
+                        writeNode(child);
+                    }
+                }
+                break;
+            case Node.TEXT_NODE:
+                pendingOutput.writeByte(TEXT_NODE);
+                writeString(node.getNodeValue());
+                break;
+            case Node.CDATA_SECTION_NODE:
+                pendingOutput.writeByte(CDATA_NODE);
+                writeString(node.getNodeValue());
+                break;
+            case Node.COMMENT_NODE:
+                pendingOutput.writeByte(COMMENT_NODE);
+                writeString(node.getNodeValue());
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                pendingOutput.writeByte(PROCESSING_INSTRUCTION_NODE);
+                writeString(((ProcessingInstruction) node).getTarget());
+                writeString(((ProcessingInstruction) node).getData());
+                break;
+            default:
+                throw new PersistException("Cannot record node of type " + node.getNodeType() + " in journal");
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        pendingOutput.writeInt(bytes.length);
+        pendingOutput.write(bytes);
+    }
+
+    // replaying
+
+    private static void applyFrame(Document document, byte[] payload) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        while (input.available() > 0) {
+            byte type = input.readByte();
+            switch (type) {
+                case INSERT: {
+                    Node parent = locate(document, input);
+                    int index = input.readInt();
+                    int offset = input.readInt();
+                    Node node = readNode(document, input);
+                    parent.insertBefore(node, splitAt(parent, index, offset));
+                    break;
+                }
+                case REMOVE: {
+                    Node parent = locate(document, input);
+                    parent.removeChild(getNonTextChild(parent, input.readInt()));
+                    break;
+                }
+                case SPLICE_TEXT: {
+                    Node parent = locate(document, input);
+                    spliceText(document, parent, input.readInt(), input.readInt(), input.readInt(), readString(input));
+                    break;
+                }
+                case SET_ATTRIBUTE: {
+                    Element element = (Element) locate(document, input);
+                    element.setAttribute(readString(input), readString(input));
+                    break;
+                }
+                case REMOVE_ATTRIBUTE: {
+                    Element element = (Element) locate(document, input);
+                    element.removeAttribute(readString(input));
+                    break;
+                }
+                case SET_DATA: {
+                    Node parent = locate(document, input);
+                    Node node = getNonTextChild(parent, input.readInt());
+                    if (node instanceof ProcessingInstruction) {
+                        ((ProcessingInstruction) node).setData(readString(input));
+                    } else if (node instanceof CharacterData) {
+                        ((CharacterData) node).setData(readString(input));
+                    } else {
+                        throw new PersistException("Journal does not match document: expected character data but found " + node);
+                    }
+                    break;
+                }
+                default:
+                    throw new PersistException("Unknown journal record type " + type);
+            }
+        }
+    }
+
+    private static Node locate(Document document, DataInputStream input) throws IOException {
+        int depth = input.readInt();
+        Node node = document.getDocumentElement();
+        for (int i = 0; i < depth; i++) {
+            node = getNonTextChild(node, input.readInt());
+        }
+
+        return node;
+    }
+
+    private static Node getNonTextChild(Node parent, int index) {
+        int count = 0;
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (!isText(child) && count++ == index) {
+                return child;
+            }
+        }
+
+        throw new PersistException("Journal does not match document: " + parent + " does not have a child at position " + index);
+    }
+
+    /**
+     * @return the first text node of the text following the non-text child at the provided index - 1, or the non-text
+     * child at the provided index or null if there are no further children
+     */
+    @Nullable
+    private static Node getTextStart(Node parent, int nonTextIndex) {
+        return nonTextIndex == 0 ? parent.getFirstChild() : getNonTextChild(parent, nonTextIndex - 1).getNextSibling();
+    }
+
+    /**
+     * @return the node before which to insert a node at the provided offset of the text following the non-text child
+     * at the provided index - 1, splitting the text node at the offset if necessary
+     */
+    @Nullable
+    private static Node splitAt(Node parent, int nonTextIndex, int offset) {
+        Node node = getTextStart(parent, nonTextIndex);
+        while (offset > 0) {
+            if (node == null || !isText(node)) {
+                throw new PersistException("Journal does not match document: text of " + parent + " is shorter than " + offset);
+            }
+
+            int length = ((Text) node).getLength();
+            if (offset < length) {
+                return ((Text) node).splitText(offset);
+            }
+            offset -= length;
+            node = node.getNextSibling();
+        }
+
+        return node;
+    }
+
+    private static void spliceText(Document document, Node parent, int nonTextIndex, int offset, int removedLength, String insertedText) {
+        StringBuilder text = new StringBuilder();
+        Node node = getTextStart(parent, nonTextIndex);
+        while (node != null && isText(node)) {
+            Node next = node.getNextSibling();
+            text.append(((Text) node).getData());
+            parent.removeChild(node);
+            node = next;
+        }
+
+        if (offset + removedLength > text.length()) {
+            throw new PersistException("Journal does not match document: text of " + parent + " is shorter than " + (offset + removedLength));
+        }
+
+        text.replace(offset, offset + removedLength, insertedText);
+        if (text.length() > 0) {
+            parent.insertBefore(document.createTextNode(text.toString()), node);
+        }
+    }
+
+    private static Node readNode(Document document, DataInputStream input) throws IOException {
+        byte type = input.readByte();
+        switch (type) {
+            case ELEMENT_NODE:
+                Element element = document.createElement(readString(input));
+                int attributeCount = input.readInt();
+                for (int i = 0; i < attributeCount; i++) {
+                    element.setAttribute(readString(input), readString(input));
+                }
+                int childCount = input.readInt();
+                for (int i = 0; i < childCount; i++) {
+                    element.appendChild(readNode(document, input));
+                }
+                return element;
+            case TEXT_NODE:
+                return document.createTextNode(readString(input));
+            case CDATA_NODE:
+                return document.createCDATASection(readString(input));
+            case COMMENT_NODE:
+                return document.createComment(readString(input));
+            case PROCESSING_INSTRUCTION_NODE:
+                return document.createProcessingInstruction(readString(input), readString(input));
+            default:
+                throw new PersistException("Unknown journal node type " + type);
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // positions
+
+    private static boolean isText(Node node) {
+        return node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE;
+    }
+
+    private static boolean isSupported(Node node) {
+        short nodeType = node.getNodeType();
+        return nodeType == Node.ELEMENT_NODE
+            || nodeType == Node.TEXT_NODE
+            || nodeType == Node.CDATA_SECTION_NODE
+            || nodeType == Node.COMMENT_NODE
+            || nodeType == Node.PROCESSING_INSTRUCTION_NODE;
+    }
+
+    private static int countNonTextSiblingsBefore(Node node) {
+        int count = 0;
+        for (Node sibling = node.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling()) {
+            if (!isText(sibling)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the length of the text between the preceding non-text sibling and the provided node
+     */
+    private static int countTextBefore(Node node) {
+        int length = 0;
+        for (Node sibling = node.getPreviousSibling(); sibling != null && isText(sibling); sibling = sibling.getPreviousSibling()) {
+            length += ((Text) sibling).getLength();
+        }
+
+        return length;
+    }
+
+}
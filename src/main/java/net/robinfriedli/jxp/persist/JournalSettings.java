@@ -0,0 +1,46 @@
+package net.robinfriedli.jxp.persist;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enables the {@link Journal} for persistent Contexts, see
+ * {@link net.robinfriedli.jxp.api.JxpBuilder#setJournalSettings(JournalSettings)}, and defines when the journal is
+ * checkpointed, meaning the complete document is written to the file and the journal is cleared. A checkpoint is made
+ * after a commit if the journal reached the checkpoint size or if the checkpoint interval elapsed since the last
+ * checkpoint.
+ */
+public class JournalSettings {
+
+    private final long checkpointSize;
+    private final long checkpointInterval;
+
+    /**
+     * @param checkpointSize     the size of the journal in bytes that triggers a checkpoint
+     * @param checkpointInterval the time after which the next commit triggers a checkpoint, 0 to only checkpoint based
+     *                           on the size of the journal
+     * @param unit               the unit of the checkpoint interval
+     */
+    public JournalSettings(long checkpointSize, long checkpointInterval, TimeUnit unit) {
+        if (checkpointSize <= 0) {
+            throw new IllegalArgumentException("Checkpoint size must be positive");
+        }
+        if (checkpointInterval < 0) {
+            throw new IllegalArgumentException("Checkpoint interval must not be negative");
+        }
+
+        this.checkpointSize = checkpointSize;
+        this.checkpointInterval = unit.toMillis(checkpointInterval);
+    }
+
+    public long getCheckpointSize() {
+        return checkpointSize;
+    }
+
+    /**
+     * @return the checkpoint interval in milliseconds, 0 if checkpoints are only triggered by the size of the journal
+     */
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+}
@@ -3,6 +3,9 @@ package net.robinfriedli.jxp.persist;
 import java.io.File;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 
@@ -11,6 +14,9 @@ import net.robinfriedli.jxp.api.JxpBackend;
 import net.robinfriedli.jxp.api.StaticXmlElementFactory;
 import net.robinfriedli.jxp.api.UninitializedParent;
 import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.collections.NodeList;
+import net.robinfriedli.jxp.collections.UninitializedNodeList;
+import net.robinfriedli.jxp.queries.XPathPreFilter;
 import net.robinfriedli.jxp.queries.xpath.XQueryBuilder;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -22,7 +28,9 @@ import org.w3c.dom.Node;
  * instances being instantiated. {@link Context#xPathQuery(String)} can be used in combination with this context type
  * to only instantiate XmlElements based on the query result (see {@link XQueryBuilder} to build XPath queries).
  * In combination with {@link Context#invokeSequential(int, Runnable)} this context allows for low memory usage when
- * executing massive transactions.
+ * executing massive transactions. As long as the elements have not been instantiated via {@link #getElements()},
+ * queries executed via {@link Context#query(Predicate)} outside of a transaction that has changes only instantiate the
+ * elements selected by the XPath query translated by {@link XPathPreFilter}.
  */
 public class LazyContext extends AbstractContext {
 
@@ -65,6 +73,25 @@ public class LazyContext extends AbstractContext {
         return elementInstances;
     }
 
+    @Nullable
+    @Override
+    protected List<XmlElement> findCandidates(Predicate<XmlElement> condition) {
+        // the DOM document does not reflect the changes of uncommitted transactions
+        Transaction transaction = getTransaction();
+        if ((transaction != null && !transaction.isEmpty()) || hasUncommittedTransactions()) {
+            return null;
+        }
+
+        // once the elements have been instantiated those instances have to be used to avoid duplicates
+        NodeList childNodes = documentElement.internal().getInternalChildNodeList();
+        if (!(childNodes instanceof UninitializedNodeList) || ((UninitializedNodeList) childNodes).isInitialized()) {
+            return null;
+        }
+
+        String xPath = XPathPreFilter.toXPath(condition);
+        return xPath != null ? xPathQuery(xPath) : null;
+    }
+
     @Override
     protected Context instantiate(JxpBackend jxpBackend, Document document, Logger logger) {
         return new LazyContext(jxpBackend, document, logger);
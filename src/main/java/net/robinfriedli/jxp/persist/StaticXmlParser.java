@@ -1,49 +1,138 @@
 package net.robinfriedli.jxp.persist;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import net.robinfriedli.jxp.api.StaticXmlElementFactory;
+import net.robinfriedli.jxp.api.TextNode;
+import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.collections.NodeList;
 import net.robinfriedli.jxp.exceptions.CommitException;
 import net.robinfriedli.jxp.exceptions.PersistException;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
 import org.xml.sax.SAXException;
 
 public class StaticXmlParser {
 
+    private static final String REPORT_CDATA_PROPERTY = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+    // looking up the implementation is the expensive part of creating a factory, the factories are not modified after
+    // being configured here
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+    // directories whose file system does not support atomic moves, which are only logged once
+    private static final Set<Path> NON_ATOMIC_DIRECTORIES = ConcurrentHashMap.newKeySet();
+
+    static {
+        // the JDK implementation reports CDATA sections as characters unless this property is set
+        if (XML_INPUT_FACTORY.isPropertySupported(REPORT_CDATA_PROPERTY)) {
+            XML_INPUT_FACTORY.setProperty(REPORT_CDATA_PROPERTY, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Write the document of the provided Context to its file. The document is written to a temporary file in the same
+     * directory that then atomically replaces the file of the Context, so that the file is never left truncated if
+     * writing fails midway and other readers of the file keep reading the previous version until the new version is
+     * complete. Whether the data is forced to the storage device depends on the {@link FsyncPolicy} of the JxpBackend.
+     * <p>
+     * If the file system does not support atomic moves the temporary file replaces the file using a regular move and a
+     * warning is logged. Readers may then briefly find the file missing and a crash during the move may lose the file,
+     * so atomicity is not guaranteed on such file systems.
+     *
+     * @param context the persistent Context to write
+     * @throws CommitException if the Context is not persistent or writing fails, in which case the file is unchanged
+     */
     public static void writeToFile(Context context) throws CommitException {
         if (!context.isPersistent()) {
             throw new CommitException("Context is not persistent. Cannot write to file");
         }
 
-        Document doc = context.getDocument();
+        @SuppressWarnings("ConstantConditions")
+        Path target = context.getFile().toPath().toAbsolutePath();
+        FsyncPolicy fsyncPolicy = context.getBackend().getFsyncPolicy();
+        Path directory = target.getParent();
+        Path temp = null;
         try {
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
-            DOMSource source = new DOMSource(doc);
-            @SuppressWarnings("ConstantConditions")
-            StreamResult result = new StreamResult(context.getFile());
-
-            transformer.transform(source, result);
-        } catch (TransformerException e) {
+            temp = Files.createTempFile(directory, "." + target.getFileName(), ".tmp");
+            copyPermissions(target, temp);
+
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                OutputStream outputStream = new BufferedOutputStream(Channels.newOutputStream(channel));
+                Transformer transformer = TransformerFactory.newInstance().newTransformer();
+                transformer.transform(new DOMSource(context.getDocument()), new StreamResult(outputStream));
+                outputStream.flush();
+
+                if (fsyncPolicy != FsyncPolicy.NONE) {
+                    channel.force(true);
+                }
+            }
+
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                if (NON_ATOMIC_DIRECTORIES.add(directory)) {
+                    context.getBackend().getLogger().warn("The file system of " + directory + " does not support atomic "
+                        + "moves, files in this directory are replaced non-atomically and may be lost if the process crashes "
+                        + "while writing");
+                }
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+
+            if (fsyncPolicy == FsyncPolicy.FILE_AND_DIRECTORY) {
+                forceDirectory(directory);
+            }
+        } catch (IOException | TransformerException e) {
             throw new CommitException("Exception while writing to file", e);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
         }
     }
 
     public static Document parseDocument(File xml) {
         try {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            return dBuilder.parse(xml);
+            return newDocumentBuilder().parse(xml);
         } catch (IOException | SAXException | ParserConfigurationException e) {
             throw new PersistException("Exception while parsing document", e);
         }
@@ -52,12 +141,199 @@ public class StaticXmlParser {
 
     public static Document parseDocument(InputStream xml) {
         try {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            return dBuilder.parse(xml);
+            return newDocumentBuilder().parse(xml);
         } catch (IOException | SAXException | ParserConfigurationException e) {
             throw new PersistException("Exception while parsing document", e);
         }
     }
 
+    /**
+     * @return a new empty document, e.g. to be populated by {@link #streamDocument(File, Context)}
+     */
+    public static Document newDocument() {
+        try {
+            return newDocumentBuilder().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new PersistException("Exception while creating document", e);
+        }
+    }
+
+    /**
+     * Read the provided file using a StAX {@link XMLStreamReader} and populate the empty document of the provided
+     * Context while instantiating the XmlElement for each DOM element as soon as its end tag is read. Unlike
+     * {@link #parseDocument(File)} followed by {@link StaticXmlElementFactory#instantiateDocumentElement(Context)}
+     * this reads the document in a single pass without walking the DOM tree again, which is considerably faster for
+     * large files and does not keep the parser's intermediate structures alongside the element tree.
+     * <p>
+     * The resulting DOM tree contains the same elements, attributes, text, CDATA sections, comments and processing
+     * instructions as the tree built by {@link #parseDocument(File)}, however the document type declaration is not
+     * retained and namespaces are represented as plain attributes, like with the default non-namespace-aware
+     * DocumentBuilder.
+     *
+     * @param xml     the file to read
+     * @param context the Context whose document to populate, which must not have a document element yet
+     * @return the instantiated document element
+     */
+    public static XmlElement streamDocument(File xml, Context context) {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(xml))) {
+            return streamDocument(inputStream, context);
+        } catch (IOException e) {
+            throw new PersistException("Exception while parsing document", e);
+        }
+    }
+
+    /**
+     * Read the provided InputStream, see {@link #streamDocument(File, Context)}. The stream is not closed.
+     */
+    public static XmlElement streamDocument(InputStream xml, Context context) {
+        if (context.getDocument().getDocumentElement() != null) {
+            throw new IllegalStateException("The document of " + context + " is not empty");
+        }
+
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(xml);
+            return readDocument(reader, context);
+        } catch (XMLStreamException e) {
+            throw new PersistException("Exception while parsing document", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                }
+            }
+        }
+    }
+
+    private static void copyPermissions(Path source, Path target) throws IOException {
+        // temporary files are only readable by the owner, keep the permissions of the file that is being replaced
+        if (Files.exists(source) && Files.getFileAttributeView(source, PosixFileAttributeView.class) != null) {
+            Files.setPosixFilePermissions(target, Files.getPosixFilePermissions(source));
+        }
+    }
+
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            // directories cannot be opened or forced on some platforms, e.g. Windows
+        }
+    }
+
+    private static DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+        synchronized (DOCUMENT_BUILDER_FACTORY) {
+            return DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+        }
+    }
+
+    private static XmlElement readDocument(XMLStreamReader reader, Context context) throws XMLStreamException {
+        Document document = context.getDocument();
+        // the elements whose end tag has not been read yet
+        Deque<OpenElement> openElements = new ArrayDeque<>();
+        // consecutive character events are merged into one text node while each CDATA section becomes its own node,
+        // like the DocumentBuilder does
+        StringBuilder text = new StringBuilder();
+        boolean cdata = false;
+        XmlElement documentElement = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE || event == XMLStreamConstants.CDATA) {
+                // text outside of the document element is not part of the DOM tree
+                if (!openElements.isEmpty()) {
+                    boolean isCdata = event == XMLStreamConstants.CDATA;
+                    if (isCdata || cdata) {
+                        appendText(text, cdata, openElements.peek(), context);
+                        cdata = isCdata;
+                    }
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+                continue;
+            }
+
+            appendText(text, cdata, openElements.peek(), context);
+            Node parent = openElements.isEmpty() ? document : openElements.peek().element;
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    Element element = document.createElement(getQualifiedName(reader.getPrefix(), reader.getLocalName()));
+                    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                        String prefix = reader.getNamespacePrefix(i);
+                        element.setAttribute(Strings.isNullOrEmpty(prefix) ? "xmlns" : "xmlns:" + prefix, reader.getNamespaceURI(i));
+                    }
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        String name = getQualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i));
+                        element.setAttribute(name, reader.getAttributeValue(i));
+                    }
+                    parent.appendChild(element);
+                    openElements.push(new OpenElement(element));
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    OpenElement closed = openElements.pop();
+                    XmlElement xmlElement = StaticXmlElementFactory.instantiatePersistentXmlElement(closed.element, closed.linkChildNodes(), context);
+                    if (openElements.isEmpty()) {
+                        documentElement = xmlElement;
+                    } else {
+                        openElements.peek().childNodes.add(xmlElement);
+                    }
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    parent.appendChild(document.createComment(reader.getText()));
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    parent.appendChild(document.createProcessingInstruction(reader.getPITarget(), Strings.nullToEmpty(reader.getPIData())));
+                    break;
+                default:
+                    // the document type declaration and unresolved entity references are not retained
+                    break;
+            }
+        }
+
+        if (documentElement == null) {
+            throw new PersistException("Document does not have a document element");
+        }
+
+        return documentElement;
+    }
+
+    private static void appendText(StringBuilder text, boolean cdata, OpenElement parent, Context context) {
+        if (text.length() == 0) {
+            return;
+        }
+
+        Document document = context.getDocument();
+        Text textNode = cdata ? document.createCDATASection(text.toString()) : document.createTextNode(text.toString());
+        parent.element.appendChild(textNode);
+        parent.childNodes.add(new TextNode(context, textNode));
+        text.setLength(0);
+    }
+
+    private static String getQualifiedName(String prefix, String localName) {
+        return Strings.isNullOrEmpty(prefix) ? localName : prefix + ":" + localName;
+    }
+
+    private static class OpenElement {
+
+        private final Element element;
+        private final List<net.robinfriedli.jxp.api.Node<?>> childNodes = Lists.newArrayList();
+
+        private OpenElement(Element element) {
+            this.element = element;
+        }
+
+        private NodeList linkChildNodes() {
+            net.robinfriedli.jxp.api.Node<?> prev = null;
+            for (net.robinfriedli.jxp.api.Node<?> node : childNodes) {
+                node.internal().setPreviousSibling(prev);
+                if (prev != null) {
+                    prev.internal().setNextSibling(node);
+                }
+                prev = node;
+            }
+
+            return NodeList.ofLinked(childNodes);
+        }
+
+    }
+
 }
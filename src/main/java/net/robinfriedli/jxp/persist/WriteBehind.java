@@ -0,0 +1,257 @@
+package net.robinfriedli.jxp.persist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+
+import net.robinfriedli.jxp.exceptions.CommitException;
+import net.robinfriedli.jxp.exceptions.PersistException;
+
+/**
+ * Writes the changes committed to a persistent Context in the background, enabled using
+ * {@link net.robinfriedli.jxp.api.JxpBuilder#setWriteBehindInterval(long, TimeUnit)}. Committing a transaction still
+ * applies its changes to the document synchronously but only schedules the file write, which is made by a background
+ * thread once the interval has elapsed since the oldest unwritten commit, so that all transactions committed within the
+ * interval share one write. The future returned by {@link #getPendingWrite()} completes once the changes committed so
+ * far are durable, or completes exceptionally if the write fails. In this case the changes remain pending and the write
+ * is retried once the interval has elapsed again, until then {@link #getPendingWrite()} keeps returning the failed
+ * future unless further changes are committed.
+ * <p>
+ * Pending writes are flushed by {@link Context#close()}, {@link Context#checkpoint()} and by a shutdown hook of the JVM.
+ * Closing or reloading the Context fails if the changes still cannot be written. Changes that are not flushed when the
+ * JVM terminates abruptly are lost.
+ */
+public class WriteBehind {
+
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jxp-write-behind");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // instances with pending writes are referenced by their scheduled task, so only idle instances are collected
+    private static final Set<WriteBehind> INSTANCES = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(WriteBehind::flushAll, "jxp-write-behind-shutdown"));
+    }
+
+    private final String mutexKey;
+    private final long interval;
+    private final GroupCommit.Writer writer;
+    private final Logger logger;
+    // completed once the commits that are not included in a started write are written
+    @Nullable
+    private CompletableFuture<Void> pending;
+    @Nullable
+    private ScheduledFuture<?> scheduled;
+    // completed once the write currently in progress is done
+    @Nullable
+    private CompletableFuture<Void> inProgress;
+    // the future of the last write if it failed and has not been retried successfully yet
+    @Nullable
+    private CompletableFuture<Void> failedWrite;
+    @Nullable
+    private CommitException failure;
+    // true if changes of a failed write have not been included in a started write yet
+    private boolean unwritten;
+
+    /**
+     * @param mutexKey the mutex key of the Context, acquired when writing to prevent modifications of the document
+     * @param interval the time in nanoseconds between the oldest unwritten commit and the write
+     * @param writer   writes the current document or the pending journal records
+     * @param logger   the logger to log failed writes with
+     */
+    public WriteBehind(String mutexKey, long interval, GroupCommit.Writer writer, Logger logger) {
+        this.mutexKey = mutexKey;
+        this.interval = interval;
+        this.writer = writer;
+        this.logger = logger;
+        INSTANCES.add(this);
+    }
+
+    /**
+     * Flush the pending writes of all instances, called by the shutdown hook.
+     */
+    public static void flushAll() {
+        List<WriteBehind> instances;
+        synchronized (INSTANCES) {
+            instances = new ArrayList<>(INSTANCES);
+        }
+
+        for (WriteBehind instance : instances) {
+            instance.flush();
+        }
+    }
+
+    /**
+     * Register that a transaction committed changes that need to be written and schedule the write if none is
+     * scheduled yet, called while holding the mutex of the Context.
+     *
+     * @return the future completed once the changes are written
+     */
+    public synchronized CompletableFuture<Void> request() {
+        if (pending == null) {
+            pending = new CompletableFuture<>();
+            schedule();
+        }
+        return pending;
+    }
+
+    /**
+     * @return a future that completes once all changes committed so far are written, the failed future of the last
+     * write if its changes have not been written since or an already completed future if there are no pending changes
+     */
+    public synchronized CompletableFuture<Void> getPendingWrite() {
+        if (pending != null) {
+            return pending;
+        } else if (inProgress != null) {
+            return inProgress;
+        } else if (failedWrite != null) {
+            return failedWrite;
+        }
+
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Write the pending changes in the current thread, unless there are none. Failing to write is logged and reported
+     * to the future returned by {@link #getPendingWrite()}.
+     */
+    public void flush() {
+        CompletableFuture<Void> future;
+        CommitException exception = null;
+        try {
+            future = Context.GLOBAL_CONTEXT_SYNC.evaluate(mutexKey, this::write);
+        } catch (Exception e) {
+            // the mutex sync wraps checked exceptions
+            if (e instanceof CommitException) {
+                exception = (CommitException) e;
+            } else if (e.getCause() instanceof CommitException) {
+                exception = (CommitException) e.getCause();
+            } else {
+                exception = new CommitException("Exception while writing behind", e);
+            }
+
+            synchronized (this) {
+                future = inProgress;
+                inProgress = null;
+                if (future != null) {
+                    // keep the changes pending and retry, merging them with changes committed in the meantime
+                    unwritten = true;
+                    failedWrite = future;
+                    failure = exception;
+                    schedule();
+                }
+            }
+        }
+
+        if (future == null) {
+            return;
+        }
+
+        if (exception == null) {
+            future.complete(null);
+        } else {
+            logger.error("Exception while writing committed changes to file " + mutexKey, exception);
+            future.completeExceptionally(exception);
+        }
+    }
+
+    /**
+     * Flush the pending changes, failing if they cannot be written, called before the Context reloads its document.
+     *
+     * @throws PersistException if the changes committed so far could not be written
+     */
+    public void sync() {
+        flush();
+        CommitException exception;
+        synchronized (this) {
+            exception = failedWrite != null && pending == null ? failure : null;
+        }
+
+        if (exception != null) {
+            throw new PersistException("Could not write committed changes to file " + mutexKey, exception);
+        }
+    }
+
+    /**
+     * Flush the pending changes and stop tracking this instance in the shutdown hook, called when the Context is
+     * closed. If the changes cannot be written the instance remains tracked and keeps retrying the write.
+     *
+     * @throws PersistException if the changes committed so far could not be written
+     */
+    public void close() {
+        sync();
+        INSTANCES.remove(this);
+    }
+
+    /**
+     * Discard the pending changes, cancelling the future returned by {@link #getPendingWrite()}, called when the file
+     * of the Context is deleted.
+     */
+    public void cancel() {
+        CompletableFuture<Void> future;
+        synchronized (this) {
+            future = pending;
+            pending = null;
+            unwritten = false;
+            failedWrite = null;
+            failure = null;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+        }
+
+        if (future != null) {
+            future.cancel(false);
+        }
+        INSTANCES.remove(this);
+    }
+
+    @Nullable
+    private CompletableFuture<Void> write() throws CommitException {
+        CompletableFuture<Void> future;
+        synchronized (this) {
+            if (pending == null && !unwritten) {
+                return null;
+            }
+
+            future = pending != null ? pending : new CompletableFuture<>();
+            pending = null;
+            unwritten = false;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+            inProgress = future;
+        }
+
+        writer.write();
+        synchronized (this) {
+            inProgress = null;
+            failedWrite = null;
+            failure = null;
+        }
+        return future;
+    }
+
+    // called while holding the monitor of this instance
+    private void schedule() {
+        if (scheduled == null) {
+            scheduled = WRITER.schedule(this::flush, interval, TimeUnit.NANOSECONDS);
+        }
+    }
+
+}
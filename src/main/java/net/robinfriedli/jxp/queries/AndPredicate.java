@@ -0,0 +1,34 @@
+package net.robinfriedli.jxp.queries;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import net.robinfriedli.jxp.api.XmlElement;
+
+/**
+ * Predicate created by {@link Conditions#and(Predicate[])} that matches if all operands match, checking the operands
+ * in order.
+ */
+public class AndPredicate extends CompositePredicate {
+
+    AndPredicate(List<Predicate<XmlElement>> operands) {
+        super(operands);
+    }
+
+    @Override
+    String getName() {
+        return "and";
+    }
+
+    @Override
+    public boolean test(XmlElement element) {
+        for (Predicate<XmlElement> operand : getOperands()) {
+            if (!operand.test(element)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+}
@@ -0,0 +1,272 @@
+package net.robinfriedli.jxp.queries;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableSet;
+import net.robinfriedli.jxp.api.XmlAttribute;
+import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.collections.AttributeIndex;
+import net.robinfriedli.jxp.collections.FullTextIndex;
+import net.robinfriedli.jxp.exceptions.ConversionException;
+
+/**
+ * Predicate created by {@link ValueComparator} that compares an attribute value or the text content of an element.
+ * Unlike a plain lambda this predicate exposes what it compares, which enables the {@link QueryPlanner} to answer it
+ * using an {@link AttributeIndex} or {@link FullTextIndex} instead of checking each element.
+ * <p>
+ * Two predicates are equal if they compare the same source using the same operator and values, which is used by the
+ * {@link QueryCache} to recognize repeated queries. Predicates using {@link Operator#MATCHES} check an arbitrary
+ * function and are only equal if they use the same function instance.
+ */
+public class ComparisonPredicate implements Predicate<XmlElement> {
+
+    private final ValueComparator.Source source;
+    @Nullable
+    private final String attributeName;
+    private final Operator operator;
+    private final List<Object> values;
+    @Nullable
+    private final Class<?> valueType;
+    private final Function<String, Boolean> matchFunc;
+    // checks the value converted to the value type, which XmlAttribute caches, used instead of the matchFunc for attributes
+    @Nullable
+    private final Function<Object, Boolean> convertedMatchFunc;
+
+    ComparisonPredicate(ValueComparator.Source source,
+                        @Nullable String attributeName,
+                        Operator operator,
+                        List<Object> values,
+                        @Nullable Class<?> valueType,
+                        Function<String, Boolean> matchFunc) {
+        this(source, attributeName, operator, values, valueType, matchFunc, null);
+    }
+
+    ComparisonPredicate(ValueComparator.Source source,
+                        @Nullable String attributeName,
+                        Operator operator,
+                        List<Object> values,
+                        @Nullable Class<?> valueType,
+                        Function<String, Boolean> matchFunc,
+                        @Nullable Function<Object, Boolean> convertedMatchFunc) {
+        this.source = source;
+        this.attributeName = attributeName;
+        this.operator = operator;
+        this.values = values;
+        this.valueType = valueType;
+        this.matchFunc = matchFunc;
+        this.convertedMatchFunc = convertedMatchFunc;
+    }
+
+    @Override
+    public boolean test(XmlElement element) {
+        switch (source) {
+            case ATTRIBUTE:
+                if (!element.hasAttribute(attributeName)) {
+                    return false;
+                }
+
+                XmlAttribute attribute = element.getAttribute(attributeName);
+                return convertedMatchFunc != null ? getConvertedMatch(attribute) : getMatch(attribute.getValue());
+            case TEXT_CONTENT:
+                return getMatch(element.getTextContent());
+        }
+
+        throw new IllegalStateException("Illegal source " + source);
+    }
+
+    public ValueComparator.Source getSource() {
+        return source;
+    }
+
+    /**
+     * @return the name of the compared attribute or null if the source is the text content
+     */
+    @Nullable
+    public String getAttributeName() {
+        return attributeName;
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * @return the values the element value is compared with, empty for {@link Operator#IS_EMPTY} and
+     * {@link Operator#MATCHES}
+     */
+    public List<Object> getValues() {
+        return values;
+    }
+
+    /**
+     * @return the class the element value is converted to before comparing or null if the operator does not compare
+     * with a value or the value is null
+     */
+    @Nullable
+    public Class<?> getValueType() {
+        return valueType;
+    }
+
+    /**
+     * Find all elements matching this predicate using the provided index, the result may contain elements that do not
+     * match this predicate, but does not miss any indexed element that does.
+     *
+     * @return the found elements or null if the index cannot be used to evaluate this predicate
+     */
+    @Nullable
+    List<XmlElement> lookup(AttributeIndex<?> index) {
+        if (source != ValueComparator.Source.ATTRIBUTE
+            || !index.getAttributeName().equals(attributeName)
+            || index.getType() != valueType) {
+            return null;
+        }
+
+        return doLookup(index);
+    }
+
+    /**
+     * Find all elements matching this predicate using the provided full text index, see {@link #lookup(AttributeIndex)}.
+     *
+     * @return the found elements or null if the index cannot be used to evaluate this predicate
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    List<XmlElement> lookup(FullTextIndex index) {
+        boolean indexCoversSource = source == ValueComparator.Source.ATTRIBUTE
+            ? attributeName.equals(index.getAttributeName())
+            : index.getAttributeName() == null;
+        if (!indexCoversSource) {
+            return null;
+        }
+
+        switch (operator) {
+            case CONTAINS_TERM:
+                return index.get((String) values.get(0));
+            case CONTAINS_TERM_WITH_PREFIX:
+                return index.getWithPrefix((String) values.get(0));
+            case CONTAINS_ALL_TERMS:
+                return index.getWithAll((List<String>) (List<?>) values);
+            default:
+                return null;
+        }
+    }
+
+    private <T> List<XmlElement> doLookup(AttributeIndex<T> index) {
+        Class<T> type = index.getType();
+        switch (operator) {
+            case IS:
+            case IN:
+                ImmutableSet.Builder<T> builder = ImmutableSet.builder();
+                for (Object value : values) {
+                    if (value != null) {
+                        builder.add(type.cast(value));
+                    }
+                }
+                return index.get(builder.build());
+            case GREATER_THAN:
+                return index.isSorted() ? index.getRange(type.cast(values.get(0)), false, null, false) : null;
+            case GREATER_EQUALS:
+                return index.isSorted() ? index.getRange(type.cast(values.get(0)), true, null, false) : null;
+            case LOWER_THAN:
+                return index.isSorted() ? index.getRange(null, false, type.cast(values.get(0)), false) : null;
+            case LOWER_EQUALS:
+                return index.isSorted() ? index.getRange(null, false, type.cast(values.get(0)), true) : null;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        ComparisonPredicate other = (ComparisonPredicate) o;
+        return source == other.source
+            && Objects.equals(attributeName, other.attributeName)
+            && operator == other.operator
+            && values.equals(other.values)
+            && Objects.equals(valueType, other.valueType)
+            && (operator != Operator.MATCHES || matchFunc == other.matchFunc);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(source, attributeName, operator, values, valueType);
+    }
+
+    @Override
+    public String toString() {
+        String sourceString = source == ValueComparator.Source.ATTRIBUTE ? "attribute(\"" + attributeName + "\")" : "textContent()";
+        String valueString = values.stream()
+            .map(value -> value instanceof String ? "\"" + value + "\"" : String.valueOf(value))
+            .collect(Collectors.joining(", "));
+        return sourceString + "." + CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, operator.name()) + "(" + valueString + ")";
+    }
+
+    /**
+     * @return true if testing the provided element converts the compared value from a string, which is not the case
+     * for string comparisons and for attribute values the {@link XmlAttribute} has already converted, used to count
+     * conversions when profiling a query
+     */
+    boolean converts(XmlElement element) {
+        // only predicates comparing converted values have a convertedMatchFunc
+        if (convertedMatchFunc == null) {
+            return false;
+        }
+
+        if (source == ValueComparator.Source.ATTRIBUTE) {
+            return element.hasAttribute(attributeName) && !element.getAttribute(attributeName).isConversionCached(valueType);
+        }
+
+        return true;
+    }
+
+    private boolean getConvertedMatch(XmlAttribute attribute) {
+        try {
+            return convertedMatchFunc.apply(attribute.getValue(valueType));
+        } catch (ConversionException e) {
+            return false;
+        }
+    }
+
+    private boolean getMatch(String toCheck) {
+        try {
+            return matchFunc.apply(toCheck);
+        } catch (ConversionException e) {
+            return false;
+        }
+    }
+
+    public enum Operator {
+
+        IS,
+        FUZZY_IS,
+        IN,
+        IS_EMPTY,
+        GREATER_THAN,
+        GREATER_EQUALS,
+        LOWER_THAN,
+        LOWER_EQUALS,
+        STARTS_WITH,
+        ENDS_WITH,
+        CONTAINS,
+        CONTAINS_TERM,
+        CONTAINS_TERM_WITH_PREFIX,
+        CONTAINS_ALL_TERMS,
+        MATCHES
+
+    }
+
+}
@@ -0,0 +1,54 @@
+package net.robinfriedli.jxp.queries;
+
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import net.robinfriedli.jxp.api.XmlElement;
+
+/**
+ * Base class for the predicates created by {@link Conditions#and(Predicate[])}, {@link Conditions#or(Predicate[])}
+ * and {@link Conditions#not(Predicate[])} that combine other predicates, which are exposed so that the
+ * {@link QueryPlanner} can analyze the condition tree. Composite predicates of the same type are equal if their
+ * operands are equal.
+ */
+public abstract class CompositePredicate implements Predicate<XmlElement> {
+
+    private final List<Predicate<XmlElement>> operands;
+
+    CompositePredicate(List<Predicate<XmlElement>> operands) {
+        this.operands = operands;
+    }
+
+    public List<Predicate<XmlElement>> getOperands() {
+        return operands;
+    }
+
+    /**
+     * @return the name of the {@link Conditions} method creating this predicate, used by {@link #toString()}
+     */
+    abstract String getName();
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        return operands.equals(((CompositePredicate) o).operands);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * getClass().hashCode() + operands.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return operands.stream().map(Object::toString).collect(Collectors.joining(", ", getName() + "(", ")"));
+    }
+
+}
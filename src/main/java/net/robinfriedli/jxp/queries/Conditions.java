@@ -4,23 +4,24 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.function.Predicate;
 
+import com.google.common.collect.ImmutableList;
 import net.robinfriedli.jxp.api.XmlElement;
 
 public final class Conditions {
 
     @SafeVarargs
     public static Predicate<XmlElement> and(Predicate<XmlElement>... predicates) {
-        return element -> Arrays.stream(predicates).allMatch(predicate -> predicate.test(element));
+        return new AndPredicate(ImmutableList.copyOf(predicates));
     }
 
     @SafeVarargs
     public static Predicate<XmlElement> or(Predicate<XmlElement>... predicates) {
-        return element -> Arrays.stream(predicates).anyMatch(predicate -> predicate.test(element));
+        return new OrPredicate(ImmutableList.copyOf(predicates));
     }
 
     @SafeVarargs
     public static Predicate<XmlElement> not(Predicate<XmlElement>... predicates) {
-        return element -> Arrays.stream(predicates).noneMatch(predicate -> predicate.test(element));
+        return new NotPredicate(ImmutableList.copyOf(predicates));
     }
 
     public static ValueComparator attribute(String name) {
@@ -48,19 +49,19 @@ public final class Conditions {
     }
 
     public static Predicate<XmlElement> instanceOf(Class<? extends XmlElement> c) {
-        return c::isInstance;
+        return new InstanceOfPredicate(c);
     }
 
     public static Predicate<XmlElement> tagName(String tagName) {
-        return elem -> elem.getTagName().equals(tagName);
+        return new TagNamePredicate(tagName);
     }
 
     public static Predicate<XmlElement> existsSubElement(Predicate<XmlElement> subPredicate) {
-        return and(XmlElement::hasSubElements, xmlElement -> xmlElement.getSubElements().stream().anyMatch(subPredicate));
+        return xmlElement -> xmlElement.streamSubElements().anyMatch(subPredicate);
     }
 
     public static Predicate<XmlElement> allSubElementsMatch(Predicate<XmlElement> subPredicate) {
-        return and(XmlElement::hasSubElements, xmlElement -> xmlElement.getSubElements().stream().allMatch(subPredicate));
+        return and(XmlElement::hasSubElements, xmlElement -> xmlElement.streamSubElements().allMatch(subPredicate));
     }
 
     public static Predicate<XmlElement> parentMatches(Predicate<XmlElement> parentPredicate) {
@@ -0,0 +1,49 @@
+package net.robinfriedli.jxp.queries;
+
+import java.util.function.Predicate;
+
+import net.robinfriedli.jxp.api.XmlElement;
+
+/**
+ * Predicate created by {@link Conditions#instanceOf(Class)} that exposes the class it checks.
+ */
+public class InstanceOfPredicate implements Predicate<XmlElement> {
+
+    private final Class<? extends XmlElement> type;
+
+    InstanceOfPredicate(Class<? extends XmlElement> type) {
+        this.type = type;
+    }
+
+    @Override
+    public boolean test(XmlElement element) {
+        return type.isInstance(element);
+    }
+
+    public Class<? extends XmlElement> getType() {
+        return type;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        return type.equals(((InstanceOfPredicate) o).type);
+    }
+
+    @Override
+    public int hashCode() {
+        return type.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "instanceOf(" + type.getSimpleName() + ")";
+    }
+
+}
@@ -0,0 +1,249 @@
+package net.robinfriedli.jxp.queries;
+
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.collections.DocumentOrderedSet;
+import net.robinfriedli.jxp.collections.ElementIndex;
+import net.robinfriedli.jxp.persist.Context;
+
+/**
+ * A named query whose results are kept in memory and updated incrementally whenever an event that adds, removes or
+ * changes an element is applied or reverted, so that reading the results does not require checking all elements of the
+ * Context. Create a view using {@link Context#createView(String, Predicate, Order)}.
+ * <p>
+ * Since only the elements affected by an event are re-evaluated, the condition should only depend on the tag name,
+ * attributes and text content of the element itself, like the conditions created by {@link Conditions#attribute(String)}
+ * or {@link Conditions#tagName(String)}. Conditions that depend on other elements, such as
+ * {@link Conditions#parentMatches(Predicate)}, are not re-evaluated when the other element changes, in which case
+ * {@link #refresh()} re-evaluates the condition for all elements.
+ * <p>
+ * Without {@link Order} the results are returned in document order, using a {@link DocumentOrderedSet}. With an order
+ * the sort keys of each result are extracted once when the element enters the view or changes and the results are
+ * kept sorted, elements with equal keys are kept in the order they entered the view.
+ * <p>
+ * Access is synchronised using a {@link ReentrantReadWriteLock}, so that the view can be read while a transaction
+ * modifies it in a different thread.
+ */
+public class MaterializedView implements ElementIndex {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final String name;
+    private final Predicate<XmlElement> condition;
+    private final Predicate<XmlElement> optimizedCondition;
+    @Nullable
+    private final Order<?> order;
+    private final Supplier<Stream<XmlElement>> treeTraversal;
+    // the results if there is no order
+    private final DocumentOrderedSet results = new DocumentOrderedSet();
+    // the results if there is an order
+    private final Map<XmlElement, Entry> entries = new IdentityHashMap<>();
+    @Nullable
+    private final TreeSet<Entry> sortedEntries;
+    private long sequence;
+
+    /**
+     * @param name          the name of the view
+     * @param condition     the condition the results have to match
+     * @param order         the order of the results or null to return the results in document order
+     * @param treeTraversal supplies a stream of all elements of the element tree in document order, used to restore the
+     *                      document order of the results and by {@link #refresh()}
+     */
+    public MaterializedView(String name, Predicate<XmlElement> condition, @Nullable Order<?> order, Supplier<Stream<XmlElement>> treeTraversal) {
+        this.name = name;
+        this.condition = condition;
+        this.order = order;
+        this.treeTraversal = treeTraversal;
+        optimizedCondition = QueryPlanner.optimize(condition);
+
+        if (order != null) {
+            Comparator<SortKey<?>> keyComparator = order.getKeyComparator();
+            Comparator<Entry> entryComparator = (first, second) -> keyComparator.compare(first.sortKey, second.sortKey);
+            sortedEntries = new TreeSet<>(entryComparator.thenComparingLong(entry -> entry.sequence));
+        } else {
+            sortedEntries = null;
+        }
+    }
+
+    @Override
+    public void add(XmlElement element) {
+        if (!optimizedCondition.test(element)) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            include(element);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(XmlElement element) {
+        lock.writeLock().lock();
+        try {
+            exclude(element);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Re-evaluate the condition for the changed element, adding or removing it from the results. Unlike other
+     * {@link ElementIndex} implementations the view does not know elements that do not match the condition, so this
+     * expects the element to be part of the element tree of the Context.
+     */
+    @Override
+    public void update(XmlElement element) {
+        boolean matches = optimizedCondition.test(element);
+        lock.writeLock().lock();
+        try {
+            if (!matches) {
+                exclude(element);
+            } else if (sortedEntries != null && entries.containsKey(element)) {
+                // the sort keys might have changed, the element keeps its position relative to elements with equal keys
+                Entry oldEntry = entries.get(element);
+                sortedEntries.remove(oldEntry);
+                Entry newEntry = new Entry(order.extractKeys(element), oldEntry.sequence);
+                entries.put(element, newEntry);
+                sortedEntries.add(newEntry);
+            } else {
+                include(element);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            results.clear();
+            entries.clear();
+            if (sortedEntries != null) {
+                sortedEntries.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Re-evaluate the condition for all elements of the Context, required if the condition depends on elements other
+     * than the checked element.
+     */
+    public void refresh() {
+        List<XmlElement> matches = Query.evaluate(condition).execute(treeTraversal.get()).collect();
+        lock.writeLock().lock();
+        try {
+            clear();
+            for (XmlElement element : matches) {
+                include(element);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Predicate<XmlElement> getCondition() {
+        return condition;
+    }
+
+    @Nullable
+    public Order<?> getOrder() {
+        return order;
+    }
+
+    /**
+     * @return the amount of elements currently matching the condition
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return sortedEntries != null ? sortedEntries.size() : results.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return an immutable list of all elements currently matching the condition, sorted by the {@link Order} of this
+     * view or in document order
+     */
+    public List<XmlElement> getResults() {
+        if (sortedEntries == null) {
+            return DocumentOrderedSet.toOrderedList(lock, () -> results, treeTraversal);
+        }
+
+        lock.readLock().lock();
+        try {
+            ImmutableList.Builder<XmlElement> builder = ImmutableList.builderWithExpectedSize(sortedEntries.size());
+            for (Entry entry : sortedEntries) {
+                builder.add(entry.sortKey.getElement());
+            }
+            return builder.build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return a {@link ResultStream} over the current results, e.g. to read a page of the results using
+     * {@link ResultStream#page(int, int)}
+     */
+    public ResultStream<XmlElement> stream() {
+        return new ResultStream<>(getResults().stream());
+    }
+
+    private void include(XmlElement element) {
+        if (sortedEntries == null) {
+            results.add(element);
+        } else if (!entries.containsKey(element)) {
+            Entry entry = new Entry(order.extractKeys(element), sequence++);
+            entries.put(element, entry);
+            sortedEntries.add(entry);
+        }
+    }
+
+    private void exclude(XmlElement element) {
+        if (sortedEntries == null) {
+            results.remove(element);
+        } else {
+            Entry entry = entries.remove(element);
+            if (entry != null) {
+                sortedEntries.remove(entry);
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final SortKey<XmlElement> sortKey;
+        // the order in which the elements entered the view, used for elements with equal keys
+        private final long sequence;
+
+        private Entry(SortKey<XmlElement> sortKey, long sequence) {
+            this.sortKey = sortKey;
+            this.sequence = sequence;
+        }
+
+    }
+
+}
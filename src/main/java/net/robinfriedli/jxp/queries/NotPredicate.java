@@ -0,0 +1,33 @@
+package net.robinfriedli.jxp.queries;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import net.robinfriedli.jxp.api.XmlElement;
+
+/**
+ * Predicate created by {@link Conditions#not(Predicate[])} that matches if none of the operands match.
+ */
+public class NotPredicate extends CompositePredicate {
+
+    NotPredicate(List<Predicate<XmlElement>> operands) {
+        super(operands);
+    }
+
+    @Override
+    String getName() {
+        return "not";
+    }
+
+    @Override
+    public boolean test(XmlElement element) {
+        for (Predicate<XmlElement> operand : getOperands()) {
+            if (operand.test(element)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+}
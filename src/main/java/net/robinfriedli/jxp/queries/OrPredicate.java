@@ -0,0 +1,34 @@
+package net.robinfriedli.jxp.queries;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import net.robinfriedli.jxp.api.XmlElement;
+
+/**
+ * Predicate created by {@link Conditions#or(Predicate[])} that matches if any operand matches, checking the operands
+ * in order.
+ */
+public class OrPredicate extends CompositePredicate {
+
+    OrPredicate(List<Predicate<XmlElement>> operands) {
+        super(operands);
+    }
+
+    @Override
+    String getName() {
+        return "or";
+    }
+
+    @Override
+    public boolean test(XmlElement element) {
+        for (Predicate<XmlElement> operand : getOperands()) {
+            if (operand.test(element)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+}
@@ -1,30 +1,59 @@
 package net.robinfriedli.jxp.queries;
 
 import java.util.Comparator;
+import java.util.List;
 import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 
+import com.google.common.collect.ImmutableList;
 import net.robinfriedli.jxp.api.StringConverter;
+import net.robinfriedli.jxp.api.XmlAttribute;
 import net.robinfriedli.jxp.api.XmlElement;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
-
+/**
+ * Defines how to sort the results of a query by the value of an attribute or the text content of the elements,
+ * converted to the provided type. Further sort keys, used for elements that are equal according to this order, can be
+ * added using {@link #then(Order)}, each with its own direction and handling of missing values.
+ * <p>
+ * When sorting, the keys of each element are extracted and converted once, rather than for each comparison, and
+ * {@link Integer}, {@link Long}, {@link Double} and {@link Float} keys are compared as primitives.
+ *
+ * @param <E> the type of the values of the first sort key
+ */
 public class Order<E extends Comparable<E>> {
 
+    private static final int MAX_LEVELS = 64;
+
     @Nullable
     private final String attribute;
     private final Direction direction;
     private final Source source;
     private final Class<E> attributeType;
+    private final Nulls nulls;
+    private final KeyType keyType;
+    // this order followed by all orders added using #then
+    private final List<Order<?>> levels;
+    private final boolean hasLongKeys;
+    private final boolean hasDoubleKeys;
+    private final boolean hasObjectKeys;
 
     public Order(Direction direction, Source source, Class<E> attributeType) {
         this(null, direction, source, attributeType);
     }
 
     public Order(@Nullable String attribute, Direction direction, Source source, Class<E> attributeType) {
+        this(attribute, direction, source, attributeType, Nulls.EMPTY_VALUE, null);
+    }
+
+    private Order(@Nullable String attribute, Direction direction, Source source, Class<E> attributeType, Nulls nulls, @Nullable Order<?> next) {
         this.source = source;
         this.direction = direction;
         this.attributeType = attributeType;
+        this.nulls = nulls;
+        keyType = KeyType.of(attributeType);
         if (source == Source.ATTRIBUTE) {
             if (attribute != null) {
                 this.attribute = attribute;
@@ -36,6 +65,19 @@ public class Order<E extends Comparable<E>> {
         } else {
             this.attribute = null;
         }
+
+        ImmutableList.Builder<Order<?>> levelBuilder = ImmutableList.builder();
+        levelBuilder.add(this);
+        if (next != null) {
+            levelBuilder.addAll(next.levels);
+        }
+        levels = levelBuilder.build();
+        if (levels.size() > MAX_LEVELS) {
+            throw new IllegalArgumentException("An order may have at most " + MAX_LEVELS + " sort keys");
+        }
+        hasLongKeys = levels.stream().anyMatch(level -> level.keyType == KeyType.LONG);
+        hasDoubleKeys = levels.stream().anyMatch(level -> level.keyType == KeyType.DOUBLE);
+        hasObjectKeys = levels.stream().anyMatch(level -> level.keyType == KeyType.OBJECT);
     }
 
     public static Order<String> attribute(String name, Direction direction) {
@@ -70,26 +112,202 @@ public class Order<E extends Comparable<E>> {
         return new Order<>(Direction.ASCENDING, Source.TEXT_CONTENT, attributeType);
     }
 
+    /**
+     * @return a comparator that sorts elements by the position of their DOM {@link Element} in the document. Elements
+     * that are not persisted yet are considered equal to all elements.
+     */
+    public static Comparator<XmlElement> documentOrder() {
+        return (first, second) -> {
+            Element firstElement = first.getElement();
+            Element secondElement = second.getElement();
+            if (firstElement == null || secondElement == null || firstElement == secondElement) {
+                return 0;
+            }
+
+            short position = firstElement.compareDocumentPosition(secondElement);
+            if ((position & Node.DOCUMENT_POSITION_FOLLOWING) != 0) {
+                return -1;
+            } else if ((position & Node.DOCUMENT_POSITION_PRECEDING) != 0) {
+                return 1;
+            }
+
+            return 0;
+        };
+    }
+
+    /**
+     * @param next the order to apply to elements that are equal according to this order, including the orders previously
+     *             added to this order
+     * @return a new order that sorts by the keys of this order followed by the keys of the provided order
+     */
+    public Order<E> then(Order<?> next) {
+        Order<?> chained = next;
+        for (int i = levels.size() - 1; i > 0; i--) {
+            chained = levels.get(i).withNext(chained);
+        }
+        return new Order<>(attribute, direction, source, attributeType, nulls, chained);
+    }
+
+    /**
+     * @return a new order that sorts elements where the attribute is missing or empty, or the text content is empty,
+     * ahead of all other elements regardless of the direction, instead of using the value the {@link StringConverter}
+     * provides for empty values
+     */
+    public Order<E> nullsFirst() {
+        return new Order<>(attribute, direction, source, attributeType, Nulls.FIRST, getNext());
+    }
+
+    /**
+     * @return a new order that sorts elements where the attribute is missing or empty, or the text content is empty,
+     * after all other elements regardless of the direction
+     */
+    public Order<E> nullsLast() {
+        return new Order<>(attribute, direction, source, attributeType, Nulls.LAST, getNext());
+    }
+
     public <O extends XmlElement> Stream<O> applyOrder(Stream<O> resultStream) {
-        Comparator<XmlElement> comparator = getComparator();
-        return resultStream.sorted(comparator);
+        return resultStream.map(this::extractKeys).sorted(getKeyComparator()).map(SortKey::getElement);
     }
 
+    /**
+     * @return a comparator comparing two elements by all keys of this order. Since the keys are extracted for each
+     * comparison prefer {@link #applyOrder(Stream)} when sorting.
+     */
     public Comparator<XmlElement> getComparator() {
-        Comparator<XmlElement> comparator;
+        Comparator<SortKey<?>> keyComparator = getKeyComparator();
+        return (first, second) -> keyComparator.compare(extractKeys(first), extractKeys(second));
+    }
+
+    /**
+     * Read and convert all keys of this order for the provided element.
+     */
+    <O extends XmlElement> SortKey<O> extractKeys(O element) {
+        SortKey<O> sortKey = new SortKey<>(element, levels.size(), hasLongKeys, hasDoubleKeys, hasObjectKeys);
+        for (int i = 0; i < levels.size(); i++) {
+            levels.get(i).extractKey(element, sortKey, i);
+        }
+        return sortKey;
+    }
+
+    /**
+     * @return a comparator comparing the keys extracted by {@link #extractKeys(XmlElement)}
+     */
+    Comparator<SortKey<?>> getKeyComparator() {
+        return (first, second) -> {
+            for (int i = 0; i < levels.size(); i++) {
+                int comparison = levels.get(i).compareKeys(first, second, i);
+                if (comparison != 0) {
+                    return comparison;
+                }
+            }
+            return 0;
+        };
+    }
+
+    /**
+     * @return the amount of values {@link #extractKeys(XmlElement)} converts from a string for the provided element,
+     * not counting attribute values the {@link XmlAttribute} has already converted, used to count conversions when
+     * profiling a query
+     */
+    int countConversions(XmlElement element) {
+        int conversions = 0;
+        for (Order<?> level : levels) {
+            if (level.convertsKey(element)) {
+                conversions++;
+            }
+        }
+        return conversions;
+    }
+
+    private boolean convertsKey(XmlElement element) {
         if (source == Source.ATTRIBUTE) {
-            comparator = Comparator.comparing(v -> v.getAttribute(attribute).getValue(attributeType));
-        } else {
-            comparator = Comparator.comparing(v -> StringConverter.convert(v.getTextContent(), attributeType));
+            XmlAttribute xmlAttribute = element.getAttribute(attribute);
+            if (nulls != Nulls.EMPTY_VALUE && xmlAttribute.getValue().isEmpty()) {
+                return false;
+            }
+
+            return !xmlAttribute.isConversionCached(attributeType);
+        }
+
+        return nulls == Nulls.EMPTY_VALUE || !element.getTextContent().isEmpty();
+    }
+
+    private void extractKey(XmlElement element, SortKey<?> sortKey, int index) {
+        if (source == Source.ATTRIBUTE) {
+            // the XmlAttribute caches the converted value, the value of a missing attribute converts to the empty value
+            XmlAttribute xmlAttribute = element.getAttribute(attribute);
+            if (nulls != Nulls.EMPTY_VALUE && xmlAttribute.getValue().isEmpty()) {
+                sortKey.setNull(index);
+                return;
+            }
+
+            switch (keyType) {
+                case LONG:
+                    sortKey.setLong(index, attributeType == Integer.class ? xmlAttribute.getInt() : xmlAttribute.getLong());
+                    break;
+                case DOUBLE:
+                    sortKey.setDouble(index, attributeType == Float.class ? xmlAttribute.getFloat() : xmlAttribute.getDouble());
+                    break;
+                default:
+                    sortKey.setObject(index, xmlAttribute.getValue(attributeType));
+            }
+            return;
+        }
+
+        String textContent = element.getTextContent();
+        if (nulls != Nulls.EMPTY_VALUE && textContent.isEmpty()) {
+            sortKey.setNull(index);
+            return;
+        }
+
+        switch (keyType) {
+            case LONG:
+                sortKey.setLong(index, attributeType == Integer.class ? StringConverter.toInt(textContent) : StringConverter.toLong(textContent));
+                break;
+            case DOUBLE:
+                sortKey.setDouble(index, attributeType == Float.class ? StringConverter.toFloat(textContent) : StringConverter.toDouble(textContent));
+                break;
+            default:
+                sortKey.setObject(index, StringConverter.convert(textContent, attributeType));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compareKeys(SortKey<?> first, SortKey<?> second, int index) {
+        boolean firstNull = first.isNull(index);
+        boolean secondNull = second.isNull(index);
+        if (firstNull || secondNull) {
+            if (firstNull && secondNull) {
+                return 0;
+            }
+            return firstNull == (nulls == Nulls.FIRST) ? -1 : 1;
         }
 
         if (direction == Direction.DESCENDING) {
-            return comparator.reversed();
-        } else {
-            return comparator;
+            SortKey<?> swap = first;
+            first = second;
+            second = swap;
+        }
+
+        switch (keyType) {
+            case LONG:
+                return Long.compare(first.getLong(index), second.getLong(index));
+            case DOUBLE:
+                return Double.compare(first.getDouble(index), second.getDouble(index));
+            default:
+                return ((E) first.getObject(index)).compareTo((E) second.getObject(index));
         }
     }
 
+    @Nullable
+    private Order<?> getNext() {
+        return levels.size() > 1 ? levels.get(1) : null;
+    }
+
+    private Order<E> withNext(@Nullable Order<?> next) {
+        return new Order<>(attribute, direction, source, attributeType, nulls, next);
+    }
+
     public enum Direction {
 
         ASCENDING,
@@ -104,4 +322,30 @@ public class Order<E extends Comparable<E>> {
 
     }
 
+    private enum Nulls {
+
+        // use the value the StringConverter provides for missing values
+        EMPTY_VALUE,
+        FIRST,
+        LAST
+
+    }
+
+    enum KeyType {
+
+        LONG,
+        DOUBLE,
+        OBJECT;
+
+        static KeyType of(Class<?> type) {
+            if (type == Integer.class || type == Long.class) {
+                return LONG;
+            } else if (type == Double.class || type == Float.class) {
+                return DOUBLE;
+            }
+            return OBJECT;
+        }
+
+    }
+
 }
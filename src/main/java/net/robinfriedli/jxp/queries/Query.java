@@ -1,18 +1,35 @@
 package net.robinfriedli.jxp.queries;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
+import javax.annotation.Nullable;
+
 import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.collections.AttributeIndex;
+import net.robinfriedli.jxp.collections.DocumentOrderedSet;
+import net.robinfriedli.jxp.collections.ElementIndex;
+import net.robinfriedli.jxp.collections.ElementTypeIndex;
+import net.robinfriedli.jxp.collections.NodeList;
+import net.robinfriedli.jxp.collections.SubElementSpliterator;
+import net.robinfriedli.jxp.persist.Context;
 
 public class Query {
 
     private final Predicate<XmlElement> expression;
     private Order<?> order;
+    private long offset;
+    private long limit = -1;
+    @Nullable
+    private ForkJoinPool pool;
+    private boolean profile;
 
     public Query(Predicate<XmlElement> expression) {
-        this.expression = expression;
+        this.expression = QueryPlanner.optimize(expression);
     }
 
     public static Query evaluate(Predicate<XmlElement> expression) {
@@ -24,13 +41,94 @@ public class Query {
     }
 
     public <E extends XmlElement> ResultStream<E> execute(Collection<XmlElement> elements, Class<E> type) {
-        Stream<E> found = elements.stream().filter(expression).map(type::cast);
+        return execute(elements.stream(), type);
+    }
+
+    public ResultStream<XmlElement> execute(Stream<XmlElement> elements) {
+        return execute(elements, XmlElement.class);
+    }
+
+    public <E extends XmlElement> ResultStream<E> execute(Stream<XmlElement> elements, Class<E> type) {
+        return execute(elements, type, profile ? new QueryStatistics() : null);
+    }
+
+    private <E extends XmlElement> ResultStream<E> execute(Stream<XmlElement> elements, Class<E> type, @Nullable QueryStatistics statistics) {
+        if (pool != null) {
+            elements = elements.parallel();
+        }
+
+        Predicate<XmlElement> condition = statistics != null ? statistics.instrument(expression) : expression;
+        ResultStream<E> resultStream = new ResultStream<>(elements.filter(condition).map(type::cast), pool);
+        if (statistics != null) {
+            resultStream.withStatistics(statistics);
+        }
 
         if (order != null) {
-            found = order.applyOrder(found);
+            resultStream.order(order);
+        }
+
+        resultStream.offset(offset);
+        if (limit >= 0) {
+            resultStream.limit(limit);
+        }
+
+        return resultStream;
+    }
+
+    public ResultStream<XmlElement> execute(Context context) {
+        return execute(context, XmlElement.class);
+    }
+
+    /**
+     * Execute this query against all elements of the provided Context. If the {@link QueryPlanner} finds an
+     * {@link AttributeIndex} or {@link ElementTypeIndex} of the Context that can answer the expression only the
+     * elements found by the index are checked. Unless an {@link Order} is applied these are sorted back into document
+     * order, see {@link DocumentOrderedSet#sort(List)}, so that the results do not depend on the indices. Else the
+     * Context may limit the elements to check, see {@link Context.Internals#findCandidates(Predicate)}. Otherwise the
+     * elements are streamed lazily using {@link Context#streamElementsRecursive()}, so that terminal operations such as
+     * {@link ResultStream#getFirstResult()} stop traversing the tree once a result is found. Aggregates such as
+     * {@link ResultStream#max(String, Class)} may be answered using an {@link AttributeIndex} of the Context on the
+     * aggregated attribute.
+     */
+    public <E extends XmlElement> ResultStream<E> execute(Context context, Class<E> type) {
+        QueryStatistics statistics = null;
+        QueryPlan plan;
+        if (profile) {
+            statistics = new QueryStatistics();
+            plan = statistics.record(QueryStatistics.Stage.PLANNING, () -> plan(context));
+            statistics.setPlan(plan);
+        } else {
+            plan = plan(context);
+        }
+
+        List<XmlElement> candidates = plan.getCandidates();
+        if (candidates != null && order == null && plan.getAccessPath() == QueryPlan.AccessPath.INDEX) {
+            candidates = DocumentOrderedSet.sort(candidates);
         }
+        return execute(candidates != null ? candidates.stream() : context.streamElementsRecursive(), type, statistics)
+            .withIndices(expression, context.internal().getAttributeIndices(), type);
+    }
+
+    /**
+     * Determine how this query is executed against the provided Context, see {@link QueryPlan}. This looks up the
+     * candidates using the indices of the Context, or the Context itself, like executing the query would, but does
+     * not check any element.
+     *
+     * @param context the Context the query would be executed against
+     * @return the plan of this query
+     */
+    public QueryPlan explain(Context context) {
+        return plan(context);
+    }
 
-        return new ResultStream<>(found);
+    /**
+     * Record execution statistics when executing this query, available via {@link ResultStream#getStatistics()} once a
+     * terminal operation of the returned stream has been executed, see {@link QueryStatistics}. Profiling counts each
+     * predicate evaluation, so the query runs slightly slower.
+     */
+    public Query profile() {
+        profile = true;
+        return this;
     }
 
     public Query order(Order<?> order) {
@@ -38,4 +136,70 @@ public class Query {
         return this;
     }
 
+    /**
+     * Skip the first n results, see {@link ResultStream#offset(long)}.
+     */
+    public Query offset(long offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative");
+        }
+
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * Return at most n results, see {@link ResultStream#limit(long)}. Combined with an {@link Order} only the first
+     * offset + limit results are retained instead of sorting all results.
+     */
+    public Query limit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative");
+        }
+
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Execute this query in parallel using the {@link ForkJoinPool#commonPool()}, see {@link #parallel(ForkJoinPool)}.
+     */
+    public Query parallel() {
+        return parallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Execute this query using a parallel stream whose terminal operations, invoked via the returned
+     * {@link ResultStream}, run in the provided {@link ForkJoinPool}. When executed against a Context the element tree
+     * is split by subtree using the {@link SubElementSpliterator}, which reads the tree while holding the read locks of
+     * the {@link NodeList}s, so the elements are checked concurrently. The results are still returned in document order,
+     * or sorted by the {@link Order}, since the stream remains ordered. The condition has to be safe to evaluate
+     * concurrently.
+     *
+     * @param pool the pool to execute the query in
+     */
+    public Query parallel(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    private QueryPlan plan(Context context) {
+        Context.Internals internals = context.internal();
+        QueryPlanner.IndexLookup lookup = QueryPlanner.lookup(expression, internals.getAttributeIndices(), internals.getFullTextIndices(), internals.getTypeIndex());
+        if (lookup != null) {
+            return createPlan(QueryPlan.AccessPath.INDEX, lookup.getIndices(), lookup.getElements());
+        }
+
+        List<XmlElement> candidates = internals.findCandidates(expression);
+        if (candidates != null) {
+            return createPlan(QueryPlan.AccessPath.CONTEXT, Collections.emptyList(), candidates);
+        }
+
+        return createPlan(QueryPlan.AccessPath.FULL_SCAN, Collections.emptyList(), null);
+    }
+
+    private QueryPlan createPlan(QueryPlan.AccessPath accessPath, List<ElementIndex> indices, @Nullable List<XmlElement> candidates) {
+        return new QueryPlan(expression, accessPath, indices, candidates, order, offset, limit, pool != null);
+    }
+
 }
@@ -0,0 +1,449 @@
+package net.robinfriedli.jxp.queries;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.events.AttributeChangingEvent;
+import net.robinfriedli.jxp.events.AttributeCreatedEvent;
+import net.robinfriedli.jxp.events.AttributeDeletedEvent;
+import net.robinfriedli.jxp.events.ElementChangingEvent;
+import net.robinfriedli.jxp.events.ElementCreatedEvent;
+import net.robinfriedli.jxp.events.ElementDeletingEvent;
+import net.robinfriedli.jxp.events.Event;
+import net.robinfriedli.jxp.persist.Context;
+
+/**
+ * Caches the results of {@link Context#query(Predicate)} and {@link Context#xPathQuery(String)}, enabled using
+ * {@link Context#enableQueryCache(int)}. Results are cached by the condition or by the XPath string and once the
+ * maximum size is reached the least recently used entry is evicted. Only conditions composed of the predicates created
+ * by {@link ValueComparator}, {@link Conditions#tagName(String)}, {@link Conditions#instanceOf(Class)} and
+ * {@link Conditions#and(Predicate[])}, {@link Conditions#or(Predicate[])} or {@link Conditions#not(Predicate[])} are
+ * cached, since plain lambdas can neither be compared nor analyzed.
+ * <p>
+ * Rather than clearing all entries whenever the elements change, each entry records what its results depend on: the
+ * tag names and types of the elements the condition can match and the attributes and text content it reads, or the tag
+ * names and attributes named by the XPath expression. When an event changes the elements only the entries it might
+ * affect are dropped, so changing an attribute of a city does not drop the results of a query for countries.
+ * Conditions are checked against the in memory elements, so their entries are dropped when an event is applied or
+ * reverted. XPath queries are evaluated against the DOM document, which only changes when an event is committed, so
+ * their entries are dropped when an event is committed or its commit is reverted. XPath expressions whose dependencies
+ * cannot be determined from the names they contain, because they use wildcards, node type tests, axes, variables or
+ * the parent step, are not cached.
+ * <p>
+ * Access is synchronised, the queries themselves are executed without holding the lock. A result is only stored if no
+ * event was handled while the query was executed, since the result might not reflect that change.
+ */
+public class QueryCache {
+
+    // tokens that make the elements an XPath expression reads unpredictable from the names it contains
+    private static final String[] OPAQUE_XPATH_TOKENS = {"*", "..", "::", "$", "node(", "id("};
+    private static final Pattern STRING_LITERAL = Pattern.compile("'[^']*'|\"[^\"]*\"");
+    private static final Pattern XPATH_NAME = Pattern.compile("(@?)([\\p{L}_][\\p{L}\\p{N}_.:\\-]*)(\\s*\\()?");
+
+    private final int maxSize;
+    private final Map<Object, Entry> entries;
+    // incremented whenever an event is handled to detect events handled while a query was executed
+    private long generation;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * @param maxSize the maximum amount of cached results
+     */
+    public QueryCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive");
+        }
+
+        this.maxSize = maxSize;
+        entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, QueryCache.Entry> eldest) {
+                return size() > QueryCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Return the cached results of the provided condition or execute the query and cache its results if the condition
+     * can be cached.
+     *
+     * @param condition the condition of the query
+     * @param execution executes the query if there is no cached result
+     * @return an immutable list of the results
+     */
+    public List<XmlElement> query(Predicate<XmlElement> condition, Supplier<List<XmlElement>> execution) {
+        return get(condition, () -> PredicateFootprint.of(condition), execution);
+    }
+
+    /**
+     * Return the cached results of the provided XPath query or execute the query and cache its results if the
+     * expression can be cached.
+     *
+     * @param xPath     the XPath query
+     * @param execution executes the query if there is no cached result
+     * @return an immutable list of the results
+     */
+    public List<XmlElement> xPathQuery(String xPath, Supplier<List<XmlElement>> execution) {
+        return get(xPath, () -> XPathFootprint.of(xPath), execution);
+    }
+
+    /**
+     * Drop the entries of conditions whose results might be changed by the provided event, called when an event is
+     * applied to or reverted on the in memory elements.
+     */
+    public synchronized void elementsChanged(Event event) {
+        generation++;
+        invalidate(event, false);
+    }
+
+    /**
+     * Drop the entries of XPath queries whose results might be changed by the provided event, called when an event is
+     * committed to the DOM document or its commit is reverted.
+     */
+    public synchronized void documentChanged(Event event) {
+        generation++;
+        invalidate(event, true);
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the amount of currently cached results
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the amount of queries answered using a cached result
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the amount of cacheable queries that had to be executed
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private List<XmlElement> get(Object key, Supplier<Footprint> footprintSupplier, Supplier<List<XmlElement>> execution) {
+        long startGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hitCount++;
+                return entry.results;
+            }
+
+            startGeneration = generation;
+        }
+
+        Footprint footprint = footprintSupplier.get();
+        List<XmlElement> results = ImmutableList.copyOf(execution.get());
+        if (footprint == null) {
+            return results;
+        }
+
+        synchronized (this) {
+            missCount++;
+            if (generation == startGeneration) {
+                entries.put(key, new Entry(results, footprint));
+            }
+        }
+
+        return results;
+    }
+
+    private void invalidate(Event event, boolean documentChanged) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        Change change = new Change(event);
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Footprint footprint = iterator.next().footprint;
+            if (footprint.readsDocument() == documentChanged && footprint.isAffectedBy(change)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final List<XmlElement> results;
+        private final Footprint footprint;
+
+        private Entry(List<XmlElement> results, Footprint footprint) {
+            this.results = results;
+            this.footprint = footprint;
+        }
+
+    }
+
+    /**
+     * Describes the change an event makes to the elements, computing the affected elements lazily and only once for
+     * all entries.
+     */
+    private static class Change {
+
+        private final Event event;
+        private final boolean structural;
+        // the name of the changed attribute or null if the text content or something unknown changed
+        @Nullable
+        private final String attributeName;
+        private List<XmlElement> subtree;
+        private List<XmlElement> ancestors;
+
+        private Change(Event event) {
+            this.event = event;
+            structural = event instanceof ElementCreatedEvent || event instanceof ElementDeletingEvent;
+            attributeName = getAttributeName(event);
+        }
+
+        @Nullable
+        private static String getAttributeName(Event event) {
+            if (event instanceof AttributeChangingEvent) {
+                return ((AttributeChangingEvent) event).getAttribute().getAttributeName();
+            } else if (event instanceof AttributeCreatedEvent) {
+                return ((AttributeCreatedEvent) event).getAttribute().getAttributeName();
+            } else if (event instanceof AttributeDeletedEvent) {
+                return ((AttributeDeletedEvent) event).getAttribute().getAttributeName();
+            }
+
+            return null;
+        }
+
+        private XmlElement getSource() {
+            return event.getSource();
+        }
+
+        private boolean isAttributeChange() {
+            return attributeName != null;
+        }
+
+        // the source and its descendants, which are added to or removed from the tree with the source
+        private List<XmlElement> getSubtree() {
+            if (subtree == null) {
+                subtree = Lists.newArrayList(getSource());
+                subtree.addAll(getSource().getSubElementsRecursive());
+            }
+
+            return subtree;
+        }
+
+        // the ancestors of the source, using the former parent if the source has been removed from the tree
+        private List<XmlElement> getAncestors() {
+            if (ancestors == null) {
+                ancestors = Lists.newArrayList();
+                XmlElement parent = getSource().getParent();
+                if (parent == null && event instanceof ElementDeletingEvent) {
+                    parent = ((ElementDeletingEvent) event).getOldParent();
+                } else if (parent == null && event instanceof ElementCreatedEvent) {
+                    parent = ((ElementCreatedEvent) event).getNewParent();
+                }
+
+                for (XmlElement current = parent; current != null; current = current.getParent()) {
+                    ancestors.add(current);
+                }
+            }
+
+            return ancestors;
+        }
+
+    }
+
+    private interface Footprint {
+
+        /**
+         * @return true if the results are read from the DOM document rather than the in memory elements
+         */
+        boolean readsDocument();
+
+        boolean isAffectedBy(Change change);
+
+    }
+
+    /**
+     * The dependencies of a condition, which only depends on the checked element itself: a condition that matches an
+     * element that is added or removed or reads the attribute or text content that changes might return different
+     * results.
+     */
+    private static class PredicateFootprint implements Footprint {
+
+        // false if the condition certainly does not match the element, e.g. because it requires a different tag name
+        private final Predicate<XmlElement> mayMatch;
+        private final Set<String> attributeNames;
+        private final boolean readsTextContent;
+
+        private PredicateFootprint(Predicate<XmlElement> mayMatch, Set<String> attributeNames, boolean readsTextContent) {
+            this.mayMatch = mayMatch;
+            this.attributeNames = attributeNames;
+            this.readsTextContent = readsTextContent;
+        }
+
+        @Nullable
+        private static PredicateFootprint of(Predicate<XmlElement> condition) {
+            if (condition instanceof ComparisonPredicate) {
+                ComparisonPredicate comparison = (ComparisonPredicate) condition;
+                return comparison.getSource() == ValueComparator.Source.ATTRIBUTE
+                    ? new PredicateFootprint(element -> true, Collections.singleton(comparison.getAttributeName()), false)
+                    : new PredicateFootprint(element -> true, Collections.emptySet(), true);
+            } else if (condition instanceof TagNamePredicate) {
+                return new PredicateFootprint(condition, Collections.emptySet(), false);
+            } else if (condition instanceof InstanceOfPredicate) {
+                return new PredicateFootprint(condition, Collections.emptySet(), false);
+            } else if (condition instanceof CompositePredicate) {
+                List<PredicateFootprint> operands = Lists.newArrayList();
+                for (Predicate<XmlElement> operand : ((CompositePredicate) condition).getOperands()) {
+                    PredicateFootprint footprint = of(operand);
+                    if (footprint == null) {
+                        return null;
+                    }
+                    operands.add(footprint);
+                }
+
+                Set<String> attributeNames = Sets.newHashSet();
+                boolean readsTextContent = false;
+                for (PredicateFootprint operand : operands) {
+                    attributeNames.addAll(operand.attributeNames);
+                    readsTextContent |= operand.readsTextContent;
+                }
+
+                Predicate<XmlElement> mayMatch;
+                if (condition instanceof AndPredicate) {
+                    mayMatch = element -> operands.stream().allMatch(operand -> operand.mayMatch.test(element));
+                } else if (condition instanceof OrPredicate) {
+                    mayMatch = element -> operands.stream().anyMatch(operand -> operand.mayMatch.test(element));
+                } else {
+                    mayMatch = element -> true;
+                }
+
+                return new PredicateFootprint(mayMatch, attributeNames, readsTextContent);
+            }
+
+            return null;
+        }
+
+        @Override
+        public boolean readsDocument() {
+            return false;
+        }
+
+        @Override
+        public boolean isAffectedBy(Change change) {
+            if (change.structural) {
+                return change.getSubtree().stream().anyMatch(mayMatch);
+            }
+
+            if (!mayMatch.test(change.getSource())) {
+                return false;
+            }
+
+            if (change.isAttributeChange()) {
+                return attributeNames.contains(change.attributeName);
+            }
+
+            // text content changes and unknown changes
+            return readsTextContent || !(change.event instanceof ElementChangingEvent);
+        }
+
+    }
+
+    /**
+     * The dependencies of an XPath expression, approximated by the tag names and attribute names it contains. Since an
+     * expression without wildcards or axes can only reach elements by naming them, an event only affects the results
+     * if it adds or removes an element with one of those names or a descendant or ancestor of such an element, changes
+     * one of the attributes of such an element or changes the text content of such an element or its descendants.
+     */
+    private static class XPathFootprint implements Footprint {
+
+        private final Set<String> tagNames;
+        private final Set<String> attributeNames;
+
+        private XPathFootprint(Set<String> tagNames, Set<String> attributeNames) {
+            this.tagNames = tagNames;
+            this.attributeNames = attributeNames;
+        }
+
+        @Nullable
+        private static XPathFootprint of(String xPath) {
+            String expression = STRING_LITERAL.matcher(xPath).replaceAll("''");
+            for (String opaqueToken : OPAQUE_XPATH_TOKENS) {
+                if (expression.contains(opaqueToken)) {
+                    return null;
+                }
+            }
+
+            ImmutableSet.Builder<String> tagNames = ImmutableSet.builder();
+            ImmutableSet.Builder<String> attributeNames = ImmutableSet.builder();
+            Matcher matcher = XPATH_NAME.matcher(expression);
+            while (matcher.find()) {
+                if (!matcher.group(1).isEmpty()) {
+                    attributeNames.add(matcher.group(2));
+                } else if (matcher.group(3) == null) {
+                    // function names are followed by parentheses, operators such as 'and' are kept as harmless names
+                    tagNames.add(matcher.group(2));
+                }
+            }
+
+            XPathFootprint footprint = new XPathFootprint(tagNames.build(), attributeNames.build());
+            // an expression that names no elements, such as '/', cannot be analyzed
+            return footprint.tagNames.isEmpty() ? null : footprint;
+        }
+
+        @Override
+        public boolean readsDocument() {
+            return true;
+        }
+
+        @Override
+        public boolean isAffectedBy(Change change) {
+            if (change.structural) {
+                return anyNamed(change.getSubtree()) || anyNamed(change.getAncestors());
+            }
+
+            if (change.isAttributeChange()) {
+                return attributeNames.contains(change.attributeName) && isNamed(change.getSource());
+            }
+
+            // the text content is part of the string value of all ancestors
+            return isNamed(change.getSource()) || anyNamed(change.getAncestors());
+        }
+
+        private boolean anyNamed(List<XmlElement> elements) {
+            return elements.stream().anyMatch(this::isNamed);
+        }
+
+        private boolean isNamed(XmlElement element) {
+            return tagNames.contains(element.getTagName());
+        }
+
+    }
+
+}
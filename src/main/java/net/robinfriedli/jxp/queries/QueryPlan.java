@@ -0,0 +1,150 @@
+package net.robinfriedli.jxp.queries;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.collections.ElementIndex;
+import net.robinfriedli.jxp.persist.Context;
+import net.robinfriedli.jxp.persist.LazyContext;
+
+/**
+ * Describes how a {@link Query} is executed against a Context: the optimized condition, how the elements to check are
+ * found, which indices are used and how the results are sorted and limited. Returned by {@link Query#explain(Context)},
+ * which looks up the candidates but does not check any element, and included in the {@link QueryStatistics} of a
+ * profiled query. {@link #toString()} lists the properties on separate lines, intended for logging.
+ */
+public class QueryPlan {
+
+    private final Predicate<XmlElement> condition;
+    private final AccessPath accessPath;
+    private final List<ElementIndex> indices;
+    // the elements to check or null if all elements are checked
+    @Nullable
+    private final List<XmlElement> candidates;
+    @Nullable
+    private final Order<?> order;
+    private final long offset;
+    private final long limit;
+    private final boolean parallel;
+
+    QueryPlan(Predicate<XmlElement> condition,
+              AccessPath accessPath,
+              List<ElementIndex> indices,
+              @Nullable List<XmlElement> candidates,
+              @Nullable Order<?> order,
+              long offset,
+              long limit,
+              boolean parallel) {
+        this.condition = condition;
+        this.accessPath = accessPath;
+        this.indices = indices;
+        this.candidates = candidates;
+        this.order = order;
+        this.offset = offset;
+        this.limit = limit;
+        this.parallel = parallel;
+    }
+
+    /**
+     * @return the condition after being rewritten by {@link QueryPlanner#optimize(Predicate)}
+     */
+    public Predicate<XmlElement> getCondition() {
+        return condition;
+    }
+
+    public AccessPath getAccessPath() {
+        return accessPath;
+    }
+
+    /**
+     * @return the indices used to find the candidates, empty unless the access path is {@link AccessPath#INDEX}
+     */
+    public List<ElementIndex> getIndices() {
+        return Collections.unmodifiableList(indices);
+    }
+
+    /**
+     * @return the amount of elements that are checked against the condition or -1 if all elements of the Context are
+     * checked, in which case the amount is only known once the query has been executed
+     */
+    public long getCandidateCount() {
+        return candidates != null ? candidates.size() : -1;
+    }
+
+    @Nullable
+    public Order<?> getOrder() {
+        return order;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the maximum amount of results or -1 if there is no limit
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * @return true if only the first offset + limit results are retained in a bounded heap when sorting, rather than
+     * sorting all results
+     */
+    public boolean isBoundedSort() {
+        return order != null && limit >= 0 && offset + limit <= Integer.MAX_VALUE;
+    }
+
+    @Nullable
+    List<XmlElement> getCandidates() {
+        return candidates;
+    }
+
+    @Override
+    public String toString() {
+        String sort;
+        if (order == null) {
+            sort = "none";
+        } else if (isBoundedSort()) {
+            sort = "bounded heap of " + (offset + limit) + " results";
+        } else {
+            sort = "all results";
+        }
+
+        return "condition: " + condition + System.lineSeparator()
+            + "access path: " + accessPath + (indices.isEmpty() ? "" : " using " + indices) + System.lineSeparator()
+            + "candidates: " + (candidates != null ? String.valueOf(candidates.size()) : "all elements") + System.lineSeparator()
+            + "sort: " + sort + System.lineSeparator()
+            + "offset: " + offset + System.lineSeparator()
+            + "limit: " + (limit >= 0 ? String.valueOf(limit) : "none") + System.lineSeparator()
+            + "parallel: " + parallel;
+    }
+
+    public enum AccessPath {
+
+        /**
+         * The candidates are found using the indices of the Context, see
+         * {@link QueryPlanner#findCandidates(Predicate, List, List, net.robinfriedli.jxp.collections.ElementTypeIndex)}
+         */
+        INDEX,
+        /**
+         * The candidates are found by the Context, see {@link Context.Internals#findCandidates(Predicate)}, e.g. by
+         * the XPath query a {@link LazyContext} translates the condition to
+         */
+        CONTEXT,
+        /**
+         * All elements of the Context are checked
+         */
+        FULL_SCAN
+
+    }
+
+}
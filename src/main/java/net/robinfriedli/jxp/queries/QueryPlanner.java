@@ -0,0 +1,386 @@
+package net.robinfriedli.jxp.queries;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.collections.AttributeIndex;
+import net.robinfriedli.jxp.collections.ElementIndex;
+import net.robinfriedli.jxp.collections.ElementTypeIndex;
+import net.robinfriedli.jxp.collections.FullTextIndex;
+
+/**
+ * Analyzes the predicate trees built using {@link Conditions} to determine how a {@link Query} is executed. This
+ * rewrites the condition so that cheap and selective checks run first and finds the {@link AttributeIndex},
+ * {@link FullTextIndex} and {@link ElementTypeIndex} lookups that can limit the elements that need to be checked at
+ * all. Predicates that are not created by {@link Conditions}, e.g. plain lambdas, cannot be analyzed and are checked in
+ * the order they were provided in, after all predicates that can be analyzed.
+ */
+public final class QueryPlanner {
+
+    private static final int UNKNOWN_COST = Integer.MAX_VALUE;
+
+    private QueryPlanner() {
+    }
+
+    /**
+     * Rewrite the provided condition to an equivalent condition where nested {@link AndPredicate}s are flattened and
+     * the operands of each {@link CompositePredicate} are ordered by their estimated cost and selectivity, meaning
+     * {@link Conditions#tagName(String)} and {@link Conditions#instanceOf(Class)} checks run first, followed by
+     * attribute comparisons, starting with equality checks.
+     *
+     * @param expression the condition to optimize
+     * @return the optimized condition or the provided condition if it cannot be analyzed
+     */
+    public static Predicate<XmlElement> optimize(Predicate<XmlElement> expression) {
+        if (expression instanceof AndPredicate) {
+            List<Predicate<XmlElement>> operands = Lists.newArrayList();
+            flattenAnd((AndPredicate) expression, operands);
+            return new AndPredicate(sortByCost(operands));
+        } else if (expression instanceof OrPredicate) {
+            return new OrPredicate(sortByCost(optimizeAll(((OrPredicate) expression).getOperands())));
+        } else if (expression instanceof NotPredicate) {
+            return new NotPredicate(sortByCost(optimizeAll(((NotPredicate) expression).getOperands())));
+        }
+
+        return expression;
+    }
+
+    /**
+     * Find the elements that might match the provided condition using the provided indices. For an
+     * {@link AndPredicate} this uses the operand with the smallest index result, for an {@link OrPredicate} this
+     * combines the index results of all operands, which requires all operands to be answered by an index.
+     *
+     * @param expression the condition to find the candidates for
+     * @param indices    the available indices
+     * @return a list containing all elements that match the condition, which might also include elements that do not,
+     * or null if the condition cannot be answered using the provided indices
+     */
+    @Nullable
+    public static List<XmlElement> findCandidates(Predicate<XmlElement> expression, List<AttributeIndex<?>> indices) {
+        return findCandidates(expression, indices, null);
+    }
+
+    /**
+     * Find the elements that might match the provided condition using the provided indices, see
+     * {@link #findCandidates(Predicate, List)}. The {@link ElementTypeIndex} answers {@link TagNamePredicate}s and
+     * {@link InstanceOfPredicate}s.
+     *
+     * @param expression the condition to find the candidates for
+     * @param indices    the available attribute indices
+     * @param typeIndex  the index mapping tag names and types to elements, if available
+     * @return a list containing all elements that match the condition, which might also include elements that do not,
+     * or null if the condition cannot be answered using the provided indices
+     */
+    @Nullable
+    public static List<XmlElement> findCandidates(Predicate<XmlElement> expression, List<AttributeIndex<?>> indices, @Nullable ElementTypeIndex typeIndex) {
+        return findCandidates(expression, indices, Collections.emptyList(), typeIndex);
+    }
+
+    /**
+     * Find the elements that might match the provided condition using the provided indices, see
+     * {@link #findCandidates(Predicate, List, ElementTypeIndex)}. The {@link FullTextIndex}es answer comparisons
+     * using {@link ValueComparator#containsTerm(String)} and the like.
+     *
+     * @param expression      the condition to find the candidates for
+     * @param indices         the available attribute indices
+     * @param fullTextIndices the available full text indices
+     * @param typeIndex       the index mapping tag names and types to elements, if available
+     * @return a list containing all elements that match the condition, which might also include elements that do not,
+     * or null if the condition cannot be answered using the provided indices
+     */
+    @Nullable
+    public static List<XmlElement> findCandidates(Predicate<XmlElement> expression,
+                                                  List<AttributeIndex<?>> indices,
+                                                  List<FullTextIndex> fullTextIndices,
+                                                  @Nullable ElementTypeIndex typeIndex) {
+        IndexLookup lookup = lookup(expression, indices, fullTextIndices, typeIndex);
+        return lookup != null ? lookup.getElements() : null;
+    }
+
+    /**
+     * Find the elements that might match the provided condition using the provided indices, like
+     * {@link #findCandidates(Predicate, List, List, ElementTypeIndex)}, also returning the indices that were used.
+     *
+     * @return the lookup or null if the condition cannot be answered using the provided indices
+     */
+    @Nullable
+    static IndexLookup lookup(Predicate<XmlElement> expression,
+                              List<AttributeIndex<?>> indices,
+                              List<FullTextIndex> fullTextIndices,
+                              @Nullable ElementTypeIndex typeIndex) {
+        if (indices.isEmpty() && fullTextIndices.isEmpty() && typeIndex == null) {
+            return null;
+        }
+
+        return findCandidates(expression, null, new Indices(indices, fullTextIndices, typeIndex));
+    }
+
+    /**
+     * Find an index that holds the values of the provided attribute, converted to the provided type, for all elements
+     * the provided condition might match, used to compute aggregates over the matching elements from the values held
+     * by the index. This is the case for an index without tag name or an index for the tag name the condition is
+     * restricted to using {@link Conditions#tagName(String)}.
+     *
+     * @param expression    the condition of the aggregated query
+     * @param attributeName the aggregated attribute
+     * @param type          the type the values are compared as
+     * @param sorted        whether the index has to be sorted, see {@link AttributeIndex#isSorted()}
+     * @param indices       the available indices
+     * @return the found index or null if no index covers the condition
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    static <T> AttributeIndex<T> findAggregationIndex(Predicate<XmlElement> expression,
+                                                      String attributeName,
+                                                      Class<T> type,
+                                                      boolean sorted,
+                                                      List<AttributeIndex<?>> indices) {
+        String tagName = getRequiredTagName(expression);
+        for (AttributeIndex<?> index : indices) {
+            if (index.getAttributeName().equals(attributeName)
+                && index.getType() == type
+                && (!sorted || index.isSorted())
+                && (index.getTagName() == null || index.getTagName().equals(tagName))) {
+                return (AttributeIndex<T>) index;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the tag name all elements matching the provided condition have or null if it is not restricted to one
+     */
+    @Nullable
+    private static String getRequiredTagName(Predicate<XmlElement> expression) {
+        if (expression instanceof TagNamePredicate) {
+            return ((TagNamePredicate) expression).getTagName();
+        } else if (expression instanceof AndPredicate) {
+            for (Predicate<XmlElement> operand : ((AndPredicate) expression).getOperands()) {
+                String tagName = getRequiredTagName(operand);
+                if (tagName != null) {
+                    return tagName;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    @Nullable
+    private static IndexLookup findCandidates(Predicate<XmlElement> expression, @Nullable String tagName, Indices indices) {
+        ElementTypeIndex typeIndex = indices.typeIndex;
+        if (expression instanceof ComparisonPredicate) {
+            return lookup((ComparisonPredicate) expression, tagName, indices);
+        } else if (expression instanceof TagNamePredicate) {
+            return typeIndex != null ? new IndexLookup(typeIndex.getElementsWithTagName(((TagNamePredicate) expression).getTagName()), typeIndex) : null;
+        } else if (expression instanceof InstanceOfPredicate) {
+            if (typeIndex == null) {
+                return null;
+            }
+
+            @SuppressWarnings("unchecked")
+            List<XmlElement> instances = (List<XmlElement>) typeIndex.getInstancesOf(((InstanceOfPredicate) expression).getType());
+            return instances != null ? new IndexLookup(instances, typeIndex) : null;
+        } else if (expression instanceof AndPredicate) {
+            List<Predicate<XmlElement>> operands = ((AndPredicate) expression).getOperands();
+            String restrictedTagName = operands.stream()
+                .filter(operand -> operand instanceof TagNamePredicate)
+                .map(operand -> ((TagNamePredicate) operand).getTagName())
+                .findFirst()
+                .orElse(tagName);
+
+            IndexLookup candidates = null;
+            for (Predicate<XmlElement> operand : operands) {
+                candidates = smaller(candidates, findCandidates(operand, restrictedTagName, indices));
+            }
+
+            return candidates;
+        } else if (expression instanceof OrPredicate) {
+            Set<XmlElement> candidates = Sets.newIdentityHashSet();
+            ImmutableList.Builder<XmlElement> builder = ImmutableList.builder();
+            ImmutableList.Builder<ElementIndex> usedIndices = ImmutableList.builder();
+            for (Predicate<XmlElement> operand : ((OrPredicate) expression).getOperands()) {
+                IndexLookup found = findCandidates(operand, tagName, indices);
+                if (found == null) {
+                    return null;
+                }
+
+                for (XmlElement element : found.getElements()) {
+                    if (candidates.add(element)) {
+                        builder.add(element);
+                    }
+                }
+                usedIndices.addAll(found.getIndices());
+            }
+
+            return new IndexLookup(builder.build(), usedIndices.build());
+        }
+
+        return null;
+    }
+
+    /**
+     * Find the smallest result returned by an index that covers all elements the predicate might match, i.e. an index
+     * without tag name or, if the query is restricted to elements with the given tag name, an index for that tag name.
+     */
+    @Nullable
+    private static IndexLookup lookup(ComparisonPredicate predicate, @Nullable String tagName, Indices indices) {
+        IndexLookup candidates = null;
+        for (AttributeIndex<?> index : indices.attributeIndices) {
+            if (index.getTagName() == null || index.getTagName().equals(tagName)) {
+                candidates = smaller(candidates, IndexLookup.of(predicate.lookup(index), index));
+            }
+        }
+        for (FullTextIndex index : indices.fullTextIndices) {
+            if (index.getTagName() == null || index.getTagName().equals(tagName)) {
+                candidates = smaller(candidates, IndexLookup.of(predicate.lookup(index), index));
+            }
+        }
+
+        return candidates;
+    }
+
+    @Nullable
+    private static IndexLookup smaller(@Nullable IndexLookup candidates, @Nullable IndexLookup found) {
+        return found != null && (candidates == null || found.getElements().size() < candidates.getElements().size()) ? found : candidates;
+    }
+
+    private static void flattenAnd(AndPredicate andPredicate, List<Predicate<XmlElement>> operands) {
+        for (Predicate<XmlElement> operand : andPredicate.getOperands()) {
+            if (operand instanceof AndPredicate) {
+                flattenAnd((AndPredicate) operand, operands);
+            } else {
+                operands.add(optimize(operand));
+            }
+        }
+    }
+
+    private static List<Predicate<XmlElement>> optimizeAll(List<Predicate<XmlElement>> predicates) {
+        List<Predicate<XmlElement>> optimized = Lists.newArrayListWithCapacity(predicates.size());
+        for (Predicate<XmlElement> predicate : predicates) {
+            optimized.add(optimize(predicate));
+        }
+        return optimized;
+    }
+
+    // List#sort is stable, so predicates that cannot be analyzed keep their relative order
+    private static List<Predicate<XmlElement>> sortByCost(List<Predicate<XmlElement>> predicates) {
+        List<Predicate<XmlElement>> sorted = Lists.newArrayList(predicates);
+        sorted.sort(Comparator.comparingInt(QueryPlanner::estimateCost));
+        return ImmutableList.copyOf(sorted);
+    }
+
+    /**
+     * Estimate the cost of checking the provided predicate, where lower values are cheaper or expected to exclude more
+     * elements.
+     */
+    private static int estimateCost(Predicate<XmlElement> predicate) {
+        if (predicate instanceof TagNamePredicate || predicate instanceof InstanceOfPredicate) {
+            return 0;
+        } else if (predicate instanceof ComparisonPredicate) {
+            ComparisonPredicate comparison = (ComparisonPredicate) predicate;
+            // getting the text content requires collecting all text nodes
+            int sourceCost = comparison.getSource() == ValueComparator.Source.TEXT_CONTENT ? 4 : 0;
+            return sourceCost + estimateCost(comparison.getOperator());
+        } else if (predicate instanceof CompositePredicate) {
+            int maxCost = 0;
+            for (Predicate<XmlElement> operand : ((CompositePredicate) predicate).getOperands()) {
+                int cost = estimateCost(operand);
+                if (cost == UNKNOWN_COST) {
+                    return UNKNOWN_COST;
+                }
+                maxCost = Math.max(maxCost, cost);
+            }
+            return maxCost + 1;
+        }
+
+        return UNKNOWN_COST;
+    }
+
+    private static int estimateCost(ComparisonPredicate.Operator operator) {
+        switch (operator) {
+            case IS:
+                return 1;
+            case IN:
+            case FUZZY_IS:
+                return 2;
+            case GREATER_THAN:
+            case GREATER_EQUALS:
+            case LOWER_THAN:
+            case LOWER_EQUALS:
+                return 3;
+            case STARTS_WITH:
+            case ENDS_WITH:
+            case CONTAINS:
+                return 4;
+            case CONTAINS_TERM:
+            case CONTAINS_TERM_WITH_PREFIX:
+            case CONTAINS_ALL_TERMS:
+                // splitting the value into terms
+                return 5;
+            case IS_EMPTY:
+                return 6;
+            default:
+                // MATCHES runs an arbitrary function that may rely on opaque predicates checked before it
+                return UNKNOWN_COST;
+        }
+    }
+
+    private static class Indices {
+
+        private final List<AttributeIndex<?>> attributeIndices;
+        private final List<FullTextIndex> fullTextIndices;
+        @Nullable
+        private final ElementTypeIndex typeIndex;
+
+        private Indices(List<AttributeIndex<?>> attributeIndices, List<FullTextIndex> fullTextIndices, @Nullable ElementTypeIndex typeIndex) {
+            this.attributeIndices = attributeIndices;
+            this.fullTextIndices = fullTextIndices;
+            this.typeIndex = typeIndex;
+        }
+
+    }
+
+    /**
+     * The elements found by looking up a condition in the available indices and the indices that were used.
+     */
+    static class IndexLookup {
+
+        private final List<XmlElement> elements;
+        private final List<ElementIndex> indices;
+
+        private IndexLookup(List<XmlElement> elements, ElementIndex index) {
+            this(elements, Collections.singletonList(index));
+        }
+
+        private IndexLookup(List<XmlElement> elements, List<ElementIndex> indices) {
+            this.elements = elements;
+            this.indices = indices;
+        }
+
+        @Nullable
+        private static IndexLookup of(@Nullable List<XmlElement> elements, ElementIndex index) {
+            return elements != null ? new IndexLookup(elements, index) : null;
+        }
+
+        List<XmlElement> getElements() {
+            return elements;
+        }
+
+        List<ElementIndex> getIndices() {
+            return indices;
+        }
+
+    }
+
+}
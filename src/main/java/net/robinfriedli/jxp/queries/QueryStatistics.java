@@ -0,0 +1,253 @@
+package net.robinfriedli.jxp.queries;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableList;
+import net.robinfriedli.jxp.api.StaticXmlElementFactory;
+import net.robinfriedli.jxp.api.StringConverter;
+import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.persist.Context;
+import net.robinfriedli.jxp.persist.LazyContext;
+
+/**
+ * Execution statistics of a {@link Query} executed with {@link Query#profile()} enabled, available via
+ * {@link ResultStream#getStatistics()} once a terminal operation of the returned stream has been executed. Records how
+ * many elements were checked and matched, how many times the predicates of the condition were evaluated, how many
+ * elements were instantiated, which matters for a {@link LazyContext}, how many values were converted by the
+ * {@link StringConverter}, how many elements were sorted and the wall time spent in each {@link Stage}.
+ * {@link #toString()} lists the statistics on separate lines, intended for logging.
+ * <p>
+ * Instantiations are recorded for the thread executing the query, so for queries executed using
+ * {@link Query#parallel()} those happening in the threads of the pool are not counted.
+ */
+public class QueryStatistics {
+
+    private static final ThreadLocal<QueryStatistics> CURRENT = new ThreadLocal<>();
+    // the amount of threads currently recording statistics, checked before the thread local so that the hooks cost as
+    // little as possible when no query is profiled
+    private static final AtomicInteger RECORDING_THREADS = new AtomicInteger();
+
+    @Nullable
+    private volatile QueryPlan plan;
+    private final LongAdder elementsVisited = new LongAdder();
+    private final LongAdder matches = new LongAdder();
+    private final LongAdder predicateEvaluations = new LongAdder();
+    private final LongAdder elementsInstantiated = new LongAdder();
+    private final LongAdder conversions = new LongAdder();
+    private final LongAdder sortedElements = new LongAdder();
+    private final Map<Stage, LongAdder> stageNanos = new EnumMap<>(Stage.class);
+
+    QueryStatistics() {
+        for (Stage stage : Stage.values()) {
+            stageNanos.put(stage, new LongAdder());
+        }
+    }
+
+    /**
+     * Called by the {@link StaticXmlElementFactory} whenever it instantiates an XmlElement for a DOM element.
+     */
+    public static void recordInstantiation() {
+        QueryStatistics statistics = current();
+        if (statistics != null) {
+            statistics.elementsInstantiated.increment();
+        }
+    }
+
+    @Nullable
+    private static QueryStatistics current() {
+        return RECORDING_THREADS.get() > 0 ? CURRENT.get() : null;
+    }
+
+    /**
+     * @return the plan of the query or null if the query was not executed against a Context
+     */
+    @Nullable
+    public QueryPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * @return the amount of elements checked against the condition
+     */
+    public long getElementsVisited() {
+        return elementsVisited.sum();
+    }
+
+    /**
+     * @return the amount of checked elements that matched the condition, which may exceed the amount of results if an
+     * offset or limit is applied
+     */
+    public long getMatches() {
+        return matches.sum();
+    }
+
+    /**
+     * @return the amount of times a predicate of the condition, not counting {@link CompositePredicate}s, was
+     * evaluated
+     */
+    public long getPredicateEvaluations() {
+        return predicateEvaluations.sum();
+    }
+
+    /**
+     * @return the amount of XmlElements instantiated while planning and executing the query, which is 0 for a
+     * {@link net.robinfriedli.jxp.persist.CachedContext}
+     */
+    public long getElementsInstantiated() {
+        return elementsInstantiated.sum();
+    }
+
+    /**
+     * @return the amount of values converted by the {@link StringConverter} when checking the {@link ComparisonPredicate}s
+     * of the condition and extracting the sort keys of the {@link Order}, not counting conversions answered by the cache
+     * of an {@link net.robinfriedli.jxp.api.XmlAttribute} or made by other predicates
+     */
+    public long getConversions() {
+        return conversions.sum();
+    }
+
+    /**
+     * @return the amount of matching elements that were sorted
+     */
+    public long getSortedElements() {
+        return sortedElements.sum();
+    }
+
+    /**
+     * @param stage the stage of the query
+     * @return the wall time spent in the provided stage in nanoseconds
+     */
+    public long getNanos(Stage stage) {
+        return stageNanos.get(stage).sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        QueryPlan plan = this.plan;
+        if (plan != null) {
+            builder.append(plan).append(System.lineSeparator());
+        }
+
+        builder.append("elements visited: ").append(getElementsVisited()).append(System.lineSeparator())
+            .append("matches: ").append(getMatches()).append(System.lineSeparator())
+            .append("predicate evaluations: ").append(getPredicateEvaluations()).append(System.lineSeparator())
+            .append("elements instantiated: ").append(getElementsInstantiated()).append(System.lineSeparator())
+            .append("conversions: ").append(getConversions()).append(System.lineSeparator())
+            .append("sorted elements: ").append(getSortedElements());
+        for (Stage stage : Stage.values()) {
+            builder.append(System.lineSeparator())
+                .append(stage.name().toLowerCase(Locale.ROOT))
+                .append(": ")
+                .append(String.format(Locale.ROOT, "%.3f ms", getNanos(stage) / 1_000_000d));
+        }
+        return builder.toString();
+    }
+
+    void setPlan(QueryPlan plan) {
+        this.plan = plan;
+    }
+
+    /**
+     * Run the provided operation, recording instantiations and conversions happening in the current thread and adding
+     * the elapsed time to the provided stage.
+     */
+    <R> R record(Stage stage, Supplier<R> operation) {
+        QueryStatistics previous = CURRENT.get();
+        CURRENT.set(this);
+        RECORDING_THREADS.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return operation.get();
+        } finally {
+            stageNanos.get(stage).add(System.nanoTime() - start);
+            RECORDING_THREADS.decrementAndGet();
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    void recordConversions(int count) {
+        conversions.add(count);
+    }
+
+    void recordSorted() {
+        sortedElements.increment();
+    }
+
+    /**
+     * @return a condition equivalent to the provided condition that counts the checked and matching elements and the
+     * evaluations of each predicate
+     */
+    Predicate<XmlElement> instrument(Predicate<XmlElement> condition) {
+        Predicate<XmlElement> counting = countEvaluations(condition);
+        return element -> {
+            elementsVisited.increment();
+            boolean match = counting.test(element);
+            if (match) {
+                matches.increment();
+            }
+            return match;
+        };
+    }
+
+    private Predicate<XmlElement> countEvaluations(Predicate<XmlElement> predicate) {
+        if (predicate instanceof CompositePredicate) {
+            ImmutableList.Builder<Predicate<XmlElement>> builder = ImmutableList.builder();
+            for (Predicate<XmlElement> operand : ((CompositePredicate) predicate).getOperands()) {
+                builder.add(countEvaluations(operand));
+            }
+
+            List<Predicate<XmlElement>> operands = builder.build();
+            if (predicate instanceof AndPredicate) {
+                return new AndPredicate(operands);
+            } else if (predicate instanceof OrPredicate) {
+                return new OrPredicate(operands);
+            } else if (predicate instanceof NotPredicate) {
+                return new NotPredicate(operands);
+            }
+        }
+
+        if (predicate instanceof ComparisonPredicate) {
+            ComparisonPredicate comparison = (ComparisonPredicate) predicate;
+            return element -> {
+                predicateEvaluations.increment();
+                if (comparison.converts(element)) {
+                    conversions.increment();
+                }
+                return comparison.test(element);
+            };
+        }
+
+        return element -> {
+            predicateEvaluations.increment();
+            return predicate.test(element);
+        };
+    }
+
+    public enum Stage {
+
+        /**
+         * Finding the elements to check, e.g. using the indices of the Context, see {@link Query#explain(Context)}
+         */
+        PLANNING,
+        /**
+         * Executing the terminal operation of the {@link ResultStream}, which checks, sorts and collects the elements
+         */
+        EXECUTION
+
+    }
+
+}
@@ -1,32 +1,86 @@
 package net.robinfriedli.jxp.queries;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.DoubleSummaryStatistics;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BinaryOperator;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.annotation.Nullable;
 
 import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.collections.AttributeIndex;
+import net.robinfriedli.jxp.exceptions.ConversionException;
 import net.robinfriedli.jxp.exceptions.QueryException;
 
 /**
- * The filtered and sorted stream a query returns. All of these methods, except {@link #getResultStream()}, are terminal
+ * The filtered and sorted stream a query returns. All of these methods, except {@link #getResultStream()} and the
+ * methods that configure the stream, such as {@link #order(Order)} and {@link #limit(long)}, are terminal
  * operations, meaning only one of these methods can get called on the same stream instance once. If you need to call
  * several of these methods, see {@link QueryResult} and {@link #getResult()} which collects the results to a collection
  * and offers similar methods.
+ * <p>
+ * Regardless of the order in which they are configured, the results are first sorted, then the offset is skipped and
+ * then the results are limited. When a limit is combined with an {@link Order} only the first offset + limit results
+ * are retained in a bounded heap instead of sorting all results, the same goes for {@link #getFirstResult()}.
+ * <p>
+ * The aggregate operations, such as {@link #sum(String)} or {@link #groupBy(String, Class)}, read the attribute values
+ * of the results while streaming them, without collecting the results, and use the cached conversion of each
+ * attribute value. If the stream contains the elements of a Context matching a query, as returned by
+ * {@link Query#execute(net.robinfriedli.jxp.persist.Context)}, and no order, offset or limit is configured,
+ * {@link #min(String, Class)}, {@link #max(String, Class)} and {@link #groupBy(String, Class)} are answered using an
+ * {@link AttributeIndex} on the aggregated attribute if one covers the query.
  *
  * @param <E> the type of XmlElements this stream holds
  */
 public class ResultStream<E extends XmlElement> {
 
-    private Stream<E> resultStream;
+    private final Stream<E> resultStream;
+    @Nullable
+    private final ForkJoinPool pool;
+    @Nullable
+    private Order<?> order;
+    private long offset;
+    private long limit = -1;
+    private boolean keyset;
+    @Nullable
+    private XmlElement after;
     private boolean terminated;
+    // the condition and attribute indices of the query if this stream contains the elements of a Context matching the
+    // condition, used to answer aggregates using an index
+    @Nullable
+    private Predicate<XmlElement> condition;
+    private List<AttributeIndex<?>> indices = Collections.emptyList();
+    @Nullable
+    private Class<E> type;
+    @Nullable
+    private QueryStatistics statistics;
 
     public ResultStream(Stream<E> resultStream) {
+        this(resultStream, null);
+    }
+
+    /**
+     * @param resultStream the stream of results
+     * @param pool the pool to execute the terminal operations in, for parallel streams, or null to execute them in the
+     *             calling thread
+     */
+    public ResultStream(Stream<E> resultStream, @Nullable ForkJoinPool pool) {
         this.resultStream = resultStream;
+        this.pool = pool;
     }
 
     // terminating operations
@@ -35,7 +89,11 @@ public class ResultStream<E extends XmlElement> {
     public E getFirstResult() {
         checkTerminated();
         terminated = true;
-        return tryCollect(() -> resultStream.findFirst().orElse(null));
+        if (limit != 0) {
+            // only the first result has to be retained when sorting
+            limit = 1;
+        }
+        return tryCollect(() -> getResultStream().findFirst().orElse(null));
     }
 
     public E requireFirstResult() {
@@ -65,7 +123,7 @@ public class ResultStream<E extends XmlElement> {
             }
         );
 
-        return tryCollect(() -> resultStream.collect(onlyResultCollector));
+        return tryCollect(() -> getResultStream().collect(onlyResultCollector));
     }
 
     public E requireOnlyResult() {
@@ -85,7 +143,7 @@ public class ResultStream<E extends XmlElement> {
     public <C extends Collection<E>> C collect(Collector<E, ?, C> collector) {
         checkTerminated();
         terminated = true;
-        return tryCollect(() -> resultStream.collect(collector));
+        return tryCollect(() -> getResultStream().collect(collector));
     }
 
     public QueryResult<E, List<E>> getResult() {
@@ -95,24 +153,292 @@ public class ResultStream<E extends XmlElement> {
     public <C extends Collection<E>> QueryResult<E, C> getResult(Collector<E, ?, C> collector) {
         checkTerminated();
         terminated = true;
-        return tryCollect(() -> new QueryResult<>(resultStream.collect(collector)));
+        return tryCollect(() -> new QueryResult<>(getResultStream().collect(collector)));
     }
 
     public long count() {
         checkTerminated();
         terminated = true;
-        return tryCollect(() -> resultStream.count());
+        return tryCollect(() -> getResultStream().count());
+    }
+
+    /**
+     * @param attributeName the attribute to sum up
+     * @return the sum of the values of the provided attribute, converted to double, of all results where the attribute
+     * exists and can be converted
+     */
+    public double sum(String attributeName) {
+        checkTerminated();
+        terminated = true;
+        return tryCollect(() -> summarize(attributeName).getSum());
+    }
+
+    /**
+     * @param attributeName the attribute to average
+     * @return the average of the values of the provided attribute, converted to double, of all results where the
+     * attribute exists and can be converted or an empty optional if there are none
+     */
+    public OptionalDouble avg(String attributeName) {
+        checkTerminated();
+        terminated = true;
+        DoubleSummaryStatistics statistics = tryCollect(() -> summarize(attributeName));
+        return statistics.getCount() > 0 ? OptionalDouble.of(statistics.getAverage()) : OptionalDouble.empty();
+    }
+
+    /**
+     * @param attributeName the attribute to compare
+     * @param type          the type to convert the values to
+     * @return the lowest value of the provided attribute among all results where the attribute exists and can be
+     * converted or an empty optional if there are none
+     */
+    public <T extends Comparable<? super T>> Optional<T> min(String attributeName, Class<T> type) {
+        return extreme(attributeName, type, false);
+    }
+
+    /**
+     * @param attributeName the attribute to compare
+     * @param type          the type to convert the values to
+     * @return the highest value of the provided attribute among all results where the attribute exists and can be
+     * converted or an empty optional if there are none
+     */
+    public <T extends Comparable<? super T>> Optional<T> max(String attributeName, Class<T> type) {
+        return extreme(attributeName, type, true);
+    }
+
+    /**
+     * Count the results for each value of the provided attribute. Results where the attribute is missing or cannot be
+     * converted are not counted. The iteration order of the returned map is not specified.
+     *
+     * @param attributeName the attribute to group by
+     * @param type          the type to convert the values to
+     * @return the amount of results for each value of the attribute
+     */
+    public <K> Map<K, Long> groupBy(String attributeName, Class<K> type) {
+        checkTerminated();
+        if (canUseIndex()) {
+            AttributeIndex<K> index = QueryPlanner.findAggregationIndex(condition, attributeName, type, false, indices);
+            if (index != null) {
+                terminated = true;
+                return tryCollect(() -> index.countByValue(getIndexCondition()));
+            }
+        }
+
+        return groupBy(attributeName, type, Collectors.counting());
+    }
+
+    /**
+     * Group the results by the value of the provided attribute, aggregating the results of each group using the provided
+     * collector. Results where the attribute is missing or cannot be converted are skipped.
+     *
+     * @param attributeName the attribute to group by
+     * @param type          the type to convert the values to
+     * @param downstream    the collector aggregating the results of each group
+     * @return the aggregate of each group, in the order in which the values were first encountered
+     */
+    public <K, R> Map<K, R> groupBy(String attributeName, Class<K> type, Collector<? super E, ?, R> downstream) {
+        checkTerminated();
+        terminated = true;
+        return tryCollect(() -> getResultStream()
+            .filter(element -> getValue(element, attributeName, type) != null)
+            .collect(Collectors.groupingBy(element -> getValue(element, attributeName, type), LinkedHashMap::new, downstream)));
+    }
+
+    /**
+     * @return the statistics recorded while executing the query if it was executed with {@link Query#profile()}
+     * enabled, else null. The statistics are complete once a terminal operation has been executed.
+     */
+    @Nullable
+    public QueryStatistics getStatistics() {
+        return statistics;
     }
 
     // non terminating operations
 
+    /**
+     * Sort the results by the provided order. If the results are already sorted the provided order takes precedence and
+     * the previous order is used for results that are equal according to the provided order.
+     */
     public ResultStream<E> order(Order<?> order) {
-        resultStream = order.applyOrder(resultStream);
+        this.order = this.order != null ? order.then(this.order) : order;
+        return this;
+    }
+
+    /**
+     * Skip the first n results.
+     */
+    public ResultStream<E> offset(long offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative");
+        }
+
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * Return at most n results.
+     */
+    public ResultStream<E> limit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit must not be negative");
+        }
+
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Return the page with the provided zero-based index, shorthand for setting the offset and limit. See
+     * {@link #after(XmlElement)} for pages that remain stable when results are added or removed.
+     */
+    public ResultStream<E> page(int page, int pageSize) {
+        return offset((long) page * pageSize).limit(pageSize);
+    }
+
+    /**
+     * Keyset pagination: only return results that are sorted after the provided element, which usually is the last
+     * element of the previous page, so that the results of the previous pages do not have to be skipped and pages remain
+     * stable when results are added or removed. To make the position of each element unique, results that are equal
+     * according to the {@link Order} are sorted by their position in the document (see {@link Order#documentOrder()})
+     * once this method has been called, so this method should also be called with null when requesting the first page.
+     * Combine this with {@link #limit(long)} to define the page size.
+     *
+     * @param last the element after which to start or null to request the first page
+     */
+    public ResultStream<E> after(@Nullable XmlElement last) {
+        keyset = true;
+        after = last;
         return this;
     }
 
+    /**
+     * @return the stream of results with the configured order, offset and limit applied. When a limit and order are
+     * configured the bounded heap collecting the results is only filled when executing a terminal operation on the
+     * returned stream.
+     */
     public Stream<E> getResultStream() {
-        return resultStream;
+        Stream<E> stream = resultStream;
+        if (order != null || keyset) {
+            // extract the sort keys of each element once
+            Order<?> order = this.order;
+            if (statistics != null && order != null) {
+                QueryStatistics statistics = this.statistics;
+                stream = stream.peek(element -> statistics.recordConversions(order.countConversions(element)));
+            }
+            Stream<SortKey<E>> keyedStream = stream.map(element -> order != null ? order.extractKeys(element) : SortKey.of(element));
+            Comparator<SortKey<?>> comparator = order != null ? order.getKeyComparator() : null;
+            if (keyset) {
+                Comparator<XmlElement> documentOrder = Order.documentOrder();
+                Comparator<SortKey<?>> documentKeyOrder = (first, second) -> documentOrder.compare(first.getElement(), second.getElement());
+                comparator = comparator != null ? comparator.thenComparing(documentKeyOrder) : documentKeyOrder;
+                if (after != null) {
+                    SortKey<XmlElement> lastKey = order != null ? order.extractKeys(after) : SortKey.of(after);
+                    Comparator<SortKey<?>> keysetComparator = comparator;
+                    keyedStream = keyedStream.filter(sortKey -> keysetComparator.compare(sortKey, lastKey) > 0);
+                }
+            }
+
+            if (statistics != null) {
+                QueryStatistics statistics = this.statistics;
+                keyedStream = keyedStream.peek(sortKey -> statistics.recordSorted());
+            }
+
+            if (limit >= 0 && offset + limit <= Integer.MAX_VALUE) {
+                Stream<SortKey<E>> toCollect = keyedStream;
+                TopKCollector<SortKey<E>> collector = new TopKCollector<>(comparator, (int) (offset + limit));
+                // defer collecting until a terminal operation is executed
+                keyedStream = StreamSupport.stream(
+                    () -> toCollect.collect(collector).spliterator(),
+                    Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED,
+                    toCollect.isParallel()
+                );
+            } else {
+                keyedStream = keyedStream.sorted(comparator);
+            }
+
+            stream = keyedStream.map(SortKey::getElement);
+        }
+
+        if (offset > 0) {
+            stream = stream.skip(offset);
+        }
+
+        if (limit >= 0) {
+            stream = stream.limit(limit);
+        }
+
+        return stream;
+    }
+
+    /**
+     * Enable answering aggregates using the provided indices, called if this stream contains the elements of a Context
+     * matching the provided condition, cast to the provided type.
+     */
+    ResultStream<E> withIndices(Predicate<XmlElement> condition, List<AttributeIndex<?>> indices, Class<E> type) {
+        this.condition = condition;
+        this.indices = indices;
+        this.type = type;
+        return this;
+    }
+
+    void withStatistics(QueryStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    private <T extends Comparable<? super T>> Optional<T> extreme(String attributeName, Class<T> type, boolean max) {
+        checkTerminated();
+        terminated = true;
+        if (canUseIndex()) {
+            AttributeIndex<T> index = QueryPlanner.findAggregationIndex(condition, attributeName, type, true, indices);
+            if (index != null) {
+                Predicate<XmlElement> indexCondition = getIndexCondition();
+                return tryCollect(() -> Optional.ofNullable(max ? index.getMax(indexCondition) : index.getMin(indexCondition)));
+            }
+        }
+
+        Comparator<T> comparator = Comparator.naturalOrder();
+        BinaryOperator<T> reducer = max ? BinaryOperator.maxBy(comparator) : BinaryOperator.minBy(comparator);
+        return tryCollect(() -> getResultStream()
+            .map(element -> getValue(element, attributeName, type))
+            .filter(value -> value != null)
+            .reduce(reducer));
+    }
+
+    private DoubleSummaryStatistics summarize(String attributeName) {
+        return getResultStream().collect(DoubleSummaryStatistics::new, (statistics, element) -> {
+            if (element.hasAttribute(attributeName)) {
+                try {
+                    statistics.accept(element.getAttribute(attributeName).getDouble());
+                } catch (ConversionException ignored) {
+                    // values that cannot be converted are skipped
+                }
+            }
+        }, DoubleSummaryStatistics::combine);
+    }
+
+    @Nullable
+    private static <T> T getValue(XmlElement element, String attributeName, Class<T> type) {
+        if (!element.hasAttribute(attributeName)) {
+            return null;
+        }
+
+        try {
+            return element.getAttribute(attributeName).getValue(type);
+        } catch (ConversionException e) {
+            return null;
+        }
+    }
+
+    // the results are exactly the elements of the Context matching the condition
+    private boolean canUseIndex() {
+        return condition != null && order == null && !keyset && offset == 0 && limit < 0;
+    }
+
+    // casting each checked element preserves the exception thrown when streaming results of the wrong type
+    private Predicate<XmlElement> getIndexCondition() {
+        Predicate<XmlElement> condition = this.condition;
+        Class<E> type = this.type;
+        return element -> condition.test(element) && type.cast(element) != null;
     }
 
     private void checkTerminated() {
@@ -122,8 +448,17 @@ public class ResultStream<E extends XmlElement> {
     }
 
     private <R> R tryCollect(Supplier<R> supplier) {
+        if (statistics != null) {
+            return statistics.record(QueryStatistics.Stage.EXECUTION, () -> doCollect(supplier));
+        }
+
+        return doCollect(supplier);
+    }
+
+    private <R> R doCollect(Supplier<R> supplier) {
         try {
-            return supplier.get();
+            // a parallel stream executes its tasks in the pool of the thread executing the terminal operation
+            return pool != null ? pool.submit(supplier::get).join() : supplier.get();
         } catch (ClassCastException e) {
             throw new QueryException("Some found elements could not be converted to the target type. " +
                 "Consider expanding your query with the Conditions#instanceOf condition.", e);
@@ -0,0 +1,76 @@
+package net.robinfriedli.jxp.queries;
+
+import javax.annotation.Nullable;
+
+import net.robinfriedli.jxp.api.XmlElement;
+
+/**
+ * Holds the keys an {@link Order} extracted from an element so that each key is only read and converted once when
+ * sorting rather than for every comparison. The key of each level of the order is stored at the level's index in the
+ * array matching its {@link Order.KeyType}, numeric keys are stored as primitives to avoid boxing.
+ *
+ * @param <E> the type of the element
+ */
+final class SortKey<E extends XmlElement> {
+
+    private final E element;
+    @Nullable
+    private final long[] longKeys;
+    @Nullable
+    private final double[] doubleKeys;
+    @Nullable
+    private final Object[] objectKeys;
+    // bit i is set if the key at index i is null
+    private long nullKeys;
+
+    SortKey(E element, int levels, boolean hasLongKeys, boolean hasDoubleKeys, boolean hasObjectKeys) {
+        this.element = element;
+        longKeys = hasLongKeys ? new long[levels] : null;
+        doubleKeys = hasDoubleKeys ? new double[levels] : null;
+        objectKeys = hasObjectKeys ? new Object[levels] : null;
+    }
+
+    /**
+     * @return a SortKey without keys, used to sort elements by their position in the document
+     */
+    static <E extends XmlElement> SortKey<E> of(E element) {
+        return new SortKey<>(element, 0, false, false, false);
+    }
+
+    E getElement() {
+        return element;
+    }
+
+    long getLong(int index) {
+        return longKeys[index];
+    }
+
+    double getDouble(int index) {
+        return doubleKeys[index];
+    }
+
+    Object getObject(int index) {
+        return objectKeys[index];
+    }
+
+    boolean isNull(int index) {
+        return (nullKeys & (1L << index)) != 0;
+    }
+
+    void setLong(int index, long key) {
+        longKeys[index] = key;
+    }
+
+    void setDouble(int index, double key) {
+        doubleKeys[index] = key;
+    }
+
+    void setObject(int index, Object key) {
+        objectKeys[index] = key;
+    }
+
+    void setNull(int index) {
+        nullKeys |= 1L << index;
+    }
+
+}
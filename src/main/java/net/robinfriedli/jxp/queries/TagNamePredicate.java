@@ -0,0 +1,50 @@
+package net.robinfriedli.jxp.queries;
+
+import java.util.function.Predicate;
+
+import net.robinfriedli.jxp.api.XmlElement;
+
+/**
+ * Predicate created by {@link Conditions#tagName(String)} that exposes the tag name it checks, enabling the
+ * {@link QueryPlanner} to use an index that only contains elements with this tag name.
+ */
+public class TagNamePredicate implements Predicate<XmlElement> {
+
+    private final String tagName;
+
+    TagNamePredicate(String tagName) {
+        this.tagName = tagName;
+    }
+
+    @Override
+    public boolean test(XmlElement element) {
+        return element.getTagName().equals(tagName);
+    }
+
+    public String getTagName() {
+        return tagName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        return tagName.equals(((TagNamePredicate) o).tagName);
+    }
+
+    @Override
+    public int hashCode() {
+        return tagName.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "tagName(\"" + tagName + "\")";
+    }
+
+}
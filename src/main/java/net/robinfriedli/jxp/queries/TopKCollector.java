@@ -0,0 +1,125 @@
+package net.robinfriedli.jxp.queries;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+/**
+ * Collects the k smallest elements of a stream according to the provided comparator, sorted, in O(n log k) time and
+ * O(k) space using a bounded max-heap instead of sorting the entire stream. Like {@link java.util.stream.Stream#sorted()}
+ * the result is stable: elements that are equal according to the comparator remain in encounter order, which also holds
+ * for parallel streams since the combiner treats the elements of the right heap as following the elements of the left
+ * heap.
+ *
+ * @param <E> the type of the collected elements
+ */
+final class TopKCollector<E> implements Collector<E, TopKCollector.Heap<E>, List<E>> {
+
+    private final Comparator<? super E> comparator;
+    private final int k;
+
+    TopKCollector(Comparator<? super E> comparator, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative");
+        }
+
+        this.comparator = comparator;
+        this.k = k;
+    }
+
+    @Override
+    public Supplier<Heap<E>> supplier() {
+        return () -> new Heap<>(comparator, k);
+    }
+
+    @Override
+    public BiConsumer<Heap<E>, E> accumulator() {
+        return Heap::add;
+    }
+
+    @Override
+    public BinaryOperator<Heap<E>> combiner() {
+        return Heap::merge;
+    }
+
+    @Override
+    public Function<Heap<E>, List<E>> finisher() {
+        return Heap::toSortedList;
+    }
+
+    @Override
+    public Set<Characteristics> characteristics() {
+        return Collections.emptySet();
+    }
+
+    static class Heap<E> {
+
+        private final Comparator<Entry<E>> entryComparator;
+        private final int k;
+        // ordered so that the head is the greatest retained entry, i.e. the first one to be evicted
+        private final PriorityQueue<Entry<E>> queue;
+        // the number of elements offered to this heap, used as the sequence number of the next element
+        private long count;
+
+        private Heap(Comparator<? super E> comparator, int k) {
+            Comparator<Entry<E>> entryComparator = (a, b) -> comparator.compare(a.element, b.element);
+            this.entryComparator = entryComparator.thenComparingLong(entry -> entry.sequence);
+            this.k = k;
+            queue = new PriorityQueue<>(Math.max(1, Math.min(k, 1024)), this.entryComparator.reversed());
+        }
+
+        private void add(E element) {
+            offer(new Entry<>(element, count++));
+        }
+
+        private Heap<E> merge(Heap<E> other) {
+            for (Entry<E> entry : other.queue) {
+                offer(new Entry<>(entry.element, count + entry.sequence));
+            }
+            count += other.count;
+            return this;
+        }
+
+        private void offer(Entry<E> entry) {
+            if (queue.size() < k) {
+                queue.offer(entry);
+            } else if (k > 0 && entryComparator.compare(entry, queue.peek()) < 0) {
+                queue.poll();
+                queue.offer(entry);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<E> toSortedList() {
+            Entry<E>[] entries = queue.toArray(new Entry[0]);
+            Arrays.sort(entries, entryComparator);
+            Object[] elements = new Object[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                elements[i] = entries[i].element;
+            }
+            return (List<E>) Arrays.asList(elements);
+        }
+
+    }
+
+    private static class Entry<E> {
+
+        private final E element;
+        private final long sequence;
+
+        private Entry(E element, long sequence) {
+            this.element = element;
+            this.sequence = sequence;
+        }
+
+    }
+
+}
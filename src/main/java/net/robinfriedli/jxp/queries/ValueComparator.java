@@ -1,15 +1,19 @@
 package net.robinfriedli.jxp.queries;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
 import javax.annotation.Nullable;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import net.robinfriedli.jxp.api.StringConverter;
 import net.robinfriedli.jxp.api.XmlElement;
-import net.robinfriedli.jxp.exceptions.ConversionException;
+import net.robinfriedli.jxp.collections.FullTextIndex;
 
 public final class ValueComparator {
 
@@ -34,88 +38,150 @@ public final class ValueComparator {
     }
 
     public <E> Predicate<XmlElement> is(E value) {
-        if (value instanceof String) {
-            return predicate(value::equals);
+        if (value == null) {
+            // no value equals null
+            return predicate(ComparisonPredicate.Operator.IS, null, val -> false);
+        } else if (value instanceof String) {
+            return predicate(ComparisonPredicate.Operator.IS, value, value::equals);
         } else {
-            return predicate(val -> StringConverter.convert(val, value.getClass()).equals(value));
+            return predicate(ComparisonPredicate.Operator.IS, value, val -> StringConverter.convert(val, value.getClass()).equals(value), value::equals);
         }
     }
 
     public Predicate<XmlElement> fuzzyIs(String s) {
-        return predicate(s::equalsIgnoreCase);
+        return predicate(ComparisonPredicate.Operator.FUZZY_IS, s, s::equalsIgnoreCase);
     }
 
     @SuppressWarnings("SuspiciousMethodCalls")
     @SafeVarargs
     public final <E> Predicate<XmlElement> in(E... values) {
+        List<Object> valueList = Collections.unmodifiableList(Arrays.asList(values));
+        Class<?> valueType = values.getClass().getComponentType();
         if (values instanceof String[]) {
-            return predicate(value -> Arrays.asList((String[]) values).contains(value));
+            return new ComparisonPredicate(source, attributeName, ComparisonPredicate.Operator.IN, valueList, valueType, valueList::contains);
         } else {
-            return predicate(value -> Arrays.asList(values).contains(StringConverter.convert(value, values.getClass().getComponentType())));
+            return new ComparisonPredicate(source, attributeName, ComparisonPredicate.Operator.IN, valueList, valueType,
+                value -> valueList.contains(StringConverter.convert(value, valueType)), valueList::contains);
         }
     }
 
     public Predicate<XmlElement> isEmpty() {
-        return predicate(Strings::isNullOrEmpty);
+        return predicate(ComparisonPredicate.Operator.IS_EMPTY, Strings::isNullOrEmpty);
     }
 
     @SuppressWarnings("unchecked")
     public Predicate<XmlElement> greaterThan(Comparable<? extends Number> i) {
-        return predicate(value -> StringConverter.convert(value, i.getClass()).compareTo(i) > 0);
+        return predicate(ComparisonPredicate.Operator.GREATER_THAN, i, value -> compareConverted(value, i) > 0,
+            value -> ((Comparable) value).compareTo(i) > 0);
     }
 
     @SuppressWarnings("unchecked")
     public Predicate<XmlElement> greaterEquals(Comparable<? extends Number> i) {
-        return predicate(value -> StringConverter.convert(value, i.getClass()).compareTo(i) >= 0);
+        return predicate(ComparisonPredicate.Operator.GREATER_EQUALS, i, value -> compareConverted(value, i) >= 0,
+            value -> ((Comparable) value).compareTo(i) >= 0);
     }
 
     @SuppressWarnings("unchecked")
     public Predicate<XmlElement> lowerThan(Comparable<? extends Number> i) {
-        return predicate(value -> StringConverter.convert(value, i.getClass()).compareTo(i) < 0);
+        return predicate(ComparisonPredicate.Operator.LOWER_THAN, i, value -> compareConverted(value, i) < 0,
+            value -> ((Comparable) value).compareTo(i) < 0);
     }
 
     @SuppressWarnings("unchecked")
     public Predicate<XmlElement> lowerEquals(Comparable<? extends Number> i) {
-        return predicate(value -> StringConverter.convert(value, i.getClass()).compareTo(i) <= 0);
+        return predicate(ComparisonPredicate.Operator.LOWER_EQUALS, i, value -> compareConverted(value, i) <= 0,
+            value -> ((Comparable) value).compareTo(i) <= 0);
     }
 
     public Predicate<XmlElement> startsWith(String s) {
-        return predicate(value -> value.startsWith(s));
+        return predicate(ComparisonPredicate.Operator.STARTS_WITH, s, value -> value.startsWith(s));
     }
 
     public Predicate<XmlElement> endsWith(String s) {
-        return predicate(value -> value.endsWith(s));
+        return predicate(ComparisonPredicate.Operator.ENDS_WITH, s, value -> value.endsWith(s));
     }
 
     public Predicate<XmlElement> contains(String s) {
-        return predicate(value -> value.contains(s));
+        return predicate(ComparisonPredicate.Operator.CONTAINS, s, value -> value.contains(s));
+    }
+
+    /**
+     * Check whether the value contains the provided term, where terms are the case insensitive words the value is
+     * split into by {@link FullTextIndex#tokenize(String)}. Unlike {@link #contains(String)} this only matches whole
+     * words and can be answered by a {@link FullTextIndex}.
+     *
+     * @param term the term to find
+     */
+    public Predicate<XmlElement> containsTerm(String term) {
+        String normalizedTerm = FullTextIndex.normalize(term);
+        return predicate(ComparisonPredicate.Operator.CONTAINS_TERM, normalizedTerm, value -> FullTextIndex.tokenize(value).contains(normalizedTerm));
+    }
+
+    /**
+     * Check whether the value contains a term that starts with the provided prefix, see {@link #containsTerm(String)}.
+     *
+     * @param prefix the prefix of the term to find
+     */
+    public Predicate<XmlElement> containsTermWithPrefix(String prefix) {
+        String normalizedPrefix = FullTextIndex.normalize(prefix);
+        return predicate(ComparisonPredicate.Operator.CONTAINS_TERM_WITH_PREFIX, normalizedPrefix,
+            value -> FullTextIndex.tokenize(value).stream().anyMatch(term -> term.startsWith(normalizedPrefix)));
+    }
+
+    /**
+     * Check whether the value contains all terms of the provided text, regardless of their order, see
+     * {@link #containsTerm(String)}. A text without any terms does not match any value.
+     *
+     * @param text the text containing the terms to find, split using {@link FullTextIndex#tokenize(String)}
+     */
+    public Predicate<XmlElement> containsAllTerms(String text) {
+        Set<String> terms = FullTextIndex.tokenize(text);
+        return new ComparisonPredicate(source, attributeName, ComparisonPredicate.Operator.CONTAINS_ALL_TERMS, ImmutableList.<Object>copyOf(terms), String.class,
+            value -> !terms.isEmpty() && FullTextIndex.tokenize(value).containsAll(terms));
     }
 
     public Predicate<XmlElement> matches(Function<String, Boolean> expressionToCheck) {
-        return predicate(expressionToCheck);
+        return predicate(ComparisonPredicate.Operator.MATCHES, expressionToCheck);
     }
 
-    private Predicate<XmlElement> predicate(Function<String, Boolean> matchFunc) {
-        switch (source) {
-            case ATTRIBUTE:
-                return element -> element.hasAttribute(attributeName)
-                    && getMatch(element.getAttribute(attributeName).getValue(), matchFunc);
-            case TEXT_CONTENT:
-                return element -> getMatch(element.getTextContent(), matchFunc);
+    /**
+     * Compare the provided string, converted to the type of the provided value, with the value. Integer, Long and Double
+     * values are compared without boxing the converted value.
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareConverted(String value, Comparable<? extends Number> i) {
+        if (i instanceof Integer) {
+            return Integer.compare(StringConverter.toInt(value), (Integer) i);
+        } else if (i instanceof Long) {
+            return Long.compare(StringConverter.toLong(value), (Long) i);
+        } else if (i instanceof Double) {
+            return Double.compare(StringConverter.toDouble(value), (Double) i);
         }
 
-        throw new IllegalStateException("Illegal source " + source);
+        return StringConverter.convert(value, i.getClass()).compareTo(i);
     }
 
-    private boolean getMatch(String toCheck, Function<String, Boolean> matchFunc) {
-        try {
-            return matchFunc.apply(toCheck);
-        } catch (ConversionException e) {
-            return false;
-        }
+    private Predicate<XmlElement> predicate(ComparisonPredicate.Operator operator, Function<String, Boolean> matchFunc) {
+        return new ComparisonPredicate(source, attributeName, operator, Collections.emptyList(), null, matchFunc);
+    }
+
+    private Predicate<XmlElement> predicate(ComparisonPredicate.Operator operator, @Nullable Object value, Function<String, Boolean> matchFunc) {
+        return new ComparisonPredicate(source, attributeName, operator, Collections.singletonList(value), getType(value), matchFunc);
+    }
+
+    private Predicate<XmlElement> predicate(ComparisonPredicate.Operator operator,
+                                            Object value,
+                                            Function<String, Boolean> matchFunc,
+                                            Function<Object, Boolean> convertedMatchFunc) {
+        return new ComparisonPredicate(source, attributeName, operator, Collections.singletonList(value), getType(value), matchFunc, convertedMatchFunc);
+    }
+
+    @Nullable
+    private static Class<?> getType(@Nullable Object value) {
+        return value != null ? value.getClass() : null;
     }
 
-    enum Source {
+    public enum Source {
 
         ATTRIBUTE,
         TEXT_CONTENT
@@ -0,0 +1,217 @@
+package net.robinfriedli.jxp.queries;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Lists;
+import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.persist.LazyContext;
+import org.openqa.selenium.support.ui.Quotes;
+
+/**
+ * Translates the predicate trees built using {@link Conditions} into an XPath query that selects all elements that
+ * might match the condition, enabling a {@link LazyContext} to only instantiate those elements when executing a
+ * {@link Query} instead of all of its elements. The XPath query may select elements that do not match the condition,
+ * so the condition still has to be checked for each selected element. Predicates that cannot be translated are
+ * ignored if they are an operand of an {@link AndPredicate}, else the whole condition cannot be translated.
+ * <p>
+ * String comparisons are translated exactly while numeric comparisons also select elements with values that XPath
+ * cannot convert to a number, since the {@link net.robinfriedli.jxp.api.StringConverter} accepts formats that XPath
+ * does not. Numeric comparisons are only translated for values that XPath represents exactly.
+ */
+public final class XPathPreFilter {
+
+    private XPathPreFilter() {
+    }
+
+    /**
+     * @param condition the condition to translate
+     * @return an XPath query selecting all elements below the document element that might match the condition or null
+     * if the condition cannot be translated
+     */
+    @Nullable
+    public static String toXPath(Predicate<XmlElement> condition) {
+        Translation translation = translate(condition);
+        return translation != null ? "/*//*[" + translation.condition + "]" : null;
+    }
+
+    @Nullable
+    private static Translation translate(Predicate<XmlElement> predicate) {
+        if (predicate instanceof TagNamePredicate) {
+            return new Translation("name()=" + Quotes.escape(((TagNamePredicate) predicate).getTagName()), true);
+        } else if (predicate instanceof ComparisonPredicate) {
+            return translateComparison((ComparisonPredicate) predicate);
+        } else if (predicate instanceof AndPredicate) {
+            List<String> conditions = Lists.newArrayList();
+            boolean exact = true;
+            for (Predicate<XmlElement> operand : ((AndPredicate) predicate).getOperands()) {
+                Translation translation = translate(operand);
+                if (translation != null) {
+                    conditions.add(translation.condition);
+                    exact &= translation.exact;
+                } else {
+                    exact = false;
+                }
+            }
+
+            return !conditions.isEmpty() ? new Translation(join(conditions, " and "), exact) : null;
+        } else if (predicate instanceof OrPredicate || predicate instanceof NotPredicate) {
+            boolean negate = predicate instanceof NotPredicate;
+            List<String> conditions = Lists.newArrayList();
+            boolean exact = true;
+            for (Predicate<XmlElement> operand : ((CompositePredicate) predicate).getOperands()) {
+                Translation translation = translate(operand);
+                // the negation of a condition that selects too many elements would miss elements
+                if (translation == null || (negate && !translation.exact)) {
+                    return null;
+                }
+
+                conditions.add(translation.condition);
+                exact &= translation.exact;
+            }
+
+            if (conditions.isEmpty()) {
+                return null;
+            }
+
+            String disjunction = join(conditions, " or ");
+            return new Translation(negate ? "not(" + disjunction + ")" : disjunction, exact);
+        }
+
+        return null;
+    }
+
+    @Nullable
+    private static Translation translateComparison(ComparisonPredicate predicate) {
+        String attributeName = predicate.getAttributeName();
+        if (predicate.getSource() != ValueComparator.Source.ATTRIBUTE || attributeName == null || !isName(attributeName)) {
+            return null;
+        }
+
+        String attribute = "@" + attributeName;
+        // the attribute has to exist for any comparison to match
+        Translation exists = new Translation(attribute, false);
+        List<Object> values = predicate.getValues();
+        switch (predicate.getOperator()) {
+            case IS:
+            case IN:
+                List<String> conditions = Lists.newArrayList();
+                boolean exact = true;
+                for (Object value : values) {
+                    if (value instanceof String) {
+                        conditions.add(attribute + "=" + Quotes.escape((String) value));
+                    } else if (isExactNumber(value)) {
+                        conditions.add(attribute + "=" + value);
+                        exact = false;
+                    } else {
+                        return exists;
+                    }
+                }
+
+                if (conditions.isEmpty()) {
+                    return exists;
+                }
+
+                if (!exact) {
+                    conditions.add(notANumber(attribute));
+                    return new Translation("(" + attribute + " and " + join(conditions, " or ") + ")", false);
+                }
+
+                return new Translation(join(conditions, " or "), true);
+            case IS_EMPTY:
+                return new Translation(attribute + "=''", true);
+            case GREATER_THAN:
+                return translateRange(attribute, ">", values.get(0), exists);
+            case GREATER_EQUALS:
+                return translateRange(attribute, ">=", values.get(0), exists);
+            case LOWER_THAN:
+                return translateRange(attribute, "<", values.get(0), exists);
+            case LOWER_EQUALS:
+                return translateRange(attribute, "<=", values.get(0), exists);
+            case STARTS_WITH:
+                return new Translation("(" + attribute + " and starts-with(" + attribute + "," + Quotes.escape((String) values.get(0)) + "))", true);
+            case ENDS_WITH:
+                String value = Quotes.escape((String) values.get(0));
+                String endsWith = String.format("%1$s and string-length(%1$s)>=string-length(%2$s) and substring(%1$s,string-length(%1$s)-string-length(%2$s)+1)=%2$s", attribute, value);
+                return new Translation("(" + endsWith + ")", true);
+            case CONTAINS:
+                return new Translation("(" + attribute + " and contains(" + attribute + "," + Quotes.escape((String) values.get(0)) + "))", true);
+            default:
+                return exists;
+        }
+    }
+
+    private static Translation translateRange(String attribute, String operator, Object value, Translation exists) {
+        if (!isExactNumber(value)) {
+            return exists;
+        }
+
+        return new Translation("(" + attribute + " and (" + attribute + operator + value + " or " + notANumber(attribute) + "))", false);
+    }
+
+    // true if XPath converts the attribute value to NaN, NaN is the only value not equal to itself
+    private static String notANumber(String attribute) {
+        return "number(" + attribute + ")!=number(" + attribute + ")";
+    }
+
+    /**
+     * @return true for numbers that XPath, which uses doubles, represents exactly and that are rendered as valid XPath
+     * number literals
+     */
+    private static boolean isExactNumber(Object value) {
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return true;
+        } else if (value instanceof Double) {
+            Double doubleValue = (Double) value;
+            return !doubleValue.isNaN() && !doubleValue.isInfinite() && !String.valueOf(doubleValue).contains("E");
+        }
+
+        return false;
+    }
+
+    private static boolean isName(String name) {
+        if (name.isEmpty() || !(Character.isLetter(name.charAt(0)) || name.charAt(0) == '_')) {
+            return false;
+        }
+
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.')) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String join(List<String> conditions, String separator) {
+        if (conditions.size() == 1) {
+            return conditions.get(0);
+        }
+
+        StringBuilder builder = new StringBuilder("(");
+        for (int i = 0; i < conditions.size(); i++) {
+            if (i > 0) {
+                builder.append(separator);
+            }
+            builder.append(conditions.get(i));
+        }
+        return builder.append(")").toString();
+    }
+
+    private static class Translation {
+
+        private final String condition;
+        // false if the condition selects elements that do not match the predicate
+        private final boolean exact;
+
+        private Translation(String condition, boolean exact) {
+            this.condition = condition;
+            this.exact = exact;
+        }
+
+    }
+
+}
@@ -0,0 +1,163 @@
+package net.robinfriedli.jxp.queries.xpath;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import javax.xml.xpath.XPathVariableResolver;
+
+import net.robinfriedli.jxp.api.StringConverter;
+import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.exceptions.QueryException;
+import net.robinfriedli.jxp.persist.Context;
+import org.w3c.dom.Element;
+
+/**
+ * XPath query built by an {@link XQueryBuilder} that is compiled once for a {@link Context} and executed with
+ * different values for its {@link XVariable} placeholders, meaning repeated executions skip building the query String,
+ * escaping values and compiling the query. Strings are bound as XPath strings, numbers as XPath numbers and any other
+ * value is converted to a String using {@link StringConverter#reverse(Object)}. Create using
+ * {@link XQueryBuilder#prepare(Context)}. Queries that are supported by the {@link XQueryEvaluator} are not compiled
+ * to XPath at all but evaluated against the DOM document directly.
+ * <p>
+ * Instances may be executed by several threads concurrently, the values bound by each thread are only visible to that
+ * thread's execution.
+ */
+public class PreparedXQuery {
+
+    private final Context context;
+    private final String xPath;
+    @Nullable
+    private final XQueryEvaluator evaluator;
+    // XPathExpression is not thread-safe, so each thread executes its own compilation
+    @Nullable
+    private final ThreadLocal<XPathExpression> expression;
+    private final ThreadLocal<Map<String, Object>> boundValues = ThreadLocal.withInitial(Collections::emptyMap);
+
+    PreparedXQuery(Context context, String xPath, @Nullable XQueryEvaluator evaluator) {
+        this.context = context;
+        this.xPath = xPath;
+        this.evaluator = evaluator;
+
+        if (evaluator != null) {
+            expression = null;
+            return;
+        }
+
+        // compile eagerly to fail early for invalid queries
+        XPathExpression compiled = compile();
+        expression = ThreadLocal.withInitial(this::compile);
+        expression.set(compiled);
+    }
+
+    /**
+     * Start binding values to execute this query with.
+     *
+     * @param name  the name of the variable, as provided to {@link XConditions#variable(String)}
+     * @param value the value to bind
+     * @return the bindings to add further values to or to execute
+     */
+    public Bindings bind(String name, Object value) {
+        return new Bindings().bind(name, value);
+    }
+
+    /**
+     * Execute this query with the provided values.
+     *
+     * @param values the values mapped to the name of their variable
+     * @return XmlElements instances based on results, see {@link Context#xPathQuery(String)}
+     * @throws QueryException if a variable used by the query is not bound
+     */
+    public List<XmlElement> execute(Map<String, ?> values) {
+        Map<String, Object> xPathValues = new HashMap<>();
+        values.forEach((name, value) -> xPathValues.put(name, toXPathValue(value)));
+
+        if (evaluator != null) {
+            List<Element> results = evaluator.evaluate(context.getDocument(), xPathValues);
+            return context.internal().resolveDomElements(results);
+        }
+
+        boundValues.set(xPathValues);
+        try {
+            return context.xPathQuery(expression.get());
+        } finally {
+            boundValues.remove();
+        }
+    }
+
+    /**
+     * Execute this query without bound values, only valid if it does not use any variables.
+     */
+    public List<XmlElement> execute() {
+        return execute(Collections.emptyMap());
+    }
+
+    public Context getContext() {
+        return context;
+    }
+
+    public String getXPath() {
+        return xPath;
+    }
+
+    private XPathExpression compile() {
+        XPath compiler = XPathFactory.newInstance().newXPath();
+        compiler.setXPathVariableResolver(new BoundValueResolver());
+        try {
+            return compiler.compile(xPath);
+        } catch (XPathExpressionException e) {
+            throw new QueryException("Exception while compiling XPath query", e);
+        }
+    }
+
+    private static Object toXPathValue(Object value) {
+        if (value == null || value instanceof String) {
+            return value;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else {
+            return StringConverter.reverse(value);
+        }
+    }
+
+    /**
+     * Values to execute a {@link PreparedXQuery} with.
+     */
+    public class Bindings {
+
+        private final Map<String, Object> values = new HashMap<>();
+
+        public Bindings bind(String name, Object value) {
+            values.put(name, value);
+            return this;
+        }
+
+        public List<XmlElement> execute() {
+            return PreparedXQuery.this.execute(values);
+        }
+
+    }
+
+    private class BoundValueResolver implements XPathVariableResolver {
+
+        @Override
+        public Object resolveVariable(QName variableName) {
+            String name = variableName.getLocalPart();
+            Object value = boundValues.get().get(name);
+            if (value == null) {
+                throw new QueryException("No value bound for variable $" + name + " of XPath query " + xPath);
+            }
+
+            return value;
+        }
+
+    }
+
+}
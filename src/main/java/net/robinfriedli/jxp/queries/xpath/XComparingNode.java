@@ -1,19 +1,47 @@
 package net.robinfriedli.jxp.queries.xpath;
 
+import javax.annotation.Nullable;
+
 public class XComparingNode implements XNode {
 
     private final String left;
     private final String right;
     private final String operator;
 
+    // the selector and unescaped value if this node was created by an XNodeBuilder, used by the XQueryEvaluator
+    @Nullable
+    private final String selector;
+    @Nullable
+    private final Object value;
+
     public XComparingNode(String left, String right, String operator) {
+        this(left, right, operator, null, null);
+    }
+
+    XComparingNode(String left, String right, String operator, @Nullable String selector, @Nullable Object value) {
         this.left = left;
         this.right = right;
         this.operator = operator;
+        this.selector = selector;
+        this.value = value;
     }
 
     @Override
     public String asString() {
         return left + operator + right;
     }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    @Nullable
+    String getSelector() {
+        return selector;
+    }
+
+    @Nullable
+    Object getValue() {
+        return value;
+    }
 }
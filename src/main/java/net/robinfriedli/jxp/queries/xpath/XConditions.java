@@ -26,4 +26,12 @@ public final class XConditions {
         return new XNegationNode(nodeToNegate);
     }
 
+    /**
+     * Create a placeholder for a value that is bound when executing the query prepared via
+     * {@link XQueryBuilder#prepare(net.robinfriedli.jxp.persist.Context)}.
+     */
+    public static XVariable variable(String name) {
+        return new XVariable(name);
+    }
+
 }
@@ -0,0 +1,26 @@
+package net.robinfriedli.jxp.queries.xpath;
+
+/**
+ * Junction built by {@link XNodeBuilder#endsWith(String)} that checks whether the selected value ends with the
+ * provided value since XPath 1.0 does not provide an ends-with function.
+ */
+public class XEndsWithNode extends XJunctionNode {
+
+    private final String selector;
+    private final Object value;
+
+    XEndsWithNode(String selector, Object value, XNode... nodes) {
+        super(Type.AND, nodes);
+        this.selector = selector;
+        this.value = value;
+    }
+
+    String getSelector() {
+        return selector;
+    }
+
+    Object getValue() {
+        return value;
+    }
+
+}
@@ -1,5 +1,7 @@
 package net.robinfriedli.jxp.queries.xpath;
 
+import javax.annotation.Nullable;
+
 import com.google.common.base.Joiner;
 
 public class XFunctionNode implements XNode {
@@ -7,9 +9,21 @@ public class XFunctionNode implements XNode {
     private final String funtion;
     private final String[] args;
 
+    // the selector and unescaped value if this node was created by an XNodeBuilder, used by the XQueryEvaluator
+    @Nullable
+    private final String selector;
+    @Nullable
+    private final Object value;
+
     public XFunctionNode(String funtion, String... args) {
+        this(funtion, args, null, null);
+    }
+
+    XFunctionNode(String funtion, String[] args, @Nullable String selector, @Nullable Object value) {
         this.funtion = funtion;
         this.args = args;
+        this.selector = selector;
+        this.value = value;
     }
 
     @Override
@@ -17,4 +31,18 @@ public class XFunctionNode implements XNode {
         Joiner joiner = Joiner.on(",");
         return funtion + "(" + joiner.join(args) + ")";
     }
+
+    public String getFunction() {
+        return funtion;
+    }
+
+    @Nullable
+    String getSelector() {
+        return selector;
+    }
+
+    @Nullable
+    Object getValue() {
+        return value;
+    }
 }
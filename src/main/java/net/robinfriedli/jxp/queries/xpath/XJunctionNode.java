@@ -30,6 +30,14 @@ public class XJunctionNode implements XNode {
         return selectorJoiner.join(nodes);
     }
 
+    public XNode[] getNodes() {
+        return nodes;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
     public enum Type {
         AND, OR
     }
@@ -12,4 +12,8 @@ public class XNegationNode implements XNode {
     public String asString() {
         return "not(" + nodeToNegate.asString() + ")";
     }
+
+    public XNode getNodeToNegate() {
+        return nodeToNegate;
+    }
 }
@@ -16,7 +16,7 @@ public final class XNodeBuilder {
     public <E> XNode is(E value) {
         String stringValue = getValueString(value);
 
-        return new XComparingNode(left, stringValue, "=");
+        return new XComparingNode(left, stringValue, "=", left, value);
     }
 
     @SafeVarargs
@@ -26,40 +26,74 @@ public final class XNodeBuilder {
     }
 
     public XNode greaterThan(Comparable<? extends Number> number) {
-        return new XComparingNode(left, String.valueOf(number), ">");
+        return new XComparingNode(left, String.valueOf(number), ">", left, number);
+    }
+
+    public XNode greaterThan(XVariable variable) {
+        return new XComparingNode(left, variable.asString(), ">", left, variable);
     }
 
     public XNode greaterEquals(Comparable<? extends Number> number) {
-        return new XComparingNode(left, String.valueOf(number), ">=");
+        return new XComparingNode(left, String.valueOf(number), ">=", left, number);
+    }
+
+    public XNode greaterEquals(XVariable variable) {
+        return new XComparingNode(left, variable.asString(), ">=", left, variable);
     }
 
     public XNode lowerThan(Comparable<? extends Number> number) {
-        return new XComparingNode(left, String.valueOf(number), "<");
+        return new XComparingNode(left, String.valueOf(number), "<", left, number);
+    }
+
+    public XNode lowerThan(XVariable variable) {
+        return new XComparingNode(left, variable.asString(), "<", left, variable);
     }
 
     public XNode lowerEquals(Comparable<? extends Number> number) {
-        return new XComparingNode(left, String.valueOf(number), "<=");
+        return new XComparingNode(left, String.valueOf(number), "<=", left, number);
+    }
+
+    public XNode lowerEquals(XVariable variable) {
+        return new XComparingNode(left, variable.asString(), "<=", left, variable);
     }
 
     public XNode startsWith(String s) {
-        return new XFunctionNode("starts-with", left, Quotes.escape(s));
+        return new XFunctionNode("starts-with", new String[]{left, Quotes.escape(s)}, left, s);
+    }
+
+    public XNode startsWith(XVariable variable) {
+        return new XFunctionNode("starts-with", new String[]{left, variable.asString()}, left, variable);
     }
 
     public XNode endsWith(String s) {
-        String substringLeft = "string-length(" + left + ")";
-        String substringRight = "string-length(" + Quotes.escape(s) + ")";
-        XConditionNode greaterThanNode = new XConditionNode(substringLeft + ">=" + substringRight);
-        XFunctionNode substringFunc = new XFunctionNode("substring", left, substringLeft + " - " + substringRight + " + 1");
-        XComparingNode compareFunc = new XComparingNode(Quotes.escape(s), substringFunc.asString(), "=");
-        return new XJunctionNode(XJunctionNode.Type.AND, greaterThanNode, compareFunc);
+        return endsWithValue(Quotes.escape(s), s);
+    }
+
+    public XNode endsWith(XVariable variable) {
+        return endsWithValue(variable.asString(), variable);
     }
 
     public XNode contains(String s) {
-        return new XFunctionNode("contains", left, Quotes.escape(s));
+        return new XFunctionNode("contains", new String[]{left, Quotes.escape(s)}, left, s);
+    }
+
+    public XNode contains(XVariable variable) {
+        return new XFunctionNode("contains", new String[]{left, variable.asString()}, left, variable);
+    }
+
+    private XNode endsWithValue(String valueString, Object value) {
+        String substringLeft = "string-length(" + left + ")";
+        String substringRight = "string-length(" + valueString + ")";
+        XConditionNode greaterThanNode = new XConditionNode(substringLeft + ">=" + substringRight);
+        XFunctionNode substringFunc = new XFunctionNode("substring", left, substringLeft + " - " + substringRight + " + 1");
+        XComparingNode compareFunc = new XComparingNode(valueString, substringFunc.asString(), "=");
+        return new XEndsWithNode(left, value, greaterThanNode, compareFunc);
     }
 
     private <E> String getValueString(E value) {
-        if (value instanceof String) {
+        if (value instanceof XVariable) {
+            return ((XVariable) value).asString();
+        } else if (value instanceof String) {
             return Quotes.escape((String) value);
         } else {
             return StringConverter.reverse(value);
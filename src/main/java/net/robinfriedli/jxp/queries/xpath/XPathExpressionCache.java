@@ -0,0 +1,161 @@
+package net.robinfriedli.jxp.queries.xpath;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import net.robinfriedli.jxp.api.JxpBackend;
+import net.robinfriedli.jxp.persist.Context;
+
+/**
+ * Bounded cache of compiled {@link XPathExpression}s keyed by the XPath query string that evicts the least recently
+ * used expression once the capacity is exceeded. Each {@link JxpBackend} holds an instance used by
+ * {@link Context#xPathQuery(String)} so that executing the same query repeatedly does not require creating a new
+ * {@link XPathFactory} and compiling the query each time.
+ * <p>
+ * Since neither {@link XPath} nor {@link XPathExpression} are thread-safe an expression is checked out of the cache
+ * using {@link #acquire(String)} for exclusive use by one thread and handed back using
+ * {@link #release(String, XPathExpression)}. Threads evaluating the same query concurrently each use their own
+ * expression, so the cache may hold several expressions for the same query, the capacity limits the total amount of
+ * expressions held by the cache.
+ */
+public class XPathExpressionCache {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    // expressions that are not checked out, grouped by query in least recently used order, guarded by its monitor
+    private final Map<String, Deque<XPathExpression>> idleExpressions = new LinkedHashMap<>(16, 0.75F, true);
+    private int size;
+    // compiling only requires the XPath instance briefly, but creating one is the expensive part
+    private final ThreadLocal<XPath> compiler = ThreadLocal.withInitial(() -> XPathFactory.newInstance().newXPath());
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public XPathExpressionCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the maximum amount of compiled expressions to hold, 0 disables caching
+     */
+    public XPathExpressionCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative");
+        }
+
+        this.capacity = capacity;
+    }
+
+    /**
+     * Check out a compiled expression for the provided query, compiling it if the cache holds none that is not checked
+     * out. The expression must only be used by the current thread until it is handed back using
+     * {@link #release(String, XPathExpression)}.
+     *
+     * @param query the XPath query
+     * @return the compiled expression
+     * @throws XPathExpressionException if the query cannot be compiled
+     */
+    public XPathExpression acquire(String query) throws XPathExpressionException {
+        synchronized (idleExpressions) {
+            Deque<XPathExpression> idle = idleExpressions.get(query);
+            if (idle != null) {
+                XPathExpression expression = idle.pop();
+                if (idle.isEmpty()) {
+                    idleExpressions.remove(query);
+                }
+                size--;
+                hitCount.incrementAndGet();
+                return expression;
+            }
+        }
+
+        missCount.incrementAndGet();
+        return compiler.get().compile(query);
+    }
+
+    /**
+     * Hand back an expression checked out using {@link #acquire(String)} once it is no longer used, evicting the least
+     * recently used expression if the capacity is exceeded.
+     *
+     * @param query      the XPath query the expression was acquired for
+     * @param expression the compiled expression
+     */
+    public void release(String query, XPathExpression expression) {
+        if (capacity == 0) {
+            return;
+        }
+
+        synchronized (idleExpressions) {
+            idleExpressions.computeIfAbsent(query, key -> new ArrayDeque<>()).push(expression);
+            size++;
+            Iterator<Deque<XPathExpression>> iterator = idleExpressions.values().iterator();
+            while (size > capacity) {
+                Deque<XPathExpression> eldest = iterator.next();
+                while (size > capacity && !eldest.isEmpty()) {
+                    eldest.removeLast();
+                    size--;
+                }
+                if (eldest.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluate the provided query using a cached compiled expression.
+     *
+     * @param query      the XPath query
+     * @param item       the context item, e.g. a DOM document
+     * @param returnType the expected return type, see {@link javax.xml.xpath.XPathConstants}
+     * @return the result of the evaluation
+     * @throws XPathExpressionException if the query cannot be compiled or evaluated
+     */
+    public Object evaluate(String query, Object item, QName returnType) throws XPathExpressionException {
+        XPathExpression expression = acquire(query);
+        try {
+            return expression.evaluate(item, returnType);
+        } finally {
+            release(query, expression);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the amount of expressions held by the cache, not including checked out expressions
+     */
+    public int size() {
+        synchronized (idleExpressions) {
+            return size;
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public void clear() {
+        synchronized (idleExpressions) {
+            idleExpressions.clear();
+            size = 0;
+        }
+    }
+
+}
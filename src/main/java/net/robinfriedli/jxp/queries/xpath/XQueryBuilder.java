@@ -1,6 +1,11 @@
 package net.robinfriedli.jxp.queries.xpath;
 
+import java.util.Collections;
+import java.util.List;
+
+import net.robinfriedli.jxp.api.XmlElement;
 import net.robinfriedli.jxp.persist.Context;
+import org.w3c.dom.Element;
 
 /**
  * Utility class to build XPath query Strings in a fluent API style
@@ -37,6 +42,15 @@ import net.robinfriedli.jxp.persist.Context;
  *     List<XmlElement> foundInstances = context.xPathQuery(xPath2);
  * }
  * </pre>
+ * Alternatively {@link #execute(Context)} evaluates queries supported by the {@link XQueryEvaluator} without using
+ * the XPath engine.
+ * Queries that are executed repeatedly with different values can be prepared with placeholders, e.g.
+ * <pre>
+ *     {@code
+ *     PreparedXQuery cityByName = XQueryBuilder.find("country/city").where(attribute("name").is(variable("name"))).prepare(context);
+ *     List<XmlElement> london = cityByName.bind("name", "London").execute();
+ * }
+ * </pre>
  */
 public class XQueryBuilder {
 
@@ -87,4 +101,34 @@ public class XQueryBuilder {
         return xPathBuilder.toString();
     }
 
+    /**
+     * Compile the XPath query built by this XQueryBuilder once for the provided Context, values for the
+     * {@link XVariable} placeholders created via {@link XConditions#variable(String)} are then bound on each
+     * execution, see {@link PreparedXQuery}.
+     *
+     * @param context the Context to execute the query on
+     * @return the compiled query
+     */
+    public PreparedXQuery prepare(Context context) {
+        return new PreparedXQuery(context, getXPath(context), XQueryEvaluator.compile(pathAfterRoot, rootConditionNode));
+    }
+
+    /**
+     * Execute this query on the provided Context. If the query is supported by the {@link XQueryEvaluator} the DOM
+     * document is queried directly, else this executes {@link Context#xPathQuery(String)} with the XPath built by
+     * {@link #getXPath(Context)}.
+     *
+     * @param context the Context to query
+     * @return XmlElements instances based on results, see {@link Context#xPathQuery(String)}
+     */
+    public List<XmlElement> execute(Context context) {
+        XQueryEvaluator evaluator = XQueryEvaluator.compile(pathAfterRoot, rootConditionNode);
+        if (evaluator != null) {
+            List<Element> results = evaluator.evaluate(context.getDocument(), Collections.emptyMap());
+            return context.internal().resolveDomElements(results);
+        }
+
+        return context.xPathQuery(getXPath(context));
+    }
+
 }
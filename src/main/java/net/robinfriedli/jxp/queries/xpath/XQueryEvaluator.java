@@ -0,0 +1,444 @@
+package net.robinfriedli.jxp.queries.xpath;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Lists;
+import net.robinfriedli.jxp.api.StringConverter;
+import net.robinfriedli.jxp.exceptions.QueryException;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Evaluates queries built by an {@link XQueryBuilder} by walking the DOM document directly instead of rendering the
+ * query to a String and evaluating it using the javax XPath engine. Supported are element paths consisting of element
+ * names or wildcards separated by "/" or "//" and conditions built via {@link XConditions} that compare an attribute
+ * or the text content using "=", "&lt;", "&lt;=", "&gt;", "&gt;=", starts-with, contains or
+ * {@link XNodeBuilder#endsWith(String) endsWith}, combined using and, or and not. Values are compared following the
+ * rules of XPath 1.0, meaning comparisons with numbers and relational comparisons convert the selected value to a
+ * number and a comparison with a missing attribute is false. {@link #compile(String, XNode)} returns null for any
+ * other query, such as queries using {@link XConditions#condition(String)}, which then have to be evaluated as XPath.
+ */
+public class XQueryEvaluator {
+
+    private static final int MAX_STEPS = Long.SIZE - 1;
+
+    // the tag name each step of the path matches, null for wildcards
+    private final String[] stepNames;
+    // bit mask of the steps that match descendants rather than children, i.e. steps preceded by "//"
+    private final long descendantSteps;
+    @Nullable
+    private final Matcher condition;
+
+    private XQueryEvaluator(String[] stepNames, long descendantSteps, @Nullable Matcher condition) {
+        this.stepNames = stepNames;
+        this.descendantSteps = descendantSteps;
+        this.condition = condition;
+    }
+
+    /**
+     * Compile the provided query for native evaluation.
+     *
+     * @param elementPath the path of the target elements after the document element, see {@link XQueryBuilder#find(String)}
+     * @param condition   the condition the target elements have to match or null
+     * @return the compiled evaluator or null if the query contains expressions that are not supported
+     */
+    @Nullable
+    public static XQueryEvaluator compile(String elementPath, @Nullable XNode condition) {
+        List<String> stepNames = Lists.newArrayList();
+        long descendantSteps = 0;
+        int position = 0;
+        while (position < elementPath.length()) {
+            if (elementPath.charAt(position) == '/') {
+                descendantSteps |= 1L << stepNames.size();
+                position++;
+            }
+
+            int end = elementPath.indexOf('/', position);
+            if (end < 0) {
+                end = elementPath.length();
+            }
+
+            String name = elementPath.substring(position, end);
+            if (!"*".equals(name) && !isName(name)) {
+                return null;
+            }
+
+            stepNames.add("*".equals(name) ? null : name);
+            if (stepNames.size() > MAX_STEPS || end == elementPath.length() - 1) {
+                return null;
+            }
+            position = end + 1;
+        }
+
+        if (stepNames.isEmpty()) {
+            return null;
+        }
+
+        Matcher matcher = null;
+        if (condition != null) {
+            matcher = compileCondition(condition);
+            if (matcher == null) {
+                return null;
+            }
+        }
+
+        return new XQueryEvaluator(stepNames.toArray(new String[0]), descendantSteps, matcher);
+    }
+
+    /**
+     * Find all elements of the provided document that match the query.
+     *
+     * @param document    the document to query
+     * @param boundValues the values for the {@link XVariable}s used by the query mapped to their name
+     * @return the matching elements in document order
+     * @throws QueryException if a variable used by the query is not bound
+     */
+    public List<Element> evaluate(Document document, Map<String, ?> boundValues) {
+        List<Element> results = Lists.newArrayList();
+        Element documentElement = document.getDocumentElement();
+        if (documentElement != null) {
+            collect(documentElement, 1L, boundValues, results);
+        }
+
+        return results;
+    }
+
+    // walks the children of the provided element, the set bits of activeSteps mark the steps the children may match
+    private void collect(Element parent, long activeSteps, Map<String, ?> boundValues, List<Element> results) {
+        int lastStep = stepNames.length - 1;
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+
+            Element element = (Element) child;
+            long childSteps = activeSteps & descendantSteps;
+            boolean isTarget = false;
+            for (int i = 0; i <= lastStep; i++) {
+                if ((activeSteps & (1L << i)) != 0 && (stepNames[i] == null || stepNames[i].equals(element.getTagName()))) {
+                    if (i == lastStep) {
+                        isTarget = true;
+                    } else {
+                        childSteps |= 1L << (i + 1);
+                    }
+                }
+            }
+
+            if (isTarget && (condition == null || condition.matches(element, boundValues))) {
+                results.add(element);
+            }
+
+            if (childSteps != 0) {
+                collect(element, childSteps, boundValues, results);
+            }
+        }
+    }
+
+    @Nullable
+    private static Matcher compileCondition(XNode node) {
+        if (node instanceof XEndsWithNode) {
+            XEndsWithNode endsWithNode = (XEndsWithNode) node;
+            Selector selector = Selector.parse(endsWithNode.getSelector());
+            Operand operand = Operand.of(endsWithNode.getValue());
+            if (selector == null || operand == null) {
+                return null;
+            }
+
+            return (element, boundValues) -> selector.getStringValue(element).endsWith(operand.getString(boundValues));
+        } else if (node instanceof XJunctionNode) {
+            XJunctionNode junctionNode = (XJunctionNode) node;
+            XNode[] nodes = junctionNode.getNodes();
+            Matcher[] matchers = new Matcher[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                matchers[i] = compileCondition(nodes[i]);
+                if (matchers[i] == null) {
+                    return null;
+                }
+            }
+
+            if (junctionNode.getType() == XJunctionNode.Type.AND) {
+                return (element, boundValues) -> {
+                    for (Matcher matcher : matchers) {
+                        if (!matcher.matches(element, boundValues)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                };
+            } else {
+                return (element, boundValues) -> {
+                    for (Matcher matcher : matchers) {
+                        if (matcher.matches(element, boundValues)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                };
+            }
+        } else if (node instanceof XNegationNode) {
+            Matcher matcher = compileCondition(((XNegationNode) node).getNodeToNegate());
+            return matcher != null ? (element, boundValues) -> !matcher.matches(element, boundValues) : null;
+        } else if (node instanceof XComparingNode) {
+            XComparingNode comparingNode = (XComparingNode) node;
+            Selector selector = Selector.parse(comparingNode.getSelector());
+            Operand operand = Operand.of(comparingNode.getValue());
+            Comparison comparison = Comparison.forOperator(comparingNode.getOperator());
+            if (selector == null || operand == null || comparison == null) {
+                return null;
+            }
+
+            return (element, boundValues) -> selector.anyMatch(element, comparison, operand.get(boundValues));
+        } else if (node instanceof XFunctionNode) {
+            XFunctionNode functionNode = (XFunctionNode) node;
+            Selector selector = Selector.parse(functionNode.getSelector());
+            Operand operand = Operand.of(functionNode.getValue());
+            if (selector == null || operand == null) {
+                return null;
+            }
+
+            if ("starts-with".equals(functionNode.getFunction())) {
+                return (element, boundValues) -> selector.getStringValue(element).startsWith(operand.getString(boundValues));
+            } else if ("contains".equals(functionNode.getFunction())) {
+                return (element, boundValues) -> selector.getStringValue(element).contains(operand.getString(boundValues));
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isName(String name) {
+        if (name.isEmpty() || !(Character.isLetter(name.charAt(0)) || name.charAt(0) == '_')) {
+            return false;
+        }
+
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.')) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Converts a String to a number like the XPath number() function, returning NaN for anything that is not a plain
+     * decimal number.
+     */
+    private static double toNumber(String value) {
+        String trimmed = value.trim();
+        int start = trimmed.startsWith("-") ? 1 : 0;
+        boolean hasDigits = false;
+        boolean hasDot = false;
+        for (int i = start; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (c >= '0' && c <= '9') {
+                hasDigits = true;
+            } else if (c == '.' && !hasDot) {
+                hasDot = true;
+            } else {
+                return Double.NaN;
+            }
+        }
+
+        return hasDigits ? Double.parseDouble(trimmed) : Double.NaN;
+    }
+
+    /**
+     * Converts a number to a String like the XPath string() function.
+     */
+    private static String toString(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "Infinity" : "-Infinity";
+        }
+
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    @FunctionalInterface
+    private interface Matcher {
+
+        boolean matches(Element element, Map<String, ?> boundValues);
+
+    }
+
+    private enum Comparison {
+
+        EQUALS("="),
+        GREATER_THAN(">"),
+        GREATER_EQUALS(">="),
+        LOWER_THAN("<"),
+        LOWER_EQUALS("<=");
+
+        private final String operator;
+
+        Comparison(String operator) {
+            this.operator = operator;
+        }
+
+        @Nullable
+        static Comparison forOperator(String operator) {
+            for (Comparison comparison : values()) {
+                if (comparison.operator.equals(operator)) {
+                    return comparison;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * @param nodeValue the String value of the selected node
+         * @param value     the value to compare with, either a String or a Double
+         */
+        boolean test(String nodeValue, Object value) {
+            if (this == EQUALS) {
+                if (value instanceof String) {
+                    return nodeValue.equals(value);
+                }
+                return toNumber(nodeValue) == (Double) value;
+            }
+
+            double left = toNumber(nodeValue);
+            double right = value instanceof String ? toNumber((String) value) : (Double) value;
+            switch (this) {
+                case GREATER_THAN:
+                    return left > right;
+                case GREATER_EQUALS:
+                    return left >= right;
+                case LOWER_THAN:
+                    return left < right;
+                default:
+                    return left <= right;
+            }
+        }
+
+    }
+
+    /**
+     * Selects either an attribute or the text nodes of an element.
+     */
+    private static class Selector {
+
+        // null when selecting text nodes
+        @Nullable
+        private final String attributeName;
+
+        private Selector(@Nullable String attributeName) {
+            this.attributeName = attributeName;
+        }
+
+        @Nullable
+        static Selector parse(@Nullable String selector) {
+            if ("text()".equals(selector)) {
+                return new Selector(null);
+            } else if (selector != null && selector.startsWith("@") && isName(selector.substring(1))) {
+                return new Selector(selector.substring(1));
+            }
+
+            return null;
+        }
+
+        boolean anyMatch(Element element, Comparison comparison, Object value) {
+            if (attributeName != null) {
+                Attr attribute = element.getAttributeNode(attributeName);
+                return attribute != null && comparison.test(attribute.getValue(), value);
+            }
+
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (isText(child) && comparison.test(child.getNodeValue(), value)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * @return the String value of the first selected node or an empty String if no node is selected
+         */
+        String getStringValue(Element element) {
+            if (attributeName != null) {
+                Attr attribute = element.getAttributeNode(attributeName);
+                return attribute != null ? attribute.getValue() : "";
+            }
+
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (isText(child)) {
+                    return child.getNodeValue();
+                }
+            }
+
+            return "";
+        }
+
+        private static boolean isText(Node node) {
+            return node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE;
+        }
+
+    }
+
+    /**
+     * The value a selected node is compared with, either a constant String or number or a variable.
+     */
+    private static class Operand {
+
+        @Nullable
+        private final Object constant;
+        @Nullable
+        private final String variableName;
+
+        private Operand(@Nullable Object constant, @Nullable String variableName) {
+            this.constant = constant;
+            this.variableName = variableName;
+        }
+
+        @Nullable
+        static Operand of(@Nullable Object value) {
+            if (value instanceof XVariable) {
+                return new Operand(null, ((XVariable) value).getName());
+            } else if (value instanceof String) {
+                return new Operand(value, null);
+            } else if (value instanceof Number) {
+                return new Operand(((Number) value).doubleValue(), null);
+            }
+
+            return null;
+        }
+
+        /**
+         * @return the value as String or Double
+         */
+        Object get(Map<String, ?> boundValues) {
+            if (variableName == null) {
+                return constant;
+            }
+
+            Object value = boundValues.get(variableName);
+            if (value == null) {
+                throw new QueryException("No value bound for variable $" + variableName);
+            } else if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            } else if (value instanceof String) {
+                return value;
+            }
+
+            return StringConverter.reverse(value);
+        }
+
+        String getString(Map<String, ?> boundValues) {
+            Object value = get(boundValues);
+            return value instanceof Double ? XQueryEvaluator.toString((Double) value) : (String) value;
+        }
+
+    }
+
+}
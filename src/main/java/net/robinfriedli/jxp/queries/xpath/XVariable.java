@@ -0,0 +1,23 @@
+package net.robinfriedli.jxp.queries.xpath;
+
+/**
+ * Placeholder for a value that is bound when executing a {@link PreparedXQuery}, rendered as XPath variable reference.
+ * Create using {@link XConditions#variable(String)}.
+ */
+public class XVariable {
+
+    private final String name;
+
+    public XVariable(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String asString() {
+        return "$" + name;
+    }
+
+}
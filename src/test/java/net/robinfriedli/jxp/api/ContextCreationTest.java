@@ -1,5 +1,9 @@
 package net.robinfriedli.jxp.api;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
 
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -8,8 +12,12 @@ import javax.xml.parsers.ParserConfigurationException;
 import org.testng.annotations.*;
 
 import net.robinfriedli.jxp.AbstractTest;
+import net.robinfriedli.jxp.entities.Country;
 import net.robinfriedli.jxp.entities.TestElem;
+import net.robinfriedli.jxp.persist.CachedContext;
 import net.robinfriedli.jxp.persist.Context;
+import net.robinfriedli.jxp.persist.StaticXmlParser;
+import net.robinfriedli.jxp.queries.Conditions;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -90,6 +98,51 @@ public class ContextCreationTest extends AbstractTest {
         assertTrue(test22.getSubElements().contains(test222));
     }
 
+    @Test
+    public void testStreamingLoad() throws IOException {
+        File file = new File("src/test/resources/output/testStreamingLoad" + System.currentTimeMillis() + ".xml");
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!-- countries -->\n"
+            + "<countries xmlns:geo=\"http://example.com/geo\">\n"
+            + "  <country code=\"ch\" englishName=\"Switzerland\" geo:region=\"europe\" name=\"Switzerland\">Alpine &amp; <![CDATA[<landlocked>]]><![CDATA[<alpine>]]></country>\n"
+            + "  <?note unsorted?>\n"
+            + "  <country code=\"at\" englishName=\"Austria\" name=\"Austria\"><capital>Vienna</capital>, <b>EU</b></country>\n"
+            + "</countries>\n";
+        Files.write(file.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+
+        JxpBackend streamingJxp = new JxpBuilder().mapClass("country", Country.class).setStreamingLoad(true).build();
+        JxpBackend parsingJxp = new JxpBuilder().mapClass("country", Country.class).build();
+        CachedContext streamed = streamingJxp.createCachedContext(file);
+        CachedContext parsed = parsingJxp.createCachedContext(file);
+
+        assertTrue(parsed.getDocument().isEqualNode(streamed.getDocument()));
+        List<XmlElement> streamedElements = streamed.getElementsRecursive();
+        List<XmlElement> parsedElements = parsed.getElementsRecursive();
+        assertEquals(streamedElements.size(), parsedElements.size());
+        for (int i = 0; i < streamedElements.size(); i++) {
+            XmlElement streamedElement = streamedElements.get(i);
+            XmlElement parsedElement = parsedElements.get(i);
+            assertEquals(streamedElement.getClass(), parsedElement.getClass());
+            assertEquals(streamedElement.getTagName(), parsedElement.getTagName());
+            assertEquals(streamedElement.getTextContent(), parsedElement.getTextContent());
+            assertEquals(streamedElement.getChildNodes().size(), parsedElement.getChildNodes().size());
+            assertSame(streamedElement.getElement().getOwnerDocument(), streamed.getDocument());
+        }
+
+        Country switzerland = streamed.query(Conditions.attribute("code").is("ch"), Country.class).requireOnlyResult();
+        assertEquals(switzerland.getAttribute("geo:region").getValue(), "europe");
+        assertEquals(switzerland.getTextNodes().size(), 3);
+        assertEquals(switzerland.getTextNodes().get(1).getTextContent(), "<landlocked>");
+        assertEquals(switzerland.getTextNodes().get(2).getTextContent(), "<alpine>");
+        assertSame(switzerland.getParent(), streamed.getDocumentElement());
+        assertEquals(streamed.requireElement("Austria").getAttribute("code").getValue(), "at");
+
+        streamed.invoke(() -> switzerland.setAttribute("name", "Schweiz"));
+        streamed.reload();
+        assertEquals(streamed.requireElement("Switzerland").getAttribute("name").getValue(), "Schweiz");
+        assertTrue(streamed.getDocument().isEqualNode(StaticXmlParser.parseDocument(file)));
+    }
+
     @Override
     protected JxpBackend setupJxp() {
         return new JxpBuilder().build();
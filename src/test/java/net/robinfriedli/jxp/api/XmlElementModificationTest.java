@@ -18,6 +18,7 @@ import net.robinfriedli.jxp.entities.City;
 import net.robinfriedli.jxp.entities.Country;
 import net.robinfriedli.jxp.entities.State;
 import net.robinfriedli.jxp.entities.TestElem;
+import net.robinfriedli.jxp.exceptions.ConversionException;
 import net.robinfriedli.jxp.exceptions.PersistException;
 import net.robinfriedli.jxp.persist.Context;
 import net.robinfriedli.jxp.queries.QueryResult;
@@ -443,4 +444,38 @@ public class XmlElementModificationTest extends AbstractTest {
         });
     }
 
+    @Test
+    public void testConvertedAttributeValueCache() {
+        doWithCopiedContext(false, "/countries.xml", context -> {
+            State zurich = context.requireElement("Zurich", State.class);
+            XmlAttribute population = zurich.getAttribute("population");
+            assertEquals(population.getInt(), 1500000);
+            assertSame(population.getValue(Integer.class), population.getValue(Integer.class));
+            assertEquals(population.getLong(), 1500000L);
+            assertEquals(population.getDouble(), 1500000D);
+            assertEquals(population.getValue(), "1500000");
+
+            context.invoke(() -> {
+                zurich.setAttribute("population", 1600000);
+                assertEquals(population.getInt(), 1600000);
+            });
+            assertEquals((int) population.getValue(Integer.class), 1600000);
+
+            // reverting the change has to invalidate the converted value as well
+            expectException(RuntimeException.class, () -> context.invoke(() -> {
+                zurich.setAttribute("population", "invalid");
+                expectException(ConversionException.class, population::getInt);
+                throw new RuntimeException("rollback");
+            }));
+            assertEquals(population.getInt(), 1600000);
+            assertEquals(population.getValue(), "1600000");
+
+            XmlAttribute missing = zurich.getAttribute("area");
+            assertEquals(missing.getInt(), 0);
+            assertFalse(missing.getBool());
+            context.invoke(() -> missing.setValue(true));
+            assertTrue(missing.getBool());
+        });
+    }
+
 }
@@ -0,0 +1,213 @@
+package net.robinfriedli.jxp.persist;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+import org.testng.annotations.*;
+
+import net.robinfriedli.jxp.AbstractTest;
+import net.robinfriedli.jxp.api.AbstractXmlElement;
+import net.robinfriedli.jxp.api.JxpBackend;
+import net.robinfriedli.jxp.api.JxpBuilder;
+import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.collections.NodeList;
+import net.robinfriedli.jxp.entities.City;
+import net.robinfriedli.jxp.entities.Country;
+import net.robinfriedli.jxp.entities.State;
+import net.robinfriedli.jxp.exceptions.PersistException;
+import net.robinfriedli.jxp.queries.Query;
+import org.w3c.dom.Element;
+
+import static net.robinfriedli.jxp.queries.Conditions.*;
+import static org.testng.Assert.*;
+
+public class IdIndexTest extends AbstractTest {
+
+    @Override
+    protected JxpBackend setupJxp() {
+        return new JxpBuilder()
+            .mapClass("city", City.class)
+            .mapClass("state", State.class)
+            .mapClass("country", Country.class)
+            .build();
+    }
+
+    @Test
+    public void testLookup() {
+        doWithCopiedContext(false, "/countries.xml", context -> {
+            assertTrue(context instanceof CachedContext);
+            assertNotNull(context.getElement("Winterthur", City.class));
+            assertNotNull(context.getElement("Zurich", State.class));
+            assertNotNull(context.getElement("Zurich", City.class));
+            assertNull(context.getElement("Bern"));
+            assertTrue(context.getUsedIds().contains("Toronto"));
+            assertFalse(context.getUsedIds().contains("countries"));
+
+            expectException(IllegalStateException.class, () -> context.getElement("Zurich"));
+            expectException(IllegalStateException.class, () -> context.getElement("London"));
+
+            Country switzerland = context.requireElement("Switzerland", Country.class);
+            assertNotNull(switzerland.getSubElement("Zurich", State.class));
+            assertNull(switzerland.getSubElement("Winterthur"));
+            assertTrue(switzerland.hasSubElement("Geneva"));
+        });
+    }
+
+    @Test
+    public void testIndexUpdatedOnChange() {
+        doWithCopiedContext(false, "/countries.xml", context -> {
+            Country canada = context.requireElement("Canada", Country.class);
+            context.invoke(() -> {
+                canada.addSubElement(new City("Vancouver", 675000));
+                context.requireElement("Paris").delete();
+                context.requireElement("Toronto", City.class).setAttribute("name", "Ottawa");
+            });
+
+            assertNotNull(context.getElement("Vancouver", City.class));
+            assertNotNull(canada.getSubElement("Vancouver", City.class));
+            assertNull(context.getElement("Paris"));
+            assertNull(context.getElement("Toronto"));
+            assertNotNull(canada.getSubElement("Ottawa", City.class));
+            assertFalse(context.getUsedIds().contains("Paris"));
+
+            XmlElement unitedKingdom = context.requireElement("United Kingdom");
+            context.invoke(unitedKingdom::delete);
+            assertNull(context.getElement("Greater London"));
+            assertNotNull(context.getElement("London", City.class));
+            assertNull(context.getElement("Edinburgh", State.class));
+        });
+    }
+
+    @Test
+    public void testIdDerivedFromSubElements() {
+        doWithCopiedContext(false, "/countries.xml", context -> {
+            Region region = new Region();
+            context.invoke(() -> context.requireElement("Canada").addSubElement(region));
+            assertSame(context.getElement("region:"), region);
+
+            // adding, changing and removing sub elements changes the id of the parent
+            City vancouver = new City("Vancouver", 675000);
+            context.invoke(() -> region.addSubElement(vancouver));
+            assertSame(context.getElement("region:Vancouver"), region);
+            assertNull(context.getElement("region:"));
+
+            context.invoke(() -> vancouver.setAttribute("name", "Victoria"));
+            assertSame(context.getElement("region:Victoria"), region);
+            assertTrue(context.getUsedIds().contains("region:Victoria"));
+            assertFalse(context.getUsedIds().contains("region:Vancouver"));
+
+            context.invoke(vancouver::delete);
+            assertSame(context.getElement("region:"), region);
+            assertSame(context.requireElement("Canada").getSubElement("region:"), region);
+            assertNull(context.getElement("region:Victoria"));
+        });
+    }
+
+    @Test
+    public void testIndexUpdatedOnRollback() {
+        doWithCopiedContext(false, "/countries.xml", context -> {
+            Country switzerland = context.requireElement("Switzerland", Country.class);
+            expectException(PersistException.class, () -> context.invoke(() -> {
+                switzerland.addSubElement(new City("Bern", 130000));
+                context.requireElement("Geneva", City.class).setAttribute("name", "Genf");
+                switzerland.delete();
+                throw new RuntimeException("rollback");
+            }));
+
+            assertNull(context.getElement("Bern"));
+            assertNull(context.getElement("Genf"));
+            assertNotNull(context.getElement("Geneva", City.class));
+            assertNotNull(context.getElement("Winterthur", City.class));
+            assertSame(context.requireElement("Switzerland"), switzerland);
+            assertNotNull(switzerland.getSubElement("Geneva", State.class));
+        });
+    }
+
+    @Test
+    public void testXPathResultsResolvedAfterChange() {
+        doWithCopiedContext(false, "/countries.xml", context -> {
+            Country switzerland = context.requireElement("Switzerland", Country.class);
+            City winterthur = context.requireElement("Winterthur", City.class);
+            City bern = new City("Bern", 130000);
+            context.invoke(() -> {
+                switzerland.addSubElement(bern);
+                context.requireElement("Geneva", City.class).delete();
+            });
+
+            List<XmlElement> cities = context.xPathQuery("//city");
+            assertTrue(cities.contains(bern));
+            assertTrue(cities.contains(winterthur));
+            assertEquals(cities.size(), context.getInstancesOf(City.class).size());
+            assertEquals(context.xPathQuery("//city[@name='Geneva']").size(), 0);
+            assertSame(context.xPathQuery("//city[@name='Bern']").get(0), bern);
+
+            expectException(PersistException.class, () -> context.invoke(() -> {
+                bern.delete();
+                throw new RuntimeException("rollback");
+            }));
+            assertSame(context.xPathQuery("//city[@name='Bern']").get(0), bern);
+        });
+    }
+
+    @Test
+    public void testTypeIndex() {
+        doWithCopiedContext(false, "/countries.xml", context -> {
+            List<City> cities = context.getInstancesOf(City.class);
+            assertEquals(cities.size(), 12);
+            assertEquals(cities, context.xPathQuery("//city"));
+            assertEquals(context.getInstancesOf(State.class, City.class).size(), 5);
+            assertEquals(Query.evaluate(tagName("state")).execute(context).count(), 5);
+
+            Country switzerland = context.requireElement("Switzerland", Country.class);
+            City bern = new City("Bern", 130000);
+            City vancouver = new City("Vancouver", 675000);
+            context.invoke(() -> {
+                // inserted before the existing cities, requiring the index to restore the document order
+                switzerland.insertSubElementBefore(switzerland.getSubElements().get(0), bern);
+                context.requireElement("Canada").addSubElement(vancouver);
+                context.requireElement("Paris").delete();
+            });
+
+            List<XmlElement> expectedCities = context.streamElementsRecursive()
+                .filter(element -> element instanceof City)
+                .collect(Collectors.toList());
+            assertEquals(context.getInstancesOf(City.class), expectedCities);
+            assertSame(expectedCities.get(0), bern);
+            assertSame(expectedCities.get(expectedCities.size() - 1), vancouver);
+            assertEquals(Query.evaluate(and(tagName("city"), attribute("population").greaterThan(1000000))).execute(context).count(), 4);
+
+            expectException(PersistException.class, () -> context.invoke(() -> {
+                switzerland.delete();
+                context.requireElement("Canada").addSubElement(new City("Montreal", 1700000));
+                throw new RuntimeException("rollback");
+            }));
+            List<XmlElement> restoredCities = context.streamElementsRecursive()
+                .filter(element -> element instanceof City)
+                .collect(Collectors.toList());
+            assertEquals(context.getInstancesOf(City.class), restoredCities);
+            assertEquals(Query.evaluate(instanceOf(City.class)).execute(context).collect(), restoredCities);
+        });
+    }
+
+    public static class Region extends AbstractXmlElement {
+
+        public Region() {
+            super("region");
+        }
+
+        @SuppressWarnings("unused")
+        public Region(Element element, NodeList childNodes, Context context) {
+            super(element, childNodes, context);
+        }
+
+        @Nullable
+        @Override
+        public String getId() {
+            return "region:" + getSubElements().stream().map(XmlElement::getId).collect(Collectors.joining(","));
+        }
+
+    }
+
+}
@@ -1,9 +1,12 @@
 package net.robinfriedli.jxp.persist;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
 
 import org.testng.annotations.*;
 
@@ -19,8 +22,11 @@ import net.robinfriedli.jxp.collections.UninitializedNodeList;
 import net.robinfriedli.jxp.entities.City;
 import net.robinfriedli.jxp.entities.Country;
 import net.robinfriedli.jxp.entities.State;
+import net.robinfriedli.jxp.exceptions.QueryException;
 import net.robinfriedli.jxp.queries.Conditions;
 import net.robinfriedli.jxp.queries.Query;
+import net.robinfriedli.jxp.queries.xpath.PreparedXQuery;
+import net.robinfriedli.jxp.queries.xpath.XPathExpressionCache;
 import net.robinfriedli.jxp.queries.xpath.XQueryBuilder;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -324,6 +330,110 @@ public class LazyContextTest extends AbstractTest {
         context.persist(String.format("src/test/resources/output/%s%s%s.xml", getClass().getSimpleName(), "@testMixedQueries", System.currentTimeMillis()));
     }
 
+    @Test
+    public void testPreparedXQuery() {
+        LazyContext context = jxp.createLazyContext(getTestResource("/countries.xml"));
+        PreparedXQuery cityByName = XQueryBuilder.find("country/city").where(attribute("name").is(variable("name"))).prepare(context);
+        PreparedXQuery citiesInRange = XQueryBuilder.find("country//city")
+            .where(and(
+                attribute("population").greaterEquals(variable("min")),
+                attribute("population").lowerThan(variable("max")),
+                attribute("name").endsWith(variable("suffix"))
+            ))
+            .prepare(context);
+
+        assertEquals(cityByName.bind("name", "London").execute().size(), 1);
+        assertEquals(cityByName.bind("name", "Edinburgh").execute().size(), 1);
+        assertEquals(cityByName.bind("name", "Winterthur").execute().size(), 0);
+        assertEquals(cityByName.bind("name", "Lon'don\"").execute().size(), 0);
+
+        List<XmlElement> results = citiesInRange.bind("min", 500000).bind("max", 1000000).bind("suffix", "h").execute();
+        assertEquals(results.size(), 2);
+        for (XmlElement result : results) {
+            assertEquals(result.getAttribute("name").getValue(), "Edinburgh");
+        }
+        assertEquals(citiesInRange.bind("min", 0).bind("max", 1000000).bind("suffix", "r").execute().size(), 2);
+
+        expectException(QueryException.class, () -> cityByName.execute());
+    }
+
+    @Test
+    public void testNativeXQueryEvaluation() {
+        LazyContext lazyContext = jxp.createLazyContext(getTestResource("/countries.xml"));
+        Context cachedContext = jxp.createCachedContext(getTestResource("/countries.xml"));
+        List<XQueryBuilder> queries = Lists.newArrayList(
+            XQueryBuilder.find("country/city").where(or(
+                and(
+                    not(attribute("name").in("Birmingham", "London")),
+                    attribute("population").greaterThan(200000),
+                    attribute("population").lowerEquals(2000000)
+                ),
+                attribute("name").endsWith("rgh")
+            )),
+            XQueryBuilder.find("country//city").where(and(
+                attribute("population").greaterEquals(500000),
+                attribute("name").contains("n")
+            )),
+            XQueryBuilder.find("*/state").where(attribute("name").startsWith("Greater")),
+            XQueryBuilder.find("/city").where(attribute("population").is(8900000)),
+            XQueryBuilder.find("country").where(attribute("population").lowerThan(10000000)),
+            XQueryBuilder.find("country").where(attribute("sovereign").is("true"))
+        );
+
+        for (XQueryBuilder query : queries) {
+            List<String> expectedNames = Lists.newArrayList();
+            for (XmlElement result : lazyContext.xPathQuery(query.getXPath(lazyContext))) {
+                expectedNames.add(result.getAttribute("name").getValue());
+            }
+            assertFalse(expectedNames.isEmpty());
+
+            for (Context context : Lists.newArrayList(lazyContext, cachedContext)) {
+                List<String> names = Lists.newArrayList();
+                for (XmlElement result : query.execute(context)) {
+                    names.add(result.getAttribute("name").getValue());
+                }
+                assertEquals(names, expectedNames);
+            }
+        }
+
+        List<XmlElement> cachedResults = XQueryBuilder.find("country/city").where(attribute("name").is("Paris")).execute(cachedContext);
+        assertEquals(cachedResults.size(), 1);
+        assertSame(cachedResults.get(0), cachedContext.requireElement("Paris"));
+    }
+
+    @Test
+    public void testXPathExpressionCache() throws XPathExpressionException {
+        JxpBackend backend = new JxpBuilder()
+            .setDefaultContextType(JxpBackend.DefaultContextType.LAZY)
+            .setXPathCacheCapacity(1)
+            .build();
+        XPathExpressionCache cache = backend.getXPathExpressionCache();
+        LazyContext context = backend.createLazyContext(getTestResource("/countries.xml"));
+        String cityQuery = XQueryBuilder.find("country/city").where(attribute("name").is("London")).getXPath(context);
+        String stateQuery = XQueryBuilder.find("country/state").getXPath(context);
+
+        assertEquals(context.xPathQuery(cityQuery).size(), 1);
+        assertEquals(context.xPathQuery(cityQuery).size(), 1);
+        assertEquals(cache.getMissCount(), 1);
+        assertEquals(cache.getHitCount(), 1);
+
+        assertEquals(context.xPathQuery(stateQuery).size(), 5);
+        assertEquals(cache.size(), 1);
+        assertEquals(context.xPathQuery(cityQuery).size(), 1);
+        assertEquals(cache.getMissCount(), 3);
+        assertEquals(cache.getHitCount(), 1);
+
+        // expressions used concurrently are not shared and the capacity applies to all expressions of the cache
+        XPathExpression first = cache.acquire(cityQuery);
+        XPathExpression second = cache.acquire(cityQuery);
+        assertNotSame(first, second);
+        assertEquals(cache.size(), 0);
+        cache.release(cityQuery, first);
+        cache.release(cityQuery, second);
+        assertEquals(cache.size(), 1);
+        assertSame(cache.acquire(cityQuery), second);
+    }
+
     @Test
     public void testLazyInitialization() {
         LazyContext context = jxp.createLazyContext(getTestResource("/countries.xml"));
@@ -342,4 +452,24 @@ public class LazyContextTest extends AbstractTest {
         assertTrue(uninitializedNodeList.isInitialized());
     }
 
+    @Test
+    public void testStreamingTraversal() {
+        LazyContext context = jxp.createLazyContext(getTestResource("/countries.xml"));
+        XmlElement documentElement = context.getDocumentElement();
+
+        // a condition that cannot be translated to XPath is checked while streaming the tree
+        XmlElement winterthur = context.query(element -> "Winterthur".equals(element.getAttribute("name").getValue())).getFirstResult();
+        assertNotNull(winterthur);
+        List<XmlElement> countries = documentElement.getSubElements();
+        for (XmlElement country : countries.subList(1, countries.size())) {
+            UninitializedNodeList childNodes = (UninitializedNodeList) country.internal().getInternalChildNodeList();
+            assertFalse(childNodes.isInitialized(), country.getId() + " should not have been visited");
+        }
+
+        assertEquals(context.getElement("United Kingdom"), countries.get(1));
+        assertTrue(Conditions.existsSubElement(Conditions.attribute("name").is("Winterthur")).test(winterthur.getParent()));
+        assertEquals(context.streamElementsRecursive().collect(Collectors.toList()), context.getElementsRecursive());
+        assertEquals(documentElement.streamSubElementsRecursive().count(), 24);
+    }
+
 }
@@ -1,10 +1,26 @@
 package net.robinfriedli.jxp.persist;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.slf4j.helpers.NOPLogger;
 import org.testng.annotations.*;
 
 import com.google.common.collect.Lists;
@@ -19,6 +35,7 @@ import net.robinfriedli.jxp.entities.Country;
 import net.robinfriedli.jxp.entities.State;
 import net.robinfriedli.jxp.events.Event;
 import net.robinfriedli.jxp.events.JxpEventListener;
+import net.robinfriedli.jxp.exceptions.CommitException;
 import net.robinfriedli.jxp.exceptions.PersistException;
 import net.robinfriedli.jxp.exec.AbstractTransactionalMode;
 import net.robinfriedli.jxp.exec.QueuedTask;
@@ -269,6 +286,302 @@ public class TransactionTest extends AbstractTest {
         });
     }
 
+    @Test
+    public void testAtomicWriteToFile() throws IOException {
+        JxpBackend syncingJxp = new JxpBuilder()
+            .mapClass("country", Country.class)
+            .setFsyncPolicy(FsyncPolicy.FILE_AND_DIRECTORY)
+            .build();
+        Path directory = Paths.get("src/test/resources/output/testAtomicWriteToFile" + System.currentTimeMillis());
+        Path file = directory.resolve("countries.xml");
+        Context context = syncingJxp.createContext(getTestResource("/countries.xml")).copy();
+        context.persist(file.toString());
+        boolean posix = Files.getFileAttributeView(file, PosixFileAttributeView.class) != null;
+        if (posix) {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-r--r--"));
+        }
+
+        context.invoke(() -> new Country("Schweiz2", "Switzerland2", true).persist(context));
+
+        try (Stream<Path> files = Files.list(directory)) {
+            // the temporary file has replaced the file
+            List<String> fileNames = files.map(path -> path.getFileName().toString()).collect(Collectors.toList());
+            assertEquals(fileNames, Lists.newArrayList("countries.xml"));
+        }
+        if (posix) {
+            assertEquals(PosixFilePermissions.toString(Files.getPosixFilePermissions(file)), "rw-r--r--");
+        }
+        Context reloaded = syncingJxp.createContext(file.toFile());
+        assertNotNull(reloaded.getElement("Switzerland2"));
+        assertEquals(reloaded.getElementsRecursive().size(), context.getElementsRecursive().size());
+    }
+
+    @Test
+    public void testJournal() throws IOException {
+        JxpBackend journalingJxp = new JxpBuilder()
+            .mapClass("city", City.class)
+            .mapClass("state", State.class)
+            .mapClass("country", Country.class)
+            .setJournalSettings(new JournalSettings(1024 * 1024, 0, TimeUnit.MILLISECONDS))
+            .build();
+        Path file = Paths.get("src/test/resources/output/testJournal" + System.currentTimeMillis() + ".xml");
+        Context context = journalingJxp.createContext(getTestResource("/countries.xml")).copy();
+        context.persist(file.toString());
+        Journal journal = ((AbstractContext) context).getJournal();
+        assertNotNull(journal);
+        assertFalse(journal.hasCommits());
+        byte[] checkpointed = Files.readAllBytes(file);
+
+        context.invoke(() -> {
+            City zurich = new City("Zurich", 400000);
+            Country switzerland = new Country("Schweiz2", "Switzerland2", true, Lists.newArrayList(zurich));
+            switzerland.persist(context);
+            switzerland.insertTextNodeAfter(zurich, "Confoederatio Helvetica");
+        });
+        context.invoke(() -> {
+            context.requireElement("Sweden").setAttribute("population", 10000000);
+            context.requireElement("England").removeAttribute("population");
+            context.requireElement("United Kingdom").getSubElements().get(1).delete();
+            context.requireElement("Switzerland2").setTextContent("Schweiz");
+        });
+        // the rollback of a failed transaction reverts the changes committed to the document
+        expectException(PersistException.class, () -> context.invoke(() -> {
+            context.requireElement("France").setAttribute("sovereign", false);
+            throw new IllegalStateException("rollback");
+        }));
+
+        // only the journal was written
+        assertTrue(Arrays.equals(Files.readAllBytes(file), checkpointed));
+        assertTrue(journal.hasCommits());
+        assertJournalReplayed(journalingJxp, context, file);
+
+        // the frame of an interrupted commit is discarded
+        long size = journal.getSize();
+        Files.write(journal.getFile().toPath(), new byte[]{0, 0, 1, 0, 42}, StandardOpenOption.APPEND);
+        assertJournalReplayed(journalingJxp, context, file);
+        assertEquals(Files.size(journal.getFile().toPath()), size);
+
+        context.checkpoint();
+        assertFalse(journal.hasCommits());
+        assertFalse(Arrays.equals(Files.readAllBytes(file), checkpointed));
+        assertJournalReplayed(journalingJxp, context, file);
+    }
+
+    private void assertJournalReplayed(JxpBackend journalingJxp, Context context, Path file) {
+        JxpBackend streamingJxp = new JxpBuilder()
+            .mapClass("country", Country.class)
+            .setJournalSettings(journalingJxp.getJournalSettings())
+            .setStreamingLoad(true)
+            .build();
+        for (JxpBackend jxp : Lists.newArrayList(journalingJxp, streamingJxp)) {
+            Context reopened = jxp.createContext(file.toFile());
+            // writing and parsing the file merges adjacent text nodes
+            org.w3c.dom.Node expected = context.getDocument().getDocumentElement().cloneNode(true);
+            org.w3c.dom.Node actual = reopened.getDocument().getDocumentElement().cloneNode(true);
+            expected.normalize();
+            actual.normalize();
+            assertTrue(expected.isEqualNode(actual));
+            assertEquals(reopened.getElementsRecursive().size(), context.getElementsRecursive().size());
+            assertNotNull(reopened.getElement("Switzerland2"));
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        JxpBackend groupCommitJxp = new JxpBuilder()
+            .mapClass("city", City.class)
+            .mapClass("state", State.class)
+            .mapClass("country", Country.class)
+            .setGroupCommitWindow(20, TimeUnit.MILLISECONDS)
+            .build();
+        Path file = Paths.get("src/test/resources/output/testGroupCommit" + System.currentTimeMillis() + ".xml");
+        Context context = groupCommitJxp.createContext(getTestResource("/countries.xml")).copy();
+        context.persist(file.toString());
+        GroupCommit groupCommit = ((AbstractContext) context).getGroupCommit();
+        assertNotNull(groupCommit);
+
+        // the change has been written when the invocation returns
+        context.invoke(() -> context.requireElement("England").addSubElement(new City("Group", 0)));
+        assertNotNull(groupCommitJxp.createContext(file.toFile()).requireElement("England").getSubElement("Group"));
+        assertEquals(groupCommit.getWriteCount(), 1);
+
+        // the commits of nested invocations are written once the outermost invocation has released the mutex
+        Mode mutexMode = Mode.create().with(new MutexSyncMode<>(context.getMutexKey(), Context.GLOBAL_CONTEXT_SYNC));
+        context.invoke(mutexMode, () -> {
+            context.invoke(() -> context.requireElement("England").addSubElement(new City("Nested1", 0)));
+            context.invoke(() -> context.requireElement("England").addSubElement(new City("Nested2", 0)));
+            return null;
+        });
+        assertEquals(groupCommit.getCommitCount(), 3);
+        assertEquals(groupCommit.getWriteCount(), 2);
+        assertNotNull(groupCommitJxp.createContext(file.toFile()).requireElement("England").getSubElement("Nested2"));
+
+        int threads = 8;
+        int commitsPerThread = 5;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < threads; i++) {
+                int thread = i;
+                futures.add(executorService.submit(() -> {
+                    for (int j = 0; j < commitsPerThread; j++) {
+                        City city = new City("Group" + thread + "-" + j, j);
+                        context.invoke(() -> context.requireElement("England").addSubElement(city));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        assertEquals(groupCommit.getCommitCount(), threads * commitsPerThread + 3);
+        assertTrue(groupCommit.getWriteCount() <= groupCommit.getCommitCount());
+        XmlElement england = groupCommitJxp.createContext(file.toFile()).requireElement("England");
+        assertEquals(england.getSubElements().size(), context.requireElement("England").getSubElements().size());
+        for (int i = 0; i < threads; i++) {
+            for (int j = 0; j < commitsPerThread; j++) {
+                assertNotNull(england.getSubElement("Group" + i + "-" + j));
+            }
+        }
+    }
+
+    @Test
+    public void testGroupCommitWhileHoldingMutex() throws Exception {
+        JxpBackend groupCommitJxp = new JxpBuilder()
+            .mapClass("city", City.class)
+            .mapClass("state", State.class)
+            .mapClass("country", Country.class)
+            .setGroupCommitWindow(50, TimeUnit.MILLISECONDS)
+            .build();
+        Path file = Paths.get("src/test/resources/output/testGroupCommitWhileHoldingMutex" + System.currentTimeMillis() + ".xml");
+        Context context = groupCommitJxp.createContext(getTestResource("/countries.xml")).copy();
+        context.persist(file.toString());
+        GroupCommit groupCommit = ((AbstractContext) context).getGroupCommit();
+        assertNotNull(groupCommit);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> writer = executorService.submit(() ->
+                context.invoke(() -> context.requireElement("England").addSubElement(new City("Writer", 0))));
+            while (groupCommit.getCommitCount() == 0) {
+                Thread.sleep(1);
+            }
+
+            // holds the mutex past the window, so that the other thread starts writing the group commit and waits for
+            // the mutex while the nested commit is pending
+            Mode mutexMode = Mode.create().with(new MutexSyncMode<>(context.getMutexKey(), Context.GLOBAL_CONTEXT_SYNC));
+            Future<?> holder = executorService.submit(() -> context.invoke(mutexMode, () -> {
+                context.invoke(() -> context.requireElement("England").addSubElement(new City("Holder", 0)));
+                Thread.sleep(200);
+                return null;
+            }));
+
+            writer.get(10, TimeUnit.SECONDS);
+            holder.get(10, TimeUnit.SECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        XmlElement england = groupCommitJxp.createContext(file.toFile()).requireElement("England");
+        assertNotNull(england.getSubElement("Writer"));
+        assertNotNull(england.getSubElement("Holder"));
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception {
+        // an interval that does not elapse during the test, so that writes are only made by flushing
+        JxpBackend writeBehindJxp = createWriteBehindJxp(1, TimeUnit.HOURS);
+        Path file = Paths.get("src/test/resources/output/testWriteBehind" + System.currentTimeMillis() + ".xml");
+        Context context = writeBehindJxp.createContext(getTestResource("/countries.xml")).copy();
+        context.persist(file.toString());
+        assertTrue(context.getPendingWrite().isDone());
+        byte[] persisted = Files.readAllBytes(file);
+
+        context.invoke(() -> context.requireElement("England").addSubElement(new City("Behind", 0)));
+        CompletableFuture<Void> pendingWrite = context.getPendingWrite();
+        context.invoke(() -> context.requireElement("England").addSubElement(new City("Behind2", 0)));
+        // both commits are written by the same write, which has not been made yet
+        assertSame(context.getPendingWrite(), pendingWrite);
+        assertFalse(pendingWrite.isDone());
+        assertNotNull(context.requireElement("England").getSubElement("Behind"));
+        assertTrue(Arrays.equals(Files.readAllBytes(file), persisted));
+
+        // reloading the Context flushes the pending write rather than discarding it
+        context.reload();
+        assertTrue(pendingWrite.isDone());
+        assertFalse(pendingWrite.isCompletedExceptionally());
+        assertNotNull(context.requireElement("England").getSubElement("Behind"));
+        XmlElement england = writeBehindJxp.createContext(file.toFile()).requireElement("England");
+        assertNotNull(england.getSubElement("Behind"));
+        assertNotNull(england.getSubElement("Behind2"));
+
+        // closing the Context flushes the pending write
+        context.invoke(() -> context.requireElement("England").addSubElement(new City("Behind3", 0)));
+        pendingWrite = context.getPendingWrite();
+        assertFalse(pendingWrite.isDone());
+        context.close();
+        assertTrue(pendingWrite.isDone());
+        assertFalse(pendingWrite.isCompletedExceptionally());
+        assertNotNull(writeBehindJxp.createContext(file.toFile()).requireElement("England").getSubElement("Behind3"));
+
+        // the background thread writes the changes once the interval has elapsed
+        JxpBackend backgroundJxp = createWriteBehindJxp(10, TimeUnit.MILLISECONDS);
+        Context backgroundContext = backgroundJxp.createContext(file.toFile());
+        backgroundContext.invoke(() -> backgroundContext.requireElement("England").addSubElement(new City("Behind4", 0)));
+        backgroundContext.getPendingWrite().get(10, TimeUnit.SECONDS);
+        assertNotNull(backgroundJxp.createContext(file.toFile()).requireElement("England").getSubElement("Behind4"));
+    }
+
+    @Test
+    public void testWriteBehindRetry() throws Exception {
+        AtomicInteger failures = new AtomicInteger(1);
+        AtomicInteger writes = new AtomicInteger();
+        WriteBehind writeBehind = new WriteBehind("testWriteBehindRetry", TimeUnit.HOURS.toNanos(1), () -> {
+            if (failures.getAndDecrement() > 0) {
+                throw new CommitException("disk full");
+            }
+            writes.incrementAndGet();
+        }, NOPLogger.NOP_LOGGER);
+
+        CompletableFuture<Void> pendingWrite = writeBehind.request();
+        writeBehind.flush();
+        assertTrue(pendingWrite.isCompletedExceptionally());
+        assertEquals(writes.get(), 0);
+        // the changes remain pending, so the failure is reported until they are written
+        assertSame(writeBehind.getPendingWrite(), pendingWrite);
+        writeBehind.close();
+        assertEquals(writes.get(), 1);
+        assertTrue(writeBehind.getPendingWrite().isDone());
+        assertFalse(writeBehind.getPendingWrite().isCompletedExceptionally());
+
+        failures.set(Integer.MAX_VALUE);
+        WriteBehind failing = new WriteBehind("testWriteBehindRetryFailing", TimeUnit.HOURS.toNanos(1), () -> {
+            if (failures.getAndDecrement() > 0) {
+                throw new CommitException("disk full");
+            }
+            writes.incrementAndGet();
+        }, NOPLogger.NOP_LOGGER);
+        failing.request();
+        expectException(PersistException.class, failing::close);
+        assertTrue(failing.getPendingWrite().isCompletedExceptionally());
+        failures.set(0);
+        failing.close();
+        assertEquals(writes.get(), 2);
+        assertFalse(failing.getPendingWrite().isCompletedExceptionally());
+    }
+
+    private JxpBackend createWriteBehindJxp(long interval, TimeUnit timeUnit) {
+        return new JxpBuilder()
+            .mapClass("city", City.class)
+            .mapClass("state", State.class)
+            .mapClass("country", Country.class)
+            .setWriteBehindInterval(interval, timeUnit)
+            .build();
+    }
+
     @Test
     public void testRollback() {
         doWithCopiedContext(true, "/countries.xml", context -> {
@@ -1,20 +1,33 @@
 package net.robinfriedli.jxp.queries;
 
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 import org.testng.annotations.*;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import net.robinfriedli.jxp.AbstractTest;
 import net.robinfriedli.jxp.api.JxpBackend;
 import net.robinfriedli.jxp.api.JxpBuilder;
 import net.robinfriedli.jxp.api.StringConverter;
 import net.robinfriedli.jxp.api.XmlElement;
+import net.robinfriedli.jxp.collections.AttributeIndex;
+import net.robinfriedli.jxp.collections.FullTextIndex;
+import net.robinfriedli.jxp.collections.SubElementSpliterator;
 import net.robinfriedli.jxp.entities.City;
 import net.robinfriedli.jxp.entities.Continent;
 import net.robinfriedli.jxp.entities.Country;
 import net.robinfriedli.jxp.entities.State;
+import net.robinfriedli.jxp.exceptions.ConversionException;
+import net.robinfriedli.jxp.exceptions.PersistException;
 import net.robinfriedli.jxp.exceptions.QueryException;
 import net.robinfriedli.jxp.persist.Context;
 
@@ -112,6 +125,7 @@ public class QueryTest extends AbstractTest {
         List<XmlElement> found = context.query(attribute("name").is(4)).collect();// this no longer throws an exception since 1.1
         assertEquals(found.size(), 0);
         expectException(IllegalStateException.class, () -> context.query(attribute("name").is(context)).collect());
+        assertEquals(context.query(attribute("name").is(null)).count(), 0);
 
         XmlElement unitedKingdom = context.requireElement("United Kingdom");
         XmlElement foundLondon = context.query(and(
@@ -134,6 +148,26 @@ public class QueryTest extends AbstractTest {
         City newCity = london.getAttribute("name").getValue(City.class);
         assertEquals(newCity.getAttribute("population").getInt(), 1000);
         assertEquals(newCity.getAttribute("name").getValue(), "London");
+
+        // existing conversions are not replaced
+        StringConverter.map(-1, Integer.class, s -> -1, String::valueOf);
+        assertEquals((int) StringConverter.convert("5", Integer.class), 5);
+    }
+
+    @Test
+    public void testPrimitiveConversions() {
+        assertEquals(StringConverter.toInt("-42"), -42);
+        assertEquals(StringConverter.toLong("8900000000"), 8900000000L);
+        assertEquals(StringConverter.toDouble("2.5"), 2.5);
+        assertEquals(StringConverter.toFloat("2.5"), 2.5F);
+        assertTrue(StringConverter.toBoolean("true"));
+        expectException(ConversionException.class, () -> StringConverter.toInt("2.5"));
+        expectException(ConversionException.class, () -> StringConverter.toDouble(null));
+
+        Context context = jxp.createContext(getTestResource("/countries.xml"));
+        assertEquals(context.query(textContent().greaterThan(5)).count(), 0);
+        assertEquals(context.query(attribute("population").greaterThan(8000000L)).count(), 5);
+        assertEquals(context.query(attribute("population").lowerEquals(200000D)).count(), 3);
     }
 
     @Test
@@ -158,4 +192,459 @@ public class QueryTest extends AbstractTest {
         assertTrue(cityOfEdinburgh.getParent() instanceof Country);
     }
 
+    @Test
+    public void testIndexedQueries() {
+        Context context = jxp.createContext(getTestResource("/countries.xml")).copy();
+        context.createIndex(null, "population", Integer.class);
+        context.createIndex("city", "name", String.class);
+        assertSame(context.createIndex("city", "name", String.class), context.createIndex("city", "name", String.class));
+
+        List<Predicate<XmlElement>> conditions = Lists.newArrayList(
+            attribute("population").greaterThan(2000000),
+            attribute("population").lowerEquals(500000),
+            attribute("population").in(200000, 500000),
+            and(attribute("population").greaterEquals(900000), instanceOf(State.class)),
+            and(tagName("city"), attribute("name").is("London")),
+            and(tagName("city"), attribute("name").in("Zurich", "Paris", "Bern"))
+        );
+        assertIndexedResultsMatch(context, conditions);
+
+        City winterthur = context.requireElement("Winterthur", City.class);
+        context.invoke(() -> {
+            winterthur.setAttribute("population", 5000000);
+            winterthur.setAttribute("name", "London");
+            context.requireElement("Toronto").delete();
+            context.requireElement("Sweden").addSubElement(new City("Gothenburg", 580000));
+        });
+        assertIndexedResultsMatch(context, conditions);
+        assertTrue(context.query(attribute("population").greaterThan(4000000)).collect().contains(winterthur));
+        assertEquals(context.query(and(tagName("city"), attribute("name").is("London"))).count(), 3);
+
+        expectException(PersistException.class, () -> context.invoke(() -> {
+            winterthur.setAttribute("population", 100);
+            context.requireElement("Canada").addSubElement(new City("Montreal", 1700000));
+            throw new IllegalStateException("rollback");
+        }));
+        assertIndexedResultsMatch(context, conditions);
+        assertTrue(context.query(attribute("population").greaterThan(4000000)).collect().contains(winterthur));
+
+        expectException(UnsupportedOperationException.class, () -> jxp.createLazyContext(getTestResource("/countries.xml"))
+            .createIndex(null, "population", Integer.class));
+    }
+
+    @Test
+    public void testQueryPlanner() {
+        Predicate<XmlElement> hasSubElements = XmlElement::hasSubElements;
+        Predicate<XmlElement> isSovereign = element -> element.getAttribute("sovereign").getBool();
+        Predicate<XmlElement> greaterThan = attribute("population").greaterThan(100);
+        Predicate<XmlElement> isLondon = attribute("name").is("London");
+        Predicate<XmlElement> isCity = tagName("city");
+        Predicate<XmlElement> matchesName = attribute("name").matches(name -> name.charAt(0) == 'L');
+        Predicate<XmlElement> optimized = QueryPlanner.optimize(and(hasSubElements, greaterThan, isSovereign, matchesName, and(isCity, isLondon)));
+
+        assertTrue(optimized instanceof AndPredicate);
+        // functions checked by matches are not moved ahead of the lambdas that may guard them
+        assertEquals(((AndPredicate) optimized).getOperands(), Lists.newArrayList(isCity, isLondon, greaterThan, hasSubElements, isSovereign, matchesName));
+
+        Context context = jxp.createContext(getTestResource("/countries.xml")).copy();
+        context.createIndex(null, "name", String.class);
+        List<XmlElement> candidates = QueryPlanner.findCandidates(
+            or(attribute("name").is("London"), attribute("name").in("Paris", "Zurich")),
+            context.internal().getAttributeIndices()
+        );
+        assertNotNull(candidates);
+        assertEquals(candidates.size(), 5);
+        assertNull(QueryPlanner.findCandidates(or(isLondon, isCity), context.internal().getAttributeIndices()));
+        assertEquals(context.query(or(and(isCity, isLondon), attribute("name").is("Paris"))).count(), 3);
+        assertEquals(context.query(and(not(instanceOf(State.class)), attribute("name").is("Zurich"))).requireOnlyResult().getTagName(), "city");
+    }
+
+    @Test
+    public void testFullTextIndex() {
+        Context context = jxp.createContext(getTestResource("/countries.xml")).copy();
+        FullTextIndex nameIndex = context.createFullTextIndex(null, "name");
+        FullTextIndex textIndex = context.createFullTextIndex("city", null);
+        assertSame(context.createFullTextIndex(null, "name"), nameIndex);
+        assertEquals(FullTextIndex.tokenize("City of Edinburgh, Scotland"), Sets.newLinkedHashSet(Lists.newArrayList("city", "of", "edinburgh", "scotland")));
+
+        List<Predicate<XmlElement>> conditions = Lists.newArrayList(
+            attribute("name").containsTerm("Greater"),
+            attribute("name").containsTermWithPrefix("man"),
+            attribute("name").containsAllTerms("edinburgh of"),
+            and(tagName("city"), textContent().containsTerm("harbour"))
+        );
+
+        City geneva = context.requireElement("Geneva", City.class);
+        context.invoke(() -> geneva.setTextContent("A city on the harbour of Lake Geneva"));
+        assertIndexedResultsMatch(context, conditions);
+        assertEquals(context.query(attribute("name").containsTermWithPrefix("Man")).count(), 3);
+        assertEquals(context.query(attribute("name").containsAllTerms("greater london")).requireOnlyResult().getTagName(), "state");
+        assertEquals(context.query(attribute("name").containsTerm("Lond")).count(), 0);
+        assertEquals(context.query(attribute("name").containsAllTerms("")).count(), 0);
+        List<XmlElement> candidates = QueryPlanner.findCandidates(
+            attribute("name").containsTerm("greater"),
+            context.internal().getAttributeIndices(),
+            context.internal().getFullTextIndices(),
+            null
+        );
+        assertNotNull(candidates);
+        assertEquals(candidates.size(), 2);
+
+        context.invoke(() -> {
+            context.requireElement("Greater Manchester").setAttribute("name", "Manchester County");
+            geneva.setTextContent("A city on the lake");
+            context.requireElement("Sweden").addSubElement(new City("Greater Stockholm", 2400000));
+        });
+        assertIndexedResultsMatch(context, conditions.subList(0, 3));
+        assertEquals(context.query(and(tagName("city"), textContent().containsTerm("harbour"))).count(), 0);
+        assertEquals(context.query(attribute("name").containsTerm("county")).count(), 1);
+
+        expectException(PersistException.class, () -> context.invoke(() -> {
+            geneva.setTextContent("harbour");
+            context.requireElement("Greater London").delete();
+            throw new IllegalStateException("rollback");
+        }));
+        assertIndexedResultsMatch(context, conditions.subList(0, 3));
+        assertEquals(context.query(attribute("name").containsTerm("greater")).count(), 2);
+        assertEquals(context.query(textContent().containsTerm("lake")).requireOnlyResult(), geneva);
+
+        context.dropIndex(textIndex);
+        assertTrue(context.internal().getFullTextIndices().contains(nameIndex));
+        assertFalse(context.internal().getFullTextIndices().contains(textIndex));
+    }
+
+    @Test
+    public void testMaterializedView() {
+        Context context = jxp.createContext(getTestResource("/countries.xml")).copy();
+        Predicate<XmlElement> isBigCity = and(tagName("city"), attribute("population").greaterThan(1000000));
+        Order<Integer> byPopulation = Order.attribute("population", Order.Direction.DESCENDING, Integer.class);
+        MaterializedView bigCities = context.createView("bigCities", isBigCity, byPopulation);
+        MaterializedView states = context.createView("states", tagName("state"));
+        assertSame(context.getView("bigCities"), bigCities);
+        assertEquals(bigCities.getResults(), context.query(isBigCity).order(byPopulation).collect());
+        assertEquals(states.getResults(), context.query(tagName("state")).collect());
+
+        City winterthur = context.requireElement("Winterthur", City.class);
+        State zurich = context.requireElement("Zurich", State.class);
+        context.invoke(() -> {
+            winterthur.setAttribute("population", 9000000);
+            context.requireElement("Greater London").requireSubElement("London").setAttribute("population", 900000);
+            context.requireElement("Toronto").delete();
+            context.requireElement("Sweden").addSubElement(new City("Gothenburg", 1100000));
+            // inserted before the other states, requiring the view to restore the document order
+            zurich.getParent().insertSubElementBefore(zurich, new State("Bern", 1000000, Lists.newArrayList()));
+        });
+        assertEquals(bigCities.getResults(), context.query(isBigCity).order(byPopulation).collect());
+        assertSame(bigCities.getResults().get(0), winterthur);
+        assertEquals(states.getResults(), context.query(tagName("state")).collect());
+        assertEquals(states.stream().page(0, 2).collect().get(1), zurich);
+
+        List<XmlElement> bigCitiesBeforeRollback = bigCities.getResults();
+        expectException(PersistException.class, () -> context.invoke(() -> {
+            winterthur.setAttribute("population", 100);
+            context.requireElement("Stockholm").setAttribute("population", 20000000);
+            context.requireElement("Canada").addSubElement(new City("Montreal", 1700000));
+            zurich.delete();
+            throw new IllegalStateException("rollback");
+        }));
+        assertEquals(bigCities.getResults(), bigCitiesBeforeRollback);
+        assertEquals(states.getResults(), context.query(tagName("state")).collect());
+
+        expectException(IllegalArgumentException.class, () -> context.createView("states", tagName("city")));
+        context.dropView("states");
+        assertNull(context.getView("states"));
+        expectException(UnsupportedOperationException.class, () -> jxp.createLazyContext(getTestResource("/countries.xml"))
+            .createView("states", tagName("state")));
+    }
+
+    @Test
+    public void testQueryCache() {
+        Context context = jxp.createContext(getTestResource("/countries.xml")).copy();
+        context.enableQueryCache(16);
+        QueryCache cache = context.getQueryCache();
+        Predicate<XmlElement> isBigCity = and(tagName("city"), attribute("population").greaterThan(1000000));
+        Predicate<XmlElement> isSovereign = and(tagName("country"), attribute("sovereign").is("true"));
+        String bigCityXPath = "//city[@population > 1000000]";
+        String sovereignXPath = "//country[@sovereign = 'true']";
+
+        List<XmlElement> bigCities = context.query(isBigCity).collect();
+        assertEquals(context.query(and(tagName("city"), attribute("population").greaterThan(1000000))).collect(), bigCities);
+        assertEquals(context.query(isSovereign, Country.class).count(), 5);
+        assertEquals(context.xPathQuery(bigCityXPath).size(), bigCities.size());
+        assertEquals(context.xPathQuery(sovereignXPath), context.xPathQuery(sovereignXPath));
+        context.query(xmlElement -> true).collect();
+        assertEquals(cache.size(), 4);
+        assertEquals(cache.getHitCount(), 2);
+
+        // changing the population of a city only drops the results that depend on it
+        City winterthur = context.requireElement("Winterthur", City.class);
+        context.invoke(() -> winterthur.setAttribute("population", 9000000));
+        assertEquals(cache.size(), 2);
+        assertTrue(context.query(isBigCity).collect().contains(winterthur));
+        assertTrue(context.xPathQuery(bigCityXPath).contains(winterthur));
+        assertEquals(context.query(isSovereign).count(), 5);
+        assertEquals(cache.getHitCount(), 3);
+
+        // the country XPath query might depend on the sub elements of the country, the condition cannot
+        context.invoke(() -> context.requireElement("Sweden").addSubElement(new City("Gothenburg", 1100000)));
+        assertEquals(cache.size(), 1);
+        assertEquals(context.query(isBigCity).count(), bigCities.size() + 2);
+        assertEquals(context.xPathQuery(bigCityXPath).size(), bigCities.size() + 2);
+
+        // results cached during a transaction that is rolled back are dropped when the events are reverted
+        expectException(PersistException.class, () -> context.invoke(() -> {
+            winterthur.setAttribute("population", 100);
+            assertFalse(context.query(isBigCity).collect().contains(winterthur));
+            throw new IllegalStateException("rollback");
+        }));
+        assertTrue(context.query(isBigCity).collect().contains(winterthur));
+        assertEquals(context.query(isBigCity).collect(), Query.evaluate(isBigCity).execute(context.getElementsRecursive()).collect());
+
+        context.disableQueryCache();
+        assertNull(context.getQueryCache());
+        expectException(UnsupportedOperationException.class, () -> jxp.createLazyContext(getTestResource("/countries.xml")).enableQueryCache(16));
+    }
+
+    @Test
+    public void testAggregation() {
+        Context context = jxp.createContext(getTestResource("/countries.xml")).copy();
+        assertEquals(context.query(tagName("city")).sum("population"), 28460000d);
+        assertEquals(context.query(tagName("city")).avg("population").getAsDouble(), 28460000d / 12);
+        assertFalse(context.query(tagName("continent")).avg("population").isPresent());
+        assertEquals(context.query(tagName("city")).min("population", Integer.class).get(), Integer.valueOf(100000));
+        Map<Integer, Long> citiesByPopulation = context.query(tagName("city")).groupBy("population", Integer.class);
+        assertEquals(citiesByPopulation.get(8900000), Long.valueOf(2));
+        assertEquals(citiesByPopulation.values().stream().mapToLong(Long::longValue).sum(), 12);
+        Map<String, Double> populationByName = context.query(tagName("city"))
+            .groupBy("name", String.class, Collectors.summingDouble(city -> city.getAttribute("population").getDouble()));
+        assertEquals(populationByName.get("Manchester"), 3310000d);
+        assertEquals(populationByName.keySet().iterator().next(), "Zurich");
+
+        // min, max and groupBy are answered by the index, which only covers cities
+        context.createIndex("city", "population", Integer.class);
+        Predicate<XmlElement> startsWithM = and(tagName("city"), attribute("name").startsWith("M"));
+        assertEquals(context.query(startsWithM).max("population", Integer.class).get(), Integer.valueOf(2800000));
+        assertEquals(context.query(startsWithM).min("population", Integer.class).get(), Integer.valueOf(510000));
+        assertEquals(context.query(tagName("city")).groupBy("population", Integer.class), citiesByPopulation);
+        assertEquals(context.query(attribute("name").startsWith("Greater")).max("population", Integer.class).get(), Integer.valueOf(8900000));
+        assertEquals(context.query(startsWithM).limit(1).max("population", Integer.class).get(), Integer.valueOf(2800000));
+
+        City winterthur = context.requireElement("Winterthur", City.class);
+        context.invoke(() -> winterthur.setAttribute("population", 9000000));
+        assertEquals(context.query(tagName("city")).max("population", Integer.class).get(), Integer.valueOf(9000000));
+        expectException(QueryException.class, () -> context.query(tagName("city"), State.class).max("population", Integer.class));
+    }
+
+    @Test
+    public void testQueryProfiling() {
+        Context context = jxp.createContext(getTestResource("/countries.xml")).copy();
+        Predicate<XmlElement> isBigCity = and(tagName("city"), attribute("population").greaterThan(1000000));
+        QueryPlan plan = Query.evaluate(isBigCity).order(Order.attribute("population", Integer.class)).limit(2).explain(context);
+        assertEquals(plan.getAccessPath(), QueryPlan.AccessPath.INDEX);
+        assertEquals(plan.getCandidateCount(), 12);
+        assertTrue(plan.isBoundedSort());
+        assertTrue(plan.toString().contains("access path: INDEX using [ElementTypeIndex]"));
+
+        ResultStream<XmlElement> results = Query.evaluate(isBigCity).profile().order(Order.attribute("population", Integer.class)).limit(2).execute(context);
+        assertEquals(results.collect().size(), 2);
+        QueryStatistics statistics = results.getStatistics();
+        assertEquals(statistics.getElementsVisited(), 12);
+        assertEquals(statistics.getMatches(), 5);
+        assertEquals(statistics.getPredicateEvaluations(), 24);
+        assertEquals(statistics.getSortedElements(), 5);
+        assertEquals(statistics.getConversions(), 12);
+        assertEquals(statistics.getElementsInstantiated(), 0);
+        assertTrue(statistics.getNanos(QueryStatistics.Stage.EXECUTION) > 0);
+
+        // the converted values are cached by the attributes
+        ResultStream<XmlElement> repeated = Query.evaluate(isBigCity).profile().execute(context);
+        assertEquals(repeated.count(), 5);
+        assertEquals(repeated.getStatistics().getConversions(), 0);
+        assertNull(Query.evaluate(isBigCity).execute(context).getStatistics());
+
+        AttributeIndex<Integer> index = context.createIndex("city", "population", Integer.class);
+        QueryPlan indexedPlan = Query.evaluate(isBigCity).explain(context);
+        assertEquals(indexedPlan.getIndices(), Lists.newArrayList(index));
+        assertEquals(indexedPlan.getCandidateCount(), 5);
+        assertEquals(indexedPlan.getCondition().toString(), "and(tagName(\"city\"), attribute(\"population\").greaterThan(1000000))");
+
+        Context lazyContext = jxp.createLazyContext(getTestResource("/countries.xml"));
+        ResultStream<XmlElement> preFiltered = Query.evaluate(isBigCity).profile().execute(lazyContext);
+        assertEquals(preFiltered.count(), 5);
+        assertEquals(preFiltered.getStatistics().getPlan().getAccessPath(), QueryPlan.AccessPath.CONTEXT);
+        assertEquals(preFiltered.getStatistics().getElementsInstantiated(), 5);
+        ResultStream<XmlElement> scanned = Query.evaluate(xmlElement -> xmlElement.getTagName().equals("city")).profile().execute(lazyContext);
+        assertEquals(scanned.count(), 12);
+        assertEquals(scanned.getStatistics().getPlan().getAccessPath(), QueryPlan.AccessPath.FULL_SCAN);
+        assertEquals(scanned.getStatistics().getElementsVisited(), 24);
+        assertTrue(scanned.getStatistics().getElementsInstantiated() > 0);
+    }
+
+    @Test
+    public void testXPathPreFilter() {
+        Context context = jxp.createLazyContext(getTestResource("/countries.xml")).copy();
+        Predicate<XmlElement> isSovereign = element -> element.getAttribute("sovereign").getBool();
+        List<Predicate<XmlElement>> conditions = Lists.newArrayList(
+            and(tagName("city"), attribute("population").greaterEquals(500000)),
+            and(attribute("population").lowerThan(1000000), not(attribute("name").endsWith("er"))),
+            or(attribute("name").startsWith("Greater"), attribute("population").is(2700000)),
+            and(attribute("englishName").contains("land"), isSovereign),
+            and(instanceOf(City.class), attribute("name").in("Zurich", "Paris", "Bern")),
+            not(attribute("population").isEmpty())
+        );
+
+        assertEquals(XPathPreFilter.toXPath(and(tagName("city"), attribute("name").is("London"))), "/*//*[(name()=\"city\" and @name=\"London\")]");
+        assertNull(XPathPreFilter.toXPath(or(isSovereign, tagName("city"))));
+        assertNull(XPathPreFilter.toXPath(not(attribute("population").greaterThan(100))));
+        assertNotNull(XPathPreFilter.toXPath(and(isSovereign, tagName("city"))));
+        assertPreFilteredResultsMatch(context, conditions);
+
+        // formats the StringConverter accepts but XPath does not convert to a number
+        XmlElement winterthur = context.query(attribute("name").is("Winterthur")).requireOnlyResult();
+        context.invoke(() -> winterthur.setAttribute("population", "+600000"));
+        assertEquals(context.query(and(tagName("city"), attribute("population").is(600000))).requireOnlyResult().getAttribute("name").getValue(), "Winterthur");
+        assertPreFilteredResultsMatch(context, conditions);
+
+        context.invoke(() -> {
+            winterthur.setAttribute("population", 5000000);
+            assertNull(context.internal().findCandidates(conditions.get(0)));
+        });
+
+        context.getElementsRecursive();
+        assertNull(context.internal().findCandidates(conditions.get(0)));
+    }
+
+    @Test
+    public void testParallelQuery() {
+        Context context = jxp.createContext(getTestResource("/fullcountries.xml"));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Set<Thread> threads = Sets.newConcurrentHashSet();
+        Predicate<XmlElement> condition = element -> {
+            threads.add(Thread.currentThread());
+            return element.getAttribute("name").getValue().contains("an");
+        };
+
+        try {
+            Order<Integer> order = Order.attribute("iso", Order.Direction.DESCENDING, Integer.class);
+            List<XmlElement> sequential = Query.evaluate(condition).execute(context).collect();
+            List<Country> sorted = Query.evaluate(and(instanceOf(Country.class), condition)).order(order).execute(context, Country.class).collect();
+            assertTrue(sequential.size() > 10);
+
+            threads.clear();
+            List<XmlElement> parallel = Query.evaluate(condition).parallel(pool).execute(context).collect();
+            List<Country> sortedParallel = Query.evaluate(and(instanceOf(Country.class), condition)).order(order).parallel(pool).execute(context, Country.class).collect();
+            assertEquals(parallel, sequential);
+            assertEquals(sortedParallel, sorted);
+            assertEquals(Query.evaluate(condition).parallel(pool).execute(context).getFirstResult(), sequential.get(0));
+            assertTrue(threads.stream().allMatch(thread -> thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool));
+
+            // the spliterator has to cover each element exactly once, regardless of how it is split
+            List<XmlElement> elements = context.getElementsRecursive();
+            assertEquals(StreamSupport.stream(new SubElementSpliterator(context.getDocumentElement(), true), true).collect(Collectors.toList()), elements);
+            assertEquals(context.getDocumentElement().getSubElements().get(0).streamSubElements().parallel().collect(Collectors.toList()), context.getDocumentElement().getSubElements().get(0).getSubElements());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLimitAndOffset() {
+        Context context = jxp.createContext(getTestResource("/fullcountries.xml"));
+        Order<Integer> order = Order.attribute("iso", Order.Direction.DESCENDING, Integer.class);
+        List<Country> sorted = context.query(instanceOf(Country.class), Country.class).order(order).collect();
+        assertTrue(sorted.size() > 100);
+
+        assertEquals(context.query(instanceOf(Country.class), Country.class).order(order).limit(10).collect(), sorted.subList(0, 10));
+        assertEquals(context.query(instanceOf(Country.class), Country.class).order(order).offset(5).limit(10).collect(), sorted.subList(5, 15));
+        assertEquals(context.query(instanceOf(Country.class), Country.class).limit(10).order(order).page(2, 10).collect(), sorted.subList(20, 30));
+        assertEquals(context.query(instanceOf(Country.class), Country.class).order(order).offset(sorted.size() - 3).collect(), sorted.subList(sorted.size() - 3, sorted.size()));
+        assertEquals(context.query(instanceOf(Country.class), Country.class).order(order).getFirstResult(), sorted.get(0));
+        assertEquals(context.query(instanceOf(Country.class), Country.class).order(order).limit(0).count(), 0);
+        assertEquals(Query.evaluate(instanceOf(Country.class)).order(order).offset(3).limit(4).parallel().execute(context).collect(), sorted.subList(3, 7));
+
+        // elements with equal sort keys remain in document order
+        List<XmlElement> elements = context.query(instanceOf(Country.class)).collect();
+        assertEquals(context.query(instanceOf(Country.class)).order(Order.textContent()).offset(7).limit(5).collect(), elements.subList(7, 12));
+        assertEquals(Query.evaluate(instanceOf(Country.class)).order(Order.textContent()).limit(50).parallel().execute(context).collect(), elements.subList(0, 50));
+        assertEquals(context.query(instanceOf(Country.class)).limit(3).collect(), elements.subList(0, 3));
+    }
+
+    @Test
+    public void testKeysetPagination() {
+        Context context = jxp.createContext(getTestResource("/fullcountries.xml"));
+        Order<String> order = Order.attribute("code");
+        List<XmlElement> sorted = context.query(instanceOf(Country.class)).order(order).collect();
+        List<XmlElement> paged = Lists.newArrayList();
+
+        XmlElement last = null;
+        List<XmlElement> page;
+        do {
+            page = context.query(instanceOf(Country.class)).order(order).after(last).limit(25).collect();
+            assertTrue(page.size() <= 25);
+            paged.addAll(page);
+            last = page.isEmpty() ? null : page.get(page.size() - 1);
+        } while (!page.isEmpty());
+
+        assertEquals(paged, sorted);
+
+        // elements sorted ahead of the key are not repeated when elements are added
+        XmlElement afterFirstPage = sorted.get(24);
+        XmlElement first = sorted.get(0);
+        context.invoke(() -> {
+            Country country = new Country("Aaa", "Aaa", true);
+            first.getParent().addSubElement(country);
+            country.setAttribute("code", "aa");
+        });
+        assertEquals(context.query(instanceOf(Country.class)).order(order).after(afterFirstPage).limit(25).collect(), sorted.subList(25, 50));
+    }
+
+    @Test
+    public void testMultiKeyOrder() {
+        Context context = jxp.createContext(getTestResource("/countries.xml"));
+        Comparator<XmlElement> byPopulation = Comparator.comparing(element -> element.getAttribute("population").getValue().isEmpty() ? null : element.getAttribute("population").getInt(),
+            Comparator.nullsLast(Comparator.<Integer>reverseOrder()));
+        Comparator<XmlElement> expectedComparator = byPopulation.thenComparing(element -> element.getAttribute("name").getValue());
+        List<XmlElement> expected = context.getElementsRecursive().stream().sorted(expectedComparator).collect(Collectors.toList());
+
+        Order<Integer> order = Order.attribute("population", Order.Direction.DESCENDING, Integer.class).nullsLast().then(Order.attribute("name"));
+        assertEquals(context.query(element -> true).order(order).collect(), expected);
+        assertEquals(context.query(element -> true).order(Order.attribute("name")).order(Order.attribute("population", Order.Direction.DESCENDING, Double.class).nullsLast()).collect(), expected);
+        assertEquals(context.getElementsRecursive().stream().sorted(order.getComparator()).collect(Collectors.toList()), expected);
+        assertEquals(context.query(element -> true).order(order).limit(5).collect(), expected.subList(0, 5));
+
+        // by default missing values are converted to the empty value of the type
+        List<XmlElement> ascending = context.query(element -> true).order(Order.attribute("population", Long.class)).collect();
+        assertEquals(ascending.get(0).getAttribute("name").getValue(), "Sverige");
+        List<XmlElement> nullsFirst = context.query(element -> true).order(Order.attribute("population", Order.Direction.DESCENDING, Long.class).nullsFirst()).collect();
+        assertEquals(nullsFirst.get(3).getAttribute("name").getValue(), "Canada");
+        assertEquals(nullsFirst.get(4).getAttribute("name").getValue(), "United Kingdom");
+    }
+
+    private void assertPreFilteredResultsMatch(Context context, List<Predicate<XmlElement>> conditions) {
+        // compare with a copy so that the elements of the queried Context are never all instantiated
+        Context copy = context.copy();
+        for (Predicate<XmlElement> condition : conditions) {
+            assertNotNull(context.internal().findCandidates(condition));
+            List<String> expected = Query.evaluate(condition).execute(copy.getElementsRecursive()).getResultStream()
+                .map(element -> element.getAttribute("name").getValue())
+                .collect(Collectors.toList());
+            List<String> found = context.query(condition).getResultStream()
+                .map(element -> element.getAttribute("name").getValue())
+                .collect(Collectors.toList());
+            assertFalse(expected.isEmpty());
+            assertEquals(found, expected);
+        }
+    }
+
+    private void assertIndexedResultsMatch(Context context, List<Predicate<XmlElement>> conditions) {
+        for (Predicate<XmlElement> condition : conditions) {
+            List<XmlElement> expected = Query.evaluate(condition).execute(context.getElementsRecursive()).collect();
+            List<XmlElement> found = context.query(condition).collect();
+            assertFalse(expected.isEmpty());
+            // index lookups return their results in document order, like a full scan
+            assertEquals(found, expected);
+            assertSame(context.query(condition).getFirstResult(), expected.get(0));
+        }
+    }
+
 }